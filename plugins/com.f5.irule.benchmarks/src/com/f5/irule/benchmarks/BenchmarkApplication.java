@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.Map;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Eclipse application that runs the JMH benchmarks of this plugin.<br>
+ * The benchmarks need the OSGi platform, for the workspace and the platform:/plugin URLs,
+ * so they run inside this application process and are never forked.<br>
+ * The application arguments are regular JMH command line options, for example:<br>
+ * <code>eclipse -application com.f5.irule.benchmarks.run -data /tmp/bench-ws
+ * -rf json -rff results.json RuleParsing</code><br>
+ * Before building, run <code>mvn -f plugins/com.f5.irule.benchmarks/pom.xml generate-resources</code>
+ * to fetch the JMH version pinned in that pom (jmh.version) into the lib folder.<br>
+ * The .factorypath puts lib/apt/jmh-generator-annprocess.jar on the annotation processor path,
+ * so the generated benchmark classes and their list are part of this plugin.<br>
+ * Only compare results produced with the same JMH version (jmhVersion in the json results).
+ */
+public class BenchmarkApplication implements IApplication {
+
+    public Object start(IApplicationContext context) throws Exception {
+        Map<?, ?> arguments = context.getArguments();
+        String[] args = (String[]) arguments.get(IApplicationContext.APPLICATION_ARGS);
+        if (args == null) {
+            args = new String[0];
+        }
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+            .parent(commandLine)
+            .forks(0)
+            .build();
+        new Runner(options).run();
+        return IApplication.EXIT_OK;
+    }
+
+    public void stop() {
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.Credentials;
+import com.f5.irule.model.Ids;
+import com.f5.irule.model.ModelObject;
+import com.f5.irule.model.ModelParent;
+import com.f5.irule.model.ProxyDetails;
+import com.f5.irule.model.RestRule;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Synthetic Big-IP content for the benchmarks.<br>
+ * The content is generated from a fixed seed so every run measures the same data.
+ */
+final class BenchmarkData {
+
+    static final String ADDRESS = "10.0.0.1";
+    static final long SEED = 4471;
+
+    private static final String[] COMMANDS = { "HTTP::uri", "HTTP::header", "HTTP::respond",
+        "IP::client_addr", "class", "pool", "log", "set", "if", "switch" };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create a connection that is never connected.
+     */
+    static BigIPConnection createConnection() {
+        Credentials credentials = new Credentials("admin", "admin", false);
+        ProxyDetails proxyDetails = new ProxyDetails(null, 0, null, null, false, false);
+        return new BigIPConnection(ADDRESS, credentials, proxyDetails, new Path(ADDRESS));
+    }
+
+    static String partitionName(int index) {
+        return index == 0 ? "Common" : "Partition" + index;
+    }
+
+    static String ruleName(int index) {
+        return "rule_" + index;
+    }
+
+    /**
+     * Build the model tree the navigator shows after a full load:<br>
+     * connection, ltm rules folder, one folder per partition, and the rules spread over the partitions.<br>
+     * Return the rules in creation order.
+     */
+    static List<RestRule> populate(BigIPConnection conn, int partitions, int rules) {
+        ModelParent ltmFolder = conn.getLtmFolder(Ids.IRULES_LTM_FOLDER);
+        List<ModelParent> partitionFolders = new ArrayList<ModelParent>();
+        for (int i = 0; i < partitions; i++) {
+            String partition = partitionName(i);
+            IPath path = new Path(partition).append(Ids.IRULES_LTM_FOLDER);
+            ModelParent folder = new ModelParent(partition, conn, partition, ModelObject.Type.DIRECTORY, path);
+            ltmFolder.addChild(folder);
+            partitionFolders.add(folder);
+        }
+        List<RestRule> created = new ArrayList<RestRule>();
+        for (int i = 0; i < rules; i++) {
+            ModelParent folder = partitionFolders.get(i % partitions);
+            RestRule rule = createRule(conn, folder.getPartition(), i);
+            folder.addChild(rule);
+            created.add(rule);
+        }
+        return created;
+    }
+
+    /**
+     * Create a detached ltm rule model with the local path its partition folder would give it.
+     */
+    static RestRule createRule(BigIPConnection conn, String partition, int index) {
+        String name = ruleName(index);
+        IPath path = rulePath(partition, name);
+        return new RestRule(name, conn, partition, ModelObject.Type.LTM_RULE, path);
+    }
+
+    static IPath rulePath(String partition, String name) {
+        return new Path(partition).append(Ids.IRULES_LTM_FOLDER).append(name + ".tcl");
+    }
+
+    /**
+     * Generate an iRule body of roughly the given size in characters.
+     */
+    static String ruleBody(Random random, int size) {
+        StringBuilder builder = new StringBuilder(size + 64);
+        builder.append("when HTTP_REQUEST {\n");
+        while (builder.length() < size) {
+            String command = COMMANDS[random.nextInt(COMMANDS.length)];
+            builder.append("    ").append(command).append(" \"value_").append(random.nextInt(1000)).append("\"\n");
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    /**
+     * Generate one item of a ltm rules collection response.
+     */
+    static JsonObject ruleItem(Random random, int index, int partitions, int bodySize) {
+        String partition = partitionName(index % partitions);
+        String name = ruleName(index);
+        JsonObject item = new JsonObject();
+        item.addProperty("kind", "tm:ltm:rule:rulestate");
+        item.addProperty("name", name);
+        item.addProperty("partition", partition);
+        item.addProperty("fullPath", "/" + partition + "/" + name);
+        item.addProperty("generation", 1000 + index);
+        item.addProperty("selfLink", "https://localhost/mgmt/tm/ltm/rule/~" + partition + "~" + name);
+        item.addProperty("apiAnonymous", ruleBody(random, bodySize));
+        return item;
+    }
+
+    /**
+     * Generate the response of a GET ltm rules collection request.
+     */
+    static String rulesCollection(int rules, int partitions, int bodySize) {
+        Random random = new Random(SEED);
+        JsonArray items = new JsonArray();
+        for (int i = 0; i < rules; i++) {
+            items.add(ruleItem(random, i, partitions, bodySize));
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("kind", "tm:ltm:rule:rulecollectionstate");
+        root.addProperty("selfLink", "https://localhost/mgmt/tm/ltm/rule");
+        root.add("items", items);
+        return root.toString();
+    }
+
+    static String recordName(int index) {
+        return "host" + index + ".example.com";
+    }
+
+    /**
+     * Generate the response of a GET internal data-group request with the given number of records.
+     */
+    static JsonObject dataGroup(String name, int records) {
+        JsonArray array = new JsonArray();
+        for (int i = 0; i < records; i++) {
+            JsonObject record = new JsonObject();
+            record.addProperty("name", recordName(i));
+            record.addProperty("data", "pool_" + (i % 16));
+            array.add(record);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("kind", "tm:ltm:data-group:internal:internalstate");
+        root.addProperty("name", name);
+        root.addProperty("partition", partitionName(0));
+        root.addProperty("type", "string");
+        root.add("records", array);
+        return root;
+    }
+}
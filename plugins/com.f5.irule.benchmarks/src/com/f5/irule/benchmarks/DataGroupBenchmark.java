@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.BigIPConnection.Module;
+import com.f5.irule.model.DataGroup;
+import com.f5.irule.model.ModelObject;
+
+/**
+ * Benchmarks of the {@link DataGroup} record lookups done by the data-group editor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DataGroupBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int records;
+
+    private DataGroup dataGroup;
+    private String firstRecord;
+    private String lastRecord;
+
+    @Setup
+    public void setup() {
+        BigIPConnection conn = BenchmarkData.createConnection();
+        String partition = BenchmarkData.partitionName(0);
+        IPath folder = new Path(partition).append(DataGroup.FOLDER_NAME);
+        dataGroup = new DataGroup("hosts", "string", conn, partition,
+            ModelObject.Type.LTM_DATA_GROUP, Module.ltm, folder);
+        dataGroup.update(BenchmarkData.dataGroup("hosts", records));
+        firstRecord = BenchmarkData.recordName(0);
+        lastRecord = BenchmarkData.recordName(records - 1);
+    }
+
+    @Benchmark
+    public String getRecordDataFirst() {
+        return dataGroup.getRecordData(firstRecord);
+    }
+
+    @Benchmark
+    public String getRecordDataLast() {
+        return dataGroup.getRecordData(lastRecord);
+    }
+
+    @Benchmark
+    public String getRecordDataMissing() {
+        return dataGroup.getRecordData("missing");
+    }
+}
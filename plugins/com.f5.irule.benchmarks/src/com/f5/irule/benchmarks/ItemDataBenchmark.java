@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.model.ItemData;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Benchmarks of the conversion of a single collection item to {@link ItemData}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ItemDataBenchmark {
+
+    @Param({ "256", "16384" })
+    public int bodySize;
+
+    private JsonObject item;
+    private String itemText;
+
+    @Setup
+    public void setup() {
+        item = BenchmarkData.ruleItem(new Random(BenchmarkData.SEED), 1, 4, bodySize);
+        itemText = item.toString();
+    }
+
+    @Benchmark
+    public ItemData getData() {
+        return ItemData.getData(item);
+    }
+
+    /**
+     * The streaming alternative, reading the item text without building a tree.
+     */
+    @Benchmark
+    public ItemData read() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(itemText));
+        try {
+            return ItemData.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.ModelObject;
+import com.f5.irule.model.ModelParent;
+import com.f5.irule.model.RestRule;
+
+/**
+ * Benchmarks of the model tree lookups and insertions,
+ * which run for every rule when the connection content is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModelTreeBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int rules;
+
+    @Param({ "4" })
+    public int partitions;
+
+    private BigIPConnection conn;
+    private String lastName;
+    private IPath lastPath;
+    private IPath missingPath;
+    private RestRule[] detached;
+
+    @Setup
+    public void setup() {
+        conn = BenchmarkData.createConnection();
+        List<RestRule> created = BenchmarkData.populate(conn, partitions, rules);
+        RestRule last = created.get(created.size() - 1);
+        lastName = last.getName();
+        lastPath = last.getFilePath();
+        missingPath = BenchmarkData.rulePath(BenchmarkData.partitionName(0), "missing");
+        detached = new RestRule[rules];
+        for (int i = 0; i < rules; i++) {
+            detached[i] = BenchmarkData.createRule(conn, BenchmarkData.partitionName(0), i);
+        }
+    }
+
+    /**
+     * Find the last added rule by its local path, the lookup done before creating each loaded rule.
+     */
+    @Benchmark
+    public ModelObject getModelByPath() {
+        return conn.getModel(null, lastPath);
+    }
+
+    @Benchmark
+    public ModelObject getModelByName() {
+        return conn.getModel(lastName, null);
+    }
+
+    /**
+     * A lookup that visits the whole tree.
+     */
+    @Benchmark
+    public ModelObject getModelMissing() {
+        return conn.getModel(null, missingPath);
+    }
+
+    /**
+     * Fill an empty folder with all the rules, one {@link ModelParent#addChild(ModelObject)} at a time.
+     */
+    @Benchmark
+    public ModelParent addChild() {
+        String partition = BenchmarkData.partitionName(0);
+        ModelParent folder = new ModelParent(partition, conn, partition, ModelObject.Type.DIRECTORY, null);
+        for (RestRule rule : detached) {
+            folder.addChild(rule);
+        }
+        return folder;
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.BigIPConnection.Module;
+import com.f5.irule.model.Rule;
+import com.f5.irule.model.RuleProvider;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Benchmarks of parsing a ltm rules collection response to {@link Rule} models,
+ * from the response text, with the tree and the streaming parsers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RuleParsingBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int rules;
+
+    @Param({ "2048" })
+    public int bodySize;
+
+    private BigIPConnection conn;
+    private String response;
+
+    @Setup
+    public void setup() {
+        conn = BenchmarkData.createConnection();
+        response = BenchmarkData.rulesCollection(rules, 4, bodySize);
+    }
+
+    @Benchmark
+    public HashMap<IPath, Rule> parseIrules() {
+        JsonElement root = new JsonParser().parse(response);
+        return RuleProvider.parseIrules(conn, Module.ltm, root);
+    }
+
+    @Benchmark
+    public HashMap<IPath, Rule> parseIrulesStreaming() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(response));
+        try {
+            return RuleProvider.parseIrules(conn, Module.ltm, reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.core.text.TclIruleSchema;
+
+/**
+ * Benchmarks of reading the bundled irule-schema.json and of the lookups
+ * done by the editor completion and hover on every key stroke.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SchemaBenchmark {
+
+    private String lastCommand;
+    private String lastEvent;
+
+    @Setup
+    public void setup() {
+        String[] commands = TclIruleSchema.getCommandNames();
+        String[] events = TclIruleSchema.getEventNames();
+        lastCommand = commands[commands.length - 1];
+        lastEvent = events[events.length - 1];
+    }
+
+    /**
+     * The initialization cost paid by the first editor opened.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean reload() {
+        return TclIruleSchema.reload();
+    }
+
+    @Benchmark
+    public String[] getCommandNames() {
+        return TclIruleSchema.getCommandNames();
+    }
+
+    @Benchmark
+    public String getDescription() {
+        return TclIruleSchema.getDescription(lastCommand);
+    }
+
+    @Benchmark
+    public String getExamples() {
+        return TclIruleSchema.getExamples(lastCommand);
+    }
+
+    @Benchmark
+    public boolean isEvent() {
+        return TclIruleSchema.isEvent(lastEvent);
+    }
+
+    @Benchmark
+    public boolean isEventMissing() {
+        return TclIruleSchema.isEvent(lastCommand);
+    }
+}
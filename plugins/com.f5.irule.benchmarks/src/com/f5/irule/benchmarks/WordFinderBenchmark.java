@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.f5.irule.core.text.TclIruleWordFinder;
+
+/**
+ * Benchmarks of finding the word under the cursor, done for every editor hover.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WordFinderBenchmark {
+
+    @Param({ "1024", "65536" })
+    public int documentSize;
+
+    private IDocument document;
+    private int wordOffset;
+    private int spaceOffset;
+
+    @Setup
+    public void setup() {
+        String text = BenchmarkData.ruleBody(new Random(BenchmarkData.SEED), documentSize);
+        document = new Document(text);
+        wordOffset = text.lastIndexOf("HTTP::header") + 4;
+        if (wordOffset < 4) {
+            wordOffset = text.length() / 2;
+        }
+        spaceOffset = text.lastIndexOf(' ');
+    }
+
+    @Benchmark
+    public IRegion findWord() {
+        return TclIruleWordFinder.find(document, wordOffset);
+    }
+
+    @Benchmark
+    public IRegion findSpace() {
+        return TclIruleWordFinder.find(document, spaceOffset);
+    }
+}
@@ -86,6 +86,17 @@ public enum TclIruleSchema {
         return (java.util.Arrays.asList(eventNames).indexOf(name) > -1);
     }
 
+    /**
+     * Discard the cached schema and read it again.<br>
+     * Return true if the schema was read successfully.
+     */
+    public static synchronized boolean reload () {
+        haveSchema = false;
+        descriptions.clear();
+        examples.clear();
+        return readLocalSchema();
+    }
+
  // TODO get schema from Big-IP.  If not available then read local schema.
     private static boolean readLocalSchema () {
 		try {
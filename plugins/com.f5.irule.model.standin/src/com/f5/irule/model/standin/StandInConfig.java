@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.standin;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Settings of the {@link StandInServer}: its address, the generated content and the injected latency and faults.<br>
+ * Every field can be set by a "--name=value" command line argument
+ * or by a "com.f5.irule.model.standin.name" system property, the argument wins.
+ */
+public class StandInConfig {
+
+    static final String PROPERTY_PREFIX = "com.f5.irule.model.standin.";
+
+    // Server
+    int port = 8100;
+    int threads = 32;
+    String version = "13.1.0";
+    int tokenTimeout = 1200;
+
+    // Generated content
+    int rules = 100;
+    int gtmRules = 10;
+    int ruleSize = 2048;
+    int dataGroups = 20;
+    int records = 100;
+    int workspaces = 5;
+    int workspaceRules = 2;
+    int extensions = 2;
+    int extensionFiles = 5;
+    int fileSize = 4096;
+    int iappPackages = 2;
+    int iappFiles = 10;
+    long seed = 1;
+
+    // Latency, milliseconds
+    long latency = 20;
+    long jitter = 10;
+    /**
+     * Added latency per KB of response body
+     */
+    long latencyPerKb = 0;
+
+    // Faults, ratios of the matching requests
+    double errorRate = 0;
+    int errorStatus = 503;
+    double resetRate = 0;
+    double stallRate = 0;
+    long stallTime = 150 * 1000;
+    /**
+     * Only requests whose path matches this regular expression get faults
+     */
+    String faultPath = ".*";
+
+    /**
+     * Read the system properties and then the command line arguments.
+     */
+    public static StandInConfig parse(String[] args) {
+        StandInConfig config = new StandInConfig();
+        for (Field field : getFields()) {
+            String value = System.getProperty(PROPERTY_PREFIX + field.getName());
+            if (value != null) {
+                config.set(field, value);
+            }
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            config.set(getField(name), value);
+        }
+        return config;
+    }
+
+    private static Field[] getFields() {
+        return StandInConfig.class.getDeclaredFields();
+    }
+
+    private static Field getField(String name) {
+        for (Field field : getFields()) {
+            if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown setting: " + name);
+    }
+
+    private void set(Field field, String value) {
+        if (Modifier.isStatic(field.getModifiers())) {
+            return;
+        }
+        Class<?> type = field.getType();
+        try {
+            if (type == int.class) {
+                field.setInt(this, Integer.parseInt(value));
+            } else if (type == long.class) {
+                field.setLong(this, Long.parseLong(value));
+            } else if (type == double.class) {
+                field.setDouble(this, Double.parseDouble(value));
+            } else {
+                field.set(this, value);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid " + field.getName() + ": " + value, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        for (Field field : getFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            try {
+                builder.append(" ").append(field.getName()).append("=").append(field.get(this));
+            } catch (IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+}
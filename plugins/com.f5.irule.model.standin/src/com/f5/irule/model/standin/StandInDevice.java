@@ -0,0 +1,902 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * In memory emulation of the iControl REST endpoints the plugin uses:<br>
+ * login, sys/version, sys/provision, auth/partition, ltm/gtm rule, ltm/gtm data-group/internal,
+ * ilx/workspace, sys/service, transaction, shared/file-transfer/uploads
+ * and the iapp file-management and directory-management endpoints.<br>
+ * Resources are generated from the {@link StandInConfig} and every change bumps the device generation,
+ * which is reported in the generation and lastUpdateMicros fields of the changed resource.<br>
+ * Requests that carry a {@link #COORDINATION_ID_HEADER} are queued in their transaction
+ * and applied when the transaction is committed, all or none.
+ */
+class StandInDevice {
+
+    static final String COORDINATION_ID_HEADER = "X-F5-REST-Coordination-Id";
+    static final String AUTH_TOKEN_HEADER = "X-F5-Auth-Token";
+
+    private static final String UTF_8 = "UTF-8";
+    private static final String JSON = "application/json; charset=UTF-8";
+    private static final String TEXT = "text/plain; charset=UTF-8";
+    private static final String COMMON = "Common";
+    private static final String ILX_UPLOAD = "ilx_workspace_file";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("(\\d+)-(\\d+)/(\\d+)");
+    private static final List<String> COLLECTIONS = Arrays.asList(
+        "ltm/rule", "gtm/rule", "ltm/data-group/internal", "gtm/data-group/internal", "ilx/workspace");
+
+    private final StandInConfig config;
+    private final AtomicLong generation = new AtomicLong(1);
+    private final AtomicLong restarts = new AtomicLong();
+
+    /**
+     * Resources of every collection, by full path ("/Common/name")
+     */
+    private final Map<String, Map<String, JsonObject>> collections = new HashMap<String, Map<String, JsonObject>>();
+    /**
+     * Files of every ILX workspace, by full path of the workspace and path in it ("rules/name.tcl")
+     */
+    private final Map<String, TreeMap<String, String>> workspaceFiles = new HashMap<String, TreeMap<String, String>>();
+    private final TreeMap<String, byte[]> iappFiles = new TreeMap<String, byte[]>();
+    private final TreeSet<String> iappDirectories = new TreeSet<String>();
+    private final Map<String, byte[]> uploads = new HashMap<String, byte[]>();
+    private final Map<String, List<Request>> transactions = new LinkedHashMap<String, List<Request>>();
+    private final Map<String, Long> tokens = new HashMap<String, Long>();
+
+    StandInDevice(StandInConfig config) {
+        this.config = config;
+        for (String collection : COLLECTIONS) {
+            collections.put(collection, new TreeMap<String, JsonObject>());
+        }
+        generate();
+    }
+
+    /**
+     * A request after the latency and faults were applied, with its path relative to the host ("mgmt/tm/...")
+     */
+    static class Request {
+
+        String method;
+        String path;
+        Map<String, String> query = new HashMap<String, String>();
+        Map<String, String> headers = new HashMap<String, String>();
+        byte[] body = new byte[0];
+
+        String getHeader(String name) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name)) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Return the value of the "options=name,value" query option.
+         */
+        String getOption(String name) {
+            String options = query.get("options");
+            if (options == null) {
+                return null;
+            }
+            String[] parts = options.split(",");
+            for (int i = 0; i + 1 < parts.length; i += 2) {
+                if (parts[i].equals(name)) {
+                    return parts[i + 1];
+                }
+            }
+            return null;
+        }
+
+        JsonObject getJson() {
+            String text = toText(body);
+            if (text.trim().isEmpty()) {
+                return new JsonObject();
+            }
+            JsonElement element = new JsonParser().parse(text);
+            return element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path;
+        }
+    }
+
+    static class Response {
+
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response json(int status, JsonElement json) {
+            return new Response(status, JSON, toBytes(json.toString()));
+        }
+
+        static Response error(int status, String message) {
+            JsonObject json = new JsonObject();
+            json.addProperty("code", status);
+            json.addProperty("message", message);
+            json.add("errorStack", new JsonArray());
+            return json(status, json);
+        }
+
+        boolean isOK() {
+            return status < 300;
+        }
+    }
+
+    long getRestarts() {
+        return restarts.get();
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Handle the request, return null if it must be authenticated first.
+     */
+    synchronized Response handle(Request request) {
+        String path = request.path;
+        if (path.equals("mgmt/shared/authn/login") && request.method.equals("POST")) {
+            return login(request);
+        }
+        if (!isAuthenticated(request)) {
+            return Response.error(401, "Authorization failed: no valid token or credentials");
+        }
+        String coordinationId = request.getHeader(COORDINATION_ID_HEADER);
+        if (coordinationId != null) {
+            return queue(coordinationId, request);
+        }
+        return dispatch(request);
+    }
+
+    private Response dispatch(Request request) {
+        String path = request.path;
+        String method = request.method;
+        if (path.startsWith("mgmt/shared/authz/tokens")) {
+            return Response.json(200, new JsonObject());
+        }
+        if (path.equals("mgmt/tm/sys/version")) {
+            return getVersion();
+        }
+        if (path.equals("mgmt/tm/sys/provision")) {
+            return getProvision();
+        }
+        if (path.equals("mgmt/tm/auth/partition")) {
+            return getPartitions();
+        }
+        if (path.equals("mgmt/tm/sys/service") || path.startsWith("mgmt/tm/sys/service/")) {
+            restarts.incrementAndGet();
+            JsonObject json = request.getJson();
+            json.addProperty("kind", "tm:sys:service:runstate");
+            return Response.json(200, json);
+        }
+        if (path.startsWith("mgmt/tm/transaction")) {
+            return transaction(request, path.substring("mgmt/tm/transaction".length()));
+        }
+        if (path.startsWith("mgmt/shared/file-transfer/uploads/") && method.equals("POST")) {
+            String name = path.substring("mgmt/shared/file-transfer/uploads/".length());
+            return upload(request, name);
+        }
+        if (path.startsWith("mgmt/shared/iapp/file-management/")) {
+            return iappFile(request, path.substring("mgmt/shared/iapp/file-management/".length()));
+        }
+        if (path.startsWith("mgmt/shared/iapp/directory-management-recursive")) {
+            return iappDirectory(request, path.substring("mgmt/shared/iapp/directory-management-recursive".length()), true);
+        }
+        if (path.startsWith("mgmt/shared/iapp/directory-management")) {
+            return iappDirectory(request, path.substring("mgmt/shared/iapp/directory-management".length()), false);
+        }
+        for (String collection : COLLECTIONS) {
+            String prefix = "mgmt/tm/" + collection;
+            if (path.equals(prefix) || path.startsWith(prefix + "/")) {
+                String id = path.length() > prefix.length() ? path.substring(prefix.length() + 1) : null;
+                if (collection.equals("ilx/workspace")) {
+                    return workspace(request, id);
+                }
+                return resource(request, collection, id);
+            }
+        }
+        return Response.error(404, "Public URI path not registered: /" + path);
+    }
+
+    // Authentication
+
+    private Response login(Request request) {
+        JsonObject body = request.getJson();
+        String token = UUID.randomUUID().toString().replace("-", "").toUpperCase();
+        tokens.put(token, System.currentTimeMillis() + config.tokenTimeout * 1000L);
+        JsonObject tokenJson = new JsonObject();
+        tokenJson.addProperty("token", token);
+        tokenJson.addProperty("timeout", config.tokenTimeout);
+        tokenJson.addProperty("userName", body.has("username") ? body.get("username").getAsString() : "admin");
+        JsonObject json = new JsonObject();
+        json.addProperty("username", tokenJson.get("userName").getAsString());
+        json.add("token", tokenJson);
+        return Response.json(200, json);
+    }
+
+    private boolean isAuthenticated(Request request) {
+        String token = request.getHeader(AUTH_TOKEN_HEADER);
+        if (token != null) {
+            Long expiry = tokens.get(token);
+            return expiry != null && expiry > System.currentTimeMillis();
+        }
+        String authorization = request.getHeader("Authorization");
+        return authorization != null && authorization.startsWith("Basic ");
+    }
+
+    // System
+
+    private Response getVersion() {
+        JsonObject description = new JsonObject();
+        description.addProperty("description", config.version);
+        JsonObject entries = new JsonObject();
+        entries.add("Version", description);
+        JsonObject nestedStats = new JsonObject();
+        nestedStats.add("entries", entries);
+        JsonObject entry = new JsonObject();
+        entry.add("nestedStats", nestedStats);
+        JsonObject all = new JsonObject();
+        all.add("https://localhost/mgmt/tm/sys/version/0", entry);
+        JsonObject json = new JsonObject();
+        json.addProperty("kind", "tm:sys:version:versionstats");
+        json.add("entries", all);
+        return Response.json(200, json);
+    }
+
+    private Response getProvision() {
+        JsonArray items = new JsonArray();
+        for (String module : new String[] { "ltm", "gtm", "ilx", "afm", "asm" }) {
+            JsonObject item = new JsonObject();
+            item.addProperty("name", module);
+            item.addProperty("level", module.equals("afm") || module.equals("asm") ? "none" : "nominal");
+            items.add(item);
+        }
+        return Response.json(200, items("tm:sys:provision:provisioncollectionstate", items));
+    }
+
+    private Response getPartitions() {
+        JsonArray items = new JsonArray();
+        JsonObject item = new JsonObject();
+        item.addProperty("name", COMMON);
+        item.addProperty("fullPath", COMMON);
+        items.add(item);
+        return Response.json(200, items("tm:auth:partition:partitioncollectionstate", items));
+    }
+
+    // Rules and Data-Groups
+
+    private Response resource(Request request, String collection, String id) {
+        Map<String, JsonObject> resources = collections.get(collection);
+        String method = request.method;
+        if (id == null) {
+            if (method.equals("GET")) {
+                JsonArray items = new JsonArray();
+                for (JsonObject resource : resources.values()) {
+                    items.add(select(resource, request.query.get("$select")));
+                }
+                return Response.json(200, items(getKind(collection) + "collectionstate", items));
+            }
+            if (method.equals("POST")) {
+                JsonObject body = request.getJson();
+                if (!body.has("name")) {
+                    return Response.error(400, "name is required");
+                }
+                String partition = body.has("partition") ? body.get("partition").getAsString() : COMMON;
+                String fullPath = "/" + partition + "/" + body.get("name").getAsString();
+                if (resources.containsKey(fullPath)) {
+                    return Response.error(409, "01020066:3: The requested object (" + fullPath + ") already exists");
+                }
+                JsonObject resource = newResource(collection, partition, body.get("name").getAsString());
+                merge(resource, body);
+                resources.put(fullPath, resource);
+                return Response.json(200, resource);
+            }
+            return Response.error(405, method + " is not supported on " + collection);
+        }
+        String fullPath = toFullPath(id);
+        JsonObject resource = resources.get(fullPath);
+        if (resource == null) {
+            return Response.error(404, "01020036:3: The requested object (" + fullPath + ") was not found.");
+        }
+        if (method.equals("GET")) {
+            return Response.json(200, select(resource, request.query.get("$select")));
+        }
+        if (method.equals("PUT") || method.equals("PATCH")) {
+            merge(resource, request.getJson());
+            touch(resource);
+            return Response.json(200, resource);
+        }
+        if (method.equals("DELETE")) {
+            resources.remove(fullPath);
+            generation.incrementAndGet();
+            return Response.json(200, new JsonObject());
+        }
+        return Response.error(405, method + " is not supported on " + collection);
+    }
+
+    private JsonObject newResource(String collection, String partition, String name) {
+        JsonObject resource = new JsonObject();
+        resource.addProperty("kind", getKind(collection) + "state");
+        resource.addProperty("name", name);
+        resource.addProperty("partition", partition);
+        resource.addProperty("fullPath", "/" + partition + "/" + name);
+        touch(resource);
+        return resource;
+    }
+
+    private void touch(JsonObject resource) {
+        resource.addProperty("generation", generation.incrementAndGet());
+        resource.addProperty("lastUpdateMicros", System.currentTimeMillis() * 1000);
+    }
+
+    private static void merge(JsonObject resource, JsonObject body) {
+        for (Map.Entry<String, JsonElement> entry : body.entrySet()) {
+            String key = entry.getKey();
+            if (!key.equals("kind") && !key.equals("generation") && !key.equals("lastUpdateMicros")) {
+                resource.add(key, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Return the resource with only the $select properties, or the resource itself if there is no $select.
+     */
+    private static JsonObject select(JsonObject resource, String select) {
+        if (select == null || select.isEmpty()) {
+            return resource;
+        }
+        JsonObject selected = new JsonObject();
+        for (String key : select.split(",")) {
+            JsonElement value = resource.get(key.trim());
+            if (value != null) {
+                selected.add(key.trim(), value);
+            }
+        }
+        return selected;
+    }
+
+    private static String getKind(String collection) {
+        String[] segments = collection.split("/");
+        return "tm:" + collection.replace('/', ':') + ":" + segments[segments.length - 1].replace("-", "");
+    }
+
+    private static JsonObject items(String kind, JsonArray items) {
+        JsonObject json = new JsonObject();
+        json.addProperty("kind", kind);
+        json.add("items", items);
+        return json;
+    }
+
+    /**
+     * Return the full path of a "~Partition~name" or "name" identifier.
+     */
+    private static String toFullPath(String id) {
+        if (id.startsWith("~")) {
+            return id.replace('~', '/');
+        }
+        return "/" + COMMON + "/" + id;
+    }
+
+    // ILX Workspaces
+
+    private Response workspace(Request request, String id) {
+        Map<String, JsonObject> resources = collections.get("ilx/workspace");
+        String method = request.method;
+        String file = request.getOption("file");
+        String extension = request.getOption("extension");
+        String uploadFileCopy = request.getOption("upload-file-copy");
+        if (id == null) {
+            if (method.equals("GET")) {
+                JsonArray items = new JsonArray();
+                for (String fullPath : resources.keySet()) {
+                    items.add(getWorkspace(fullPath));
+                }
+                return Response.json(200, items("tm:ilx:workspace:workspacecollectionstate", items));
+            }
+            if (method.equals("POST")) {
+                JsonObject body = request.getJson();
+                String partition = body.has("partition") ? body.get("partition").getAsString() : COMMON;
+                String name = body.get("name").getAsString();
+                String fullPath = "/" + partition + "/" + name;
+                if (file != null) {
+                    // A new file in an existing workspace
+                    TreeMap<String, String> files = workspaceFiles.get(fullPath);
+                    if (files == null) {
+                        return Response.error(404, "Workspace " + fullPath + " was not found");
+                    }
+                    files.put(file, "");
+                    touch(resources.get(fullPath));
+                    return Response.json(200, getWorkspace(fullPath));
+                }
+                if (resources.containsKey(fullPath)) {
+                    return Response.error(409, "Workspace " + fullPath + " already exists");
+                }
+                resources.put(fullPath, newResource("ilx/workspace", partition, name));
+                workspaceFiles.put(fullPath, new TreeMap<String, String>());
+                return Response.json(200, getWorkspace(fullPath));
+            }
+            return Response.error(405, method + " is not supported on ilx/workspace");
+        }
+        String fullPath = toFullPath(id);
+        TreeMap<String, String> files = workspaceFiles.get(fullPath);
+        if (files == null) {
+            return Response.error(404, "Workspace " + fullPath + " was not found");
+        }
+        if (method.equals("GET")) {
+            if (file != null) {
+                String content = files.get(file);
+                if (content == null) {
+                    return Response.error(404, "File " + file + " was not found in " + fullPath);
+                }
+                JsonObject json = getWorkspace(fullPath);
+                JsonObject fileJson = new JsonObject();
+                fileJson.addProperty("name", file);
+                fileJson.addProperty("apiAnonymous", content);
+                JsonArray fileArray = new JsonArray();
+                fileArray.add(fileJson);
+                json.add("files", fileArray);
+                return Response.json(200, json);
+            }
+            return Response.json(200, getWorkspace(fullPath));
+        }
+        if (method.equals("POST") && extension != null) {
+            files.put("extensions/" + extension + "/index.js", "");
+            files.put("extensions/" + extension + "/package.json", "{}");
+            touch(resources.get(fullPath));
+            return Response.json(200, getWorkspace(fullPath));
+        }
+        if ((method.equals("PUT") || method.equals("PATCH")) && uploadFileCopy != null) {
+            byte[] uploaded = uploads.remove(ILX_UPLOAD);
+            if (uploaded == null) {
+                return Response.error(400, "Nothing was uploaded to " + ILX_UPLOAD);
+            }
+            files.put(uploadFileCopy, toText(uploaded));
+            touch(resources.get(fullPath));
+            return Response.json(200, getWorkspace(fullPath));
+        }
+        if (method.equals("DELETE")) {
+            if (file != null) {
+                if (files.remove(file) == null) {
+                    return Response.error(404, "File " + file + " was not found in " + fullPath);
+                }
+                touch(resources.get(fullPath));
+            } else {
+                resources.remove(fullPath);
+                workspaceFiles.remove(fullPath);
+                generation.incrementAndGet();
+            }
+            return Response.json(200, new JsonObject());
+        }
+        return Response.error(405, method + " is not supported on ilx/workspace");
+    }
+
+    /**
+     * Return the workspace with its rules and extensions, as the Big-IP lists them.
+     */
+    private JsonObject getWorkspace(String fullPath) {
+        JsonObject resource = collections.get("ilx/workspace").get(fullPath);
+        JsonObject json = new JsonObject();
+        merge(json, resource);
+        json.add("kind", resource.get("kind"));
+        json.add("generation", resource.get("generation"));
+        json.add("lastUpdateMicros", resource.get("lastUpdateMicros"));
+        JsonArray rules = new JsonArray();
+        Map<String, JsonArray> extensionFiles = new TreeMap<String, JsonArray>();
+        for (String file : workspaceFiles.get(fullPath).keySet()) {
+            String[] segments = file.split("/");
+            if (segments[0].equals("rules") && segments.length == 2) {
+                rules.add(named(segments[1]));
+            } else if (segments[0].equals("extensions") && segments.length >= 3) {
+                JsonArray array = extensionFiles.get(segments[1]);
+                if (array == null) {
+                    array = new JsonArray();
+                    extensionFiles.put(segments[1], array);
+                }
+                array.add(named(file.substring(segments[0].length() + segments[1].length() + 2)));
+            }
+        }
+        JsonArray extensions = new JsonArray();
+        for (Map.Entry<String, JsonArray> entry : extensionFiles.entrySet()) {
+            JsonObject extension = named(entry.getKey());
+            extension.add("files", entry.getValue());
+            extensions.add(extension);
+        }
+        json.add("rules", rules);
+        json.add("extensions", extensions);
+        return json;
+    }
+
+    private static JsonObject named(String name) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", name);
+        return json;
+    }
+
+    // File uploads
+
+    /**
+     * Write a chunk of the Content-Range to the named upload.
+     */
+    private Response upload(Request request, String name) {
+        byte[] content = writeChunk(uploads.get(name), request);
+        if (content == null) {
+            return Response.error(400, "Invalid Content-Range: " + request.getHeader("Content-Range"));
+        }
+        uploads.put(name, content);
+        JsonObject json = new JsonObject();
+        json.addProperty("remainingByteCount", 0);
+        json.addProperty("totalByteCount", content.length);
+        json.addProperty("localFilePath", "/var/config/rest/downloads/" + name);
+        return Response.json(200, json);
+    }
+
+    /**
+     * Return the content with the request body written at the Content-Range offset,
+     * sized to the total of the range, or null if the range is invalid.
+     */
+    private static byte[] writeChunk(byte[] content, Request request) {
+        String range = request.getHeader("Content-Range");
+        if (range == null) {
+            return request.body;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(range);
+        if (!matcher.find()) {
+            return null;
+        }
+        int start = Integer.parseInt(matcher.group(1));
+        int total = Integer.parseInt(matcher.group(3));
+        if (start + request.body.length > total) {
+            return null;
+        }
+        byte[] updated = content != null && content.length == total ? content : new byte[total];
+        if (content != null && content != updated) {
+            System.arraycopy(content, 0, updated, 0, Math.min(content.length, total));
+        }
+        System.arraycopy(request.body, 0, updated, start, request.body.length);
+        return updated;
+    }
+
+    // iAppsLX
+
+    private Response iappFile(Request request, String path) {
+        String method = request.method;
+        if (method.equals("GET")) {
+            byte[] content = iappFiles.get(path);
+            if (content == null) {
+                return Response.error(404, "File " + path + " was not found");
+            }
+            return new Response(200, TEXT, content);
+        }
+        if (method.equals("POST") || method.equals("PUT")) {
+            byte[] content = writeChunk(iappFiles.get(path), request);
+            if (content == null) {
+                return Response.error(400, "Invalid Content-Range: " + request.getHeader("Content-Range"));
+            }
+            iappFiles.put(path, content);
+            addDirectories(path.contains("/") ? path.substring(0, path.lastIndexOf('/')) : "");
+            generation.incrementAndGet();
+            return Response.json(200, new JsonObject());
+        }
+        if (method.equals("DELETE")) {
+            if (iappFiles.remove(path) == null) {
+                return Response.error(404, "File " + path + " was not found");
+            }
+            generation.incrementAndGet();
+            return Response.json(200, new JsonObject());
+        }
+        return Response.error(405, method + " is not supported on iapp/file-management");
+    }
+
+    private Response iappDirectory(Request request, String path, boolean recursive) {
+        path = path.startsWith("/") ? path.substring(1) : path;
+        String method = request.method;
+        if (method.equals("GET")) {
+            if (!path.isEmpty() && !iappDirectories.contains(path)) {
+                return Response.error(404, "Directory " + path + " was not found");
+            }
+            String prefix = path.isEmpty() ? "" : path + "/";
+            TreeSet<String> names = new TreeSet<String>();
+            for (String file : iappFiles.keySet()) {
+                addListed(names, file, prefix, recursive);
+            }
+            for (String directory : iappDirectories) {
+                if (!recursive) {
+                    addListed(names, directory, prefix, false);
+                }
+            }
+            JsonArray files = new JsonArray();
+            for (String name : names) {
+                files.add(new JsonPrimitive(name));
+            }
+            JsonObject json = new JsonObject();
+            json.add("files", files);
+            return Response.json(200, json);
+        }
+        if (method.equals("POST")) {
+            if (!recursive && path.contains("/") && !iappDirectories.contains(path.substring(0, path.lastIndexOf('/')))) {
+                return Response.error(404, "Parent of " + path + " was not found");
+            }
+            addDirectories(path);
+            return Response.json(200, new JsonObject());
+        }
+        if (method.equals("DELETE")) {
+            String prefix = path + "/";
+            iappDirectories.remove(path);
+            removePrefixed(iappDirectories.iterator(), prefix);
+            removePrefixed(iappFiles.keySet().iterator(), prefix);
+            generation.incrementAndGet();
+            return Response.json(200, new JsonObject());
+        }
+        return Response.error(405, method + " is not supported on iapp/directory-management");
+    }
+
+    /**
+     * Add the path relative to the prefix, or only its first segment if not recursive.
+     */
+    private static void addListed(TreeSet<String> names, String path, String prefix, boolean recursive) {
+        if (!path.startsWith(prefix) || path.length() == prefix.length()) {
+            return;
+        }
+        String relative = path.substring(prefix.length());
+        if (!recursive && relative.contains("/")) {
+            relative = relative.substring(0, relative.indexOf('/'));
+        }
+        names.add(relative);
+    }
+
+    private static void removePrefixed(Iterator<String> iterator, String prefix) {
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void addDirectories(String path) {
+        StringBuilder directory = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (directory.length() > 0) {
+                directory.append("/");
+            }
+            directory.append(segment);
+            iappDirectories.add(directory.toString());
+        }
+    }
+
+    // Transactions
+
+    private Response transaction(Request request, String rest) {
+        String id = rest.startsWith("/") ? rest.substring(1) : rest;
+        String method = request.method;
+        if (id.isEmpty()) {
+            if (!method.equals("POST")) {
+                return Response.error(405, method + " is not supported on transaction");
+            }
+            String transId = Long.toString(System.nanoTime());
+            transactions.put(transId, new ArrayList<Request>());
+            JsonObject json = new JsonObject();
+            json.addProperty("transId", Long.parseLong(transId));
+            json.addProperty("state", "STARTED");
+            json.addProperty("timeoutSeconds", 120);
+            return Response.json(200, json);
+        }
+        List<Request> queued = transactions.get(id);
+        if (queued == null) {
+            return Response.error(404, "Transaction " + id + " was not found");
+        }
+        if (method.equals("DELETE")) {
+            transactions.remove(id);
+            return Response.json(200, new JsonObject());
+        }
+        if (!method.equals("PATCH")) {
+            return Response.error(405, method + " is not supported on transaction " + id);
+        }
+        transactions.remove(id);
+        JsonObject json = new JsonObject();
+        json.addProperty("transId", Long.parseLong(id));
+        Map<String, Map<String, JsonObject>> snapshot = snapshot();
+        for (Request operation : queued) {
+            Response response = dispatch(operation);
+            if (!response.isOK()) {
+                restore(snapshot);
+                json.addProperty("state", "FAILED");
+                json.addProperty("failureReason", operation + ": " + toText(response.body));
+                return Response.json(200, json);
+            }
+        }
+        json.addProperty("state", "COMPLETED");
+        return Response.json(200, json);
+    }
+
+    private Response queue(String coordinationId, Request request) {
+        List<Request> queued = transactions.get(coordinationId);
+        if (queued == null) {
+            return Response.error(404, "Transaction " + coordinationId + " was not found");
+        }
+        request.headers.clear();
+        queued.add(request);
+        JsonObject json = request.getJson();
+        json.addProperty("transId", Long.parseLong(coordinationId));
+        json.addProperty("evalOrder", queued.size());
+        return Response.json(200, json);
+    }
+
+    /**
+     * Copy the rules and data-groups, the only resources a transaction changes.
+     */
+    private Map<String, Map<String, JsonObject>> snapshot() {
+        Map<String, Map<String, JsonObject>> snapshot = new HashMap<String, Map<String, JsonObject>>();
+        JsonParser parser = new JsonParser();
+        for (Map.Entry<String, Map<String, JsonObject>> entry : collections.entrySet()) {
+            Map<String, JsonObject> copy = new TreeMap<String, JsonObject>();
+            for (Map.Entry<String, JsonObject> resource : entry.getValue().entrySet()) {
+                copy.put(resource.getKey(), parser.parse(resource.getValue().toString()).getAsJsonObject());
+            }
+            snapshot.put(entry.getKey(), copy);
+        }
+        return snapshot;
+    }
+
+    private void restore(Map<String, Map<String, JsonObject>> snapshot) {
+        for (Map.Entry<String, Map<String, JsonObject>> entry : snapshot.entrySet()) {
+            if (!entry.getKey().equals("ilx/workspace")) {
+                collections.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Generated content
+
+    private void generate() {
+        Random random = new Random(config.seed);
+        generateRules("ltm/rule", config.rules, random);
+        generateRules("gtm/rule", config.gtmRules, random);
+        Map<String, JsonObject> dataGroups = collections.get("ltm/data-group/internal");
+        for (int i = 0; i < config.dataGroups; i++) {
+            JsonObject dataGroup = newResource("ltm/data-group/internal", COMMON, "dg_" + i);
+            dataGroup.addProperty("type", "string");
+            JsonArray records = new JsonArray();
+            for (int j = 0; j < config.records; j++) {
+                JsonObject record = named("key_" + j);
+                record.addProperty("data", "value_" + random.nextInt(1000000));
+                records.add(record);
+            }
+            dataGroup.add("records", records);
+            dataGroups.put(dataGroup.get("fullPath").getAsString(), dataGroup);
+        }
+        Map<String, JsonObject> workspaces = collections.get("ilx/workspace");
+        for (int i = 0; i < config.workspaces; i++) {
+            JsonObject workspace = newResource("ilx/workspace", COMMON, "workspace_" + i);
+            String fullPath = workspace.get("fullPath").getAsString();
+            workspaces.put(fullPath, workspace);
+            TreeMap<String, String> files = new TreeMap<String, String>();
+            for (int j = 0; j < config.workspaceRules; j++) {
+                files.put("rules/rule_" + j + ".tcl", generateRule("rule_" + j, config.ruleSize, random));
+            }
+            for (int j = 0; j < config.extensions; j++) {
+                for (int k = 0; k < config.extensionFiles; k++) {
+                    files.put("extensions/extension_" + j + "/file_" + k + ".js",
+                        generateText("// file " + k + "\n", config.fileSize, random));
+                }
+            }
+            workspaceFiles.put(fullPath, files);
+        }
+        for (int i = 0; i < config.iappPackages; i++) {
+            for (int j = 0; j < config.iappFiles; j++) {
+                String directory = "package_" + i + (j % 2 == 0 ? "/nodejs" : "/presentation");
+                String content = generateText("// file " + j + "\n", config.fileSize, random);
+                iappFiles.put(directory + "/file_" + j + ".js", toBytes(content));
+                addDirectories(directory);
+            }
+        }
+    }
+
+    private void generateRules(String collection, int count, Random random) {
+        Map<String, JsonObject> rules = collections.get(collection);
+        for (int i = 0; i < count; i++) {
+            String name = "rule_" + i;
+            JsonObject rule = newResource(collection, COMMON, name);
+            rule.addProperty("apiAnonymous", generateRule(name, config.ruleSize, random));
+            rules.put(rule.get("fullPath").getAsString(), rule);
+        }
+    }
+
+    private static String generateRule(String name, int size, Random random) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("when HTTP_REQUEST {\n");
+        builder.append("    log local0. \"").append(name).append("\"\n");
+        while (builder.length() < size - 2) {
+            builder.append("    set var_").append(random.nextInt(1000)).append(" [HTTP::header value \"X-")
+                .append(random.nextInt(1000)).append("\"]\n");
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static String generateText(String header, int size, Random random) {
+        StringBuilder builder = new StringBuilder(header);
+        while (builder.length() < size) {
+            builder.append("var value").append(random.nextInt(100000)).append(" = ")
+                .append(random.nextInt()).append(";\n");
+        }
+        return builder.toString();
+    }
+
+    static String toText(byte[] bytes) {
+        try {
+            return new String(bytes, UTF_8);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static byte[] toBytes(String text) {
+        try {
+            return text.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        for (Map.Entry<String, Map<String, JsonObject>> entry : collections.entrySet()) {
+            builder.append(" ").append(entry.getKey()).append("=").append(entry.getValue().size());
+        }
+        builder.append(" iappFiles=").append(iappFiles.size());
+        builder.append(" generation=").append(generation.get());
+        builder.append("]");
+        return builder.toString();
+    }
+}
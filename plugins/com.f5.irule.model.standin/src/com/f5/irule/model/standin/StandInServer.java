@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.standin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.f5.irule.model.standin.StandInDevice.Request;
+import com.f5.irule.model.standin.StandInDevice.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP stand-in for the iControl REST api of a Big-IP, for load and integration testing without a device.<br>
+ * The requests are answered by a {@link StandInDevice} after the configured latency,
+ * and a configured share of them fail with an error status, a reset connection or a stalled response.<br>
+ * Start it with {@link #main(String[])} (or {@link #start()} from a test harness)
+ * and point the plugin at it with the com.f5.irule.model.targetScheme=http
+ * and com.f5.irule.model.targetPort system properties, using "localhost" as the Big-IP address:
+ * <pre>
+ * java -cp gson.jar:bin com.f5.irule.model.standin.StandInServer --port=8100 --rules=10000 --latency=50 --errorRate=0.01
+ * </pre>
+ * All the settings are listed in {@link StandInConfig}.
+ */
+public class StandInServer {
+
+    private static final int GZIP_THRESHOLD = 1024;
+
+    private final StandInConfig config;
+    private final StandInDevice device;
+    private final Pattern faultPath;
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public StandInServer(StandInConfig config) {
+        this.config = config;
+        this.device = new StandInDevice(config);
+        this.faultPath = Pattern.compile(config.faultPath);
+        this.random = new Random(config.seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        StandInConfig config = StandInConfig.parse(args);
+        final StandInServer server = new StandInServer(config);
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + " " + config);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                System.out.println(server);
+                server.stop();
+            }
+        });
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Already started");
+        }
+        server = HttpServer.create(new InetSocketAddress(config.port), 0);
+        executor = Executors.newFixedThreadPool(config.threads);
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    public synchronized int getPort() {
+        return server == null ? config.port : server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFaults() {
+        return faults.get();
+    }
+
+    /**
+     * Return how many times a service (restnoded) was restarted.
+     */
+    public long getRestarts() {
+        return device.getRestarts();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" requests=").append(requests.get());
+        builder.append(" faults=").append(faults.get());
+        builder.append(" restarts=").append(device.getRestarts());
+        builder.append(" ").append(device);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    private enum Fault {
+        NONE, ERROR, RESET, STALL
+    }
+
+    private Fault nextFault(String path) {
+        if (!faultPath.matcher(path).matches()) {
+            return Fault.NONE;
+        }
+        double draw;
+        synchronized (random) {
+            draw = random.nextDouble();
+        }
+        if (draw < config.resetRate) {
+            return Fault.RESET;
+        }
+        if (draw < config.resetRate + config.errorRate) {
+            return Fault.ERROR;
+        }
+        if (draw < config.resetRate + config.errorRate + config.stallRate) {
+            return Fault.STALL;
+        }
+        return Fault.NONE;
+    }
+
+    private long nextLatency(int responseBytes) {
+        long jitter;
+        synchronized (random) {
+            jitter = config.jitter > 0 ? (long) (random.nextDouble() * config.jitter) : 0;
+        }
+        return config.latency + jitter + config.latencyPerKb * responseBytes / 1024;
+    }
+
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                Request request = readRequest(exchange);
+                Fault fault = nextFault(request.path);
+                if (fault != Fault.NONE) {
+                    faults.incrementAndGet();
+                }
+                if (fault == Fault.RESET) {
+                    // Close the connection without a response
+                    exchange.getResponseBody().close();
+                    exchange.close();
+                    return;
+                }
+                Response response = fault == Fault.ERROR ?
+                    Response.error(config.errorStatus, "Injected fault") : device.handle(request);
+                long delay = nextLatency(response.body.length);
+                if (fault == Fault.STALL) {
+                    delay += config.stallTime;
+                }
+                if (delay > 0) {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                }
+                writeResponse(exchange, request, response);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+            } catch (RuntimeException ex) {
+                writeResponse(exchange, null, Response.error(500, String.valueOf(ex)));
+            }
+        }
+    }
+
+    private static Request readRequest(HttpExchange exchange) throws IOException {
+        Request request = new Request();
+        request.method = exchange.getRequestMethod().toUpperCase();
+        String path = exchange.getRequestURI().getRawPath();
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        request.path = decode(path);
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                String name = equals < 0 ? parameter : parameter.substring(0, equals);
+                String value = equals < 0 ? "" : parameter.substring(equals + 1);
+                request.query.put(decode(name), decode(value));
+            }
+        }
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                request.headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        request.body = readFully(exchange.getRequestBody());
+        return request;
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Write the response, gzip compressed if the client accepts it and it is large enough to be worth it.
+     */
+    private static void writeResponse(HttpExchange exchange, Request request, Response response) throws IOException {
+        byte[] body = response.body;
+        String acceptEncoding = request == null ? null : request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip") && body.length > GZIP_THRESHOLD) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, body.length == 0 ? -1 : body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+        exchange.close();
+    }
+}
@@ -39,6 +39,7 @@ public class Activator implements BundleActivator {
     }
 
     public void stop(BundleContext bundleContext) throws Exception {
+        HttpClientCache.getInstance().clear();
         Activator.context = null;
     }
 
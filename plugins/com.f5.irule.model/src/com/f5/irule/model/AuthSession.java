@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Token based authentication session of a {@link Connection}.<br>
+ * Obtain an X-F5-Auth-Token from the mgmt/shared/authn/login endpoint with the connection in memory
+ * {@link Credentials} and reuse it for all the requests, so the Big-IP does not authenticate
+ * (possibly against a remote LDAP/TACACS server) every single request.<br>
+ * The token is refreshed {@link #REFRESH_MARGIN} seconds before it expires,
+ * and dropped when the credentials change or the Big-IP rejects it.<br>
+ * If no token can be obtained the requests fall back to Basic authorization
+ * and login is not tried again for {@link #LOGIN_RETRY_INTERVAL} seconds.
+ */
+public class AuthSession {
+
+    private static Logger logger = Logger.getLogger(AuthSession.class);
+
+    public static final String LOGIN_ENDPOINT = "mgmt/shared/authn/login";
+    public static final String AUTH_TOKEN_HEADER = "X-F5-Auth-Token";
+
+    static final String LOGIN_PROVIDER = "tmos";
+    static final long REFRESH_MARGIN = 60;        // seconds
+    static final long DEFAULT_TIMEOUT = 1200;     // seconds, the Big-IP default token timeout
+    static final long LOGIN_RETRY_INTERVAL = 300; // seconds
+    static final long LOGIN_TIMEOUT = 15;         // seconds
+
+    private final BigIPConnection conn;
+
+    private String token;
+    private long expiresAt;
+    private String tokenUser;
+    private String tokenPassword;
+    private long loginRetryAt = 0;
+    /**
+     * The login in flight, joined by all the requests that need a token until it answers. Guarded by this.
+     */
+    private LoginCompletion pending;
+
+    AuthSession(BigIPConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * @return true if the uri is the login endpoint, which is always sent with Basic authorization
+     */
+    static boolean isLoginRequest(String uri) {
+        return uri != null && uri.contains(LOGIN_ENDPOINT);
+    }
+
+    /**
+     * Get a valid token for a request to the given uri, login to the Big-IP if needed.<br>
+     * Only one login is sent at a time, the other requests wait for its answer.
+     * The lock of this session is never held while waiting, since the login request itself
+     * asks for a token on a transport thread.<br>
+     * Return null if the request should use Basic authorization instead.
+     */
+    public String getToken(String uri) {
+        if (isLoginRequest(uri)) {
+            return null;
+        }
+        String user = conn.getUser();
+        String password = conn.getPassword();
+        if (user == null || password == null) {
+            return null;
+        }
+        LoginCompletion login;
+        boolean send = false;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (token != null && user.equals(tokenUser) && password.equals(tokenPassword) &&
+                    now < expiresAt - TimeUnit.SECONDS.toMillis(REFRESH_MARGIN)) {
+                return token;
+            }
+            token = null;
+            if (pending != null && pending.isFor(user, password)) {
+                login = pending;
+            } else {
+                if (now < loginRetryAt && user.equals(tokenUser) && password.equals(tokenPassword)) {
+                    return null;
+                }
+                tokenUser = user;
+                tokenPassword = password;
+                login = new LoginCompletion(user, password);
+                pending = login;
+                send = true;
+            }
+        }
+        if (send) {
+            login(login);
+        }
+        return login.await();
+    }
+
+    /**
+     * Drop the current token, e.g. after the Big-IP answered 401 to a request that used it.
+     */
+    public synchronized void invalidate() {
+        if (token != null) {
+            logger.debug("Invalidate token of " + conn);
+        }
+        token = null;
+        loginRetryAt = 0;
+    }
+
+    /**
+     * POST the credentials to the login endpoint, the completion keeps the returned token.
+     */
+    private void login(LoginCompletion login) {
+        JsonObject body = new JsonObject();
+        body.addProperty("username", login.user);
+        body.addProperty("password", login.password);
+        body.addProperty("loginProviderName", LOGIN_PROVIDER);
+        String uri = conn.getURI(LOGIN_ENDPOINT).toString();
+        logger.debug("Login to " + conn + " as " + login.user);
+        IStatus status = RestFramework.sendRequestToBigIP(conn, RestMethod.POST, uri, body.toString(), login);
+        if (!status.isOK()) {
+            login.failed(null, RestMethod.POST.name(), uri, null);
+        }
+    }
+
+    /**
+     * Keep the token of the login response, or retry the login only after {@link #LOGIN_RETRY_INTERVAL}
+     * if the response has none.<br>
+     * A login that is no longer pending, e.g. it timed out or the credentials changed, is ignored.
+     * @return the token, or null
+     */
+    private synchronized String loggedIn(LoginCompletion login, JsonObject response) {
+        if (pending != login) {
+            return null;
+        }
+        pending = null;
+        JsonElement tokenElement = response == null ? null : response.get("token");
+        if (tokenElement == null || !tokenElement.isJsonObject()) {
+            logger.warn("Failed to obtain an auth token from " + conn + ", use Basic authorization");
+            loginRetryAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOGIN_RETRY_INTERVAL);
+            return null;
+        }
+        JsonObject tokenObject = tokenElement.getAsJsonObject();
+        JsonElement timeoutElement = tokenObject.get("timeout");
+        long timeout = timeoutElement == null ? DEFAULT_TIMEOUT : timeoutElement.getAsLong();
+        token = tokenObject.get("token").getAsString();
+        expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeout);
+        logger.debug("Obtained auth token of " + conn + " valid for " + timeout + " seconds");
+        return token;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn.getName());
+        builder.append(" ").append(token != null);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * A login in flight. Hands the login response over to the session and to all the threads waiting for it.
+     */
+    private class LoginCompletion extends RequestCompletion {
+
+        private final String user;
+        private final String password;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile String loginToken;
+
+        private LoginCompletion(String user, String password) {
+            this.user = user;
+            this.password = password;
+        }
+
+        private boolean isFor(String user, String password) {
+            return this.user.equals(user) && this.password.equals(password);
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            loginToken = loggedIn(this, responseBody);
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            logger.warn("Failed " + method + " " + uri, ex);
+            loggedIn(this, null);
+            latch.countDown();
+        }
+
+        /**
+         * Wait up to {@link #LOGIN_TIMEOUT} for the login, a login that did not answer in time counts as failed.
+         */
+        private String await() {
+            try {
+                if (!latch.await(LOGIN_TIMEOUT, TimeUnit.SECONDS)) {
+                    logger.warn("Login to " + conn + " did not answer in " + LOGIN_TIMEOUT + " seconds");
+                    loggedIn(this, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return loginToken;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(user);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
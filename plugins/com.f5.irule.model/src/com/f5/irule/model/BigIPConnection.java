@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.osgi.framework.Version;
 
 import com.google.gson.JsonElement;
@@ -63,9 +64,57 @@ public class BigIPConnection extends Connection {
      */
     private AtomicInteger jobCounter = new AtomicInteger(0);
 
+    /**
+     * Reachability of the Big-IP as seen by the requests sent to it
+     */
+    private ConnectionHealthMonitor healthMonitor;
+
+    /**
+     * Adaptive limit of the requests in flight to the Big-IP
+     */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Request counts, latency and bytes per REST endpoint
+     */
+    private RequestMetrics requestMetrics;
+
+    /**
+     * Token authentication session with the Big-IP
+     */
+    private AuthSession authSession;
+
+    /**
+     * Version stamps of the iRules loaded from the Big-IP
+     */
+    private RuleGenerations ruleGenerations;
+
+    /**
+     * Model updates waiting to be sent in one transaction
+     */
+    private TransactionBatch transactionBatch;
+
+    /**
+     * Restart of restnoded after iAppsLX file writes
+     */
+    private RestnodedRestart restnodedRestart;
+
+    /**
+     * Install of uploaded ILX files, owner of the ILX staging file
+     */
+    private IlxInstallStage ilxInstallStage;
+
     public BigIPConnection(String name, Credentials credentials, ProxyDetails proxyDetails, Path filePath) {
         super(name, credentials, proxyDetails);
         setConnection(this);
+        this.healthMonitor = new ConnectionHealthMonitor(name);
+        this.concurrencyLimiter = new ConcurrencyLimiter(name);
+        this.requestMetrics = new RequestMetrics(name);
+        this.authSession = new AuthSession(this);
+        this.ruleGenerations = new RuleGenerations(name);
+        this.transactionBatch = new TransactionBatch(this);
+        this.restnodedRestart = new RestnodedRestart(this);
+        this.ilxInstallStage = new IlxInstallStage(this);
         this.onlineMode = PersistentPropertiesUtil.isOnlineMode(this);
     }
     
@@ -84,6 +133,62 @@ public class BigIPConnection extends Connection {
         return version;
     }
 
+    public ConnectionHealthMonitor getHealthMonitor() {
+        return healthMonitor;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
+    public AuthSession getAuthSession() {
+        return authSession;
+    }
+
+    public RuleGenerations getRuleGenerations() {
+        return ruleGenerations;
+    }
+
+    /**
+     * Start a batch of model updates that are committed together in one iControl REST transaction.
+     */
+    public RestTransaction newTransaction() {
+        return new RestTransaction(this);
+    }
+
+    /**
+     * Start a bulk upload that sends the changed files of each ILX extension in one archive.
+     */
+    public IlxBulkUpload newBulkUpload(ISchedulingRule mutex) {
+        return new IlxBulkUpload(this, mutex);
+    }
+
+    public TransactionBatch getTransactionBatch() {
+        return transactionBatch;
+    }
+
+    public RestnodedRestart getRestnodedRestart() {
+        return restnodedRestart;
+    }
+
+    IlxInstallStage getIlxInstallStage() {
+        return ilxInstallStage;
+    }
+
+    @Override
+    public String getAuthToken(String uri) {
+        return authSession.getToken(uri);
+    }
+
+    @Override
+    public void authenticationFailed() {
+        authSession.invalidate();
+    }
+
     public boolean isOnlineMode() {
         return onlineMode;
     }
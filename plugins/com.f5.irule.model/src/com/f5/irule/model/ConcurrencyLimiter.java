@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Adaptive limit of the REST requests in flight to a single {@link BigIPConnection}.<br>
+ * The limit follows AIMD driven by a latency gradient: while the short term average response time
+ * stays within {@link #LATENCY_TOLERANCE} times the long term average, every response that came back
+ * with the limit in use adds 1/limit to the limit (about one more request per round trip).<br>
+ * When the short term average grows beyond it, or the Big-IP answers busy (503/429) or times out,
+ * the limit is multiplied by {@link #BACKOFF_RATIO}, at most once per short term round trip.<br>
+ * The maximum limit is read from the {@link #MAX_LIMIT_PROPERTY} system property.<br>
+ * A request waits up to {@link #ACQUIRE_TIMEOUT} milliseconds for a permit and is then sent anyway,
+ * so a completion that sends a request while permits are held can not dead lock.
+ */
+public class ConcurrencyLimiter {
+
+    private static Logger logger = Logger.getLogger(ConcurrencyLimiter.class);
+
+    static final String MAX_LIMIT_PROPERTY = Ids.PLUGIN + ".maxConcurrency";
+    static final int DEFAULT_MAX_LIMIT = 16;
+    static final int INITIAL_LIMIT = 4;
+    static final int MIN_LIMIT = 1;
+    static final double LATENCY_TOLERANCE = 2.0;
+    static final double BACKOFF_RATIO = 0.7;
+    static final long ACQUIRE_TIMEOUT = 30 * 1000;
+
+    private static final double SHORT_WEIGHT = 0.2;
+    private static final double LONG_WEIGHT = 0.02;
+
+    private final String address;
+    private final int maxLimit;
+    private double limit = INITIAL_LIMIT;
+    private int inFlight = 0;
+    private double shortRtt = 0;
+    private double longRtt = 0;
+    private long lastDecrease = 0;
+
+    ConcurrencyLimiter(String address) {
+        this(address, Integer.getInteger(MAX_LIMIT_PROPERTY, DEFAULT_MAX_LIMIT));
+    }
+
+    ConcurrencyLimiter(String address, int maxLimit) {
+        this.address = address;
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.limit = Math.min(limit, this.maxLimit);
+    }
+
+    int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Wait for a permit to send a request.<br>
+     * The returned {@link Permit} must be released, see {@link #track(Permit, RequestCompletion)}.
+     */
+    synchronized Permit acquire() {
+        long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT;
+        while (inFlight >= (int) limit) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                logger.warn(this + " no permit after " + ACQUIRE_TIMEOUT + "ms, send anyway");
+                break;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        inFlight++;
+        return new Permit();
+    }
+
+    private synchronized void release(long rtt, boolean overloaded) {
+        boolean limitInUse = inFlight >= (int) limit;
+        inFlight--;
+        if (rtt >= 0) {
+            shortRtt = shortRtt == 0 ? rtt : shortRtt + SHORT_WEIGHT * (rtt - shortRtt);
+            longRtt = longRtt == 0 ? rtt : longRtt + LONG_WEIGHT * (rtt - longRtt);
+        }
+        long now = System.currentTimeMillis();
+        if (overloaded || shortRtt > longRtt * LATENCY_TOLERANCE) {
+            if (now - lastDecrease > shortRtt) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+                logger.debug(this + " back off");
+            }
+        } else if (limitInUse) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Return true if the failure means the Big-IP is overloaded: it answered busy or did not answer in time.
+     */
+    static boolean isOverloaded(Throwable ex) {
+        if (RetryPolicy.isRetryableStatus(RestStatusException.getStatusCode(ex))) {
+            return true;
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wrap the completion so the permit is released and the response time is sampled
+     * before the response is delegated.
+     */
+    RequestCompletion track(Permit permit, RequestCompletion completion) {
+        return new LimitedCompletion(permit, completion);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(address);
+        builder.append(" limit=").append((int) limit);
+        builder.append(" inFlight=").append(inFlight);
+        builder.append(" rtt=").append((long) shortRtt).append("/").append((long) longRtt);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * A permit to send one request, released once.
+     */
+    class Permit {
+
+        private final long start = System.currentTimeMillis();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        /**
+         * Release the permit of a request that got a response or failed.
+         */
+        void release(Throwable failure) {
+            if (released.compareAndSet(false, true)) {
+                long rtt = System.currentTimeMillis() - start;
+                ConcurrencyLimiter.this.release(rtt, failure != null && isOverloaded(failure));
+            }
+        }
+
+        /**
+         * Release the permit of a request that was never sent, without sampling its response time.
+         */
+        void cancel() {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(-1, false);
+            }
+        }
+    }
+
+    private static class LimitedCompletion extends RequestCompletion {
+
+        private Permit permit;
+        private RequestCompletion completion;
+
+        private LimitedCompletion(Permit permit, RequestCompletion completion) {
+            this.permit = permit;
+            this.completion = completion;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            permit.release(null);
+            if (completion != null) {
+                completion.completed(method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+            // The response is still being read, keep the permit until it was consumed
+            try {
+                if (completion != null) {
+                    completion.completedStream(method, uri, responseReader);
+                }
+            } finally {
+                permit.release(null);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            permit.release(ex);
+            if (completion != null) {
+                completion.failed(ex, method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public boolean isJson() {
+            return completion == null || completion.isJson();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return completion != null && completion.isStreaming();
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return completion == null ? null : completion.getCoordinationId();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(completion);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
@@ -87,6 +87,27 @@ public abstract class Connection extends ModelParent {
     public String getPassword() {
         return credentials.getPassword();
     }
+
+    /**
+     * @return the in memory credentials of this connection
+     */
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Get the token to authenticate a request to the given uri.<br>
+     * Return null if the request should use Basic authorization.
+     */
+    public String getAuthToken(String uri) {
+        return null;
+    }
+
+    /**
+     * Called when the Big-IP rejected the authentication of a request.
+     */
+    public void authenticationFailed() {
+    }
     
     public boolean isSecureStore() {
         return credentials.isSecureStore();
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Tracks the reachability of a single {@link BigIPConnection} from the outcome of the real requests sent to it.<br>
+ * After {@link #FAILURE_THRESHOLD} consecutive transport failures the circuit opens<br>
+ * and requests fail immediately instead of waiting for their own timeout.<br>
+ * Once {@link #OPEN_INTERVAL} milliseconds passed a single trial request is let through (half open).<br>
+ * Its success closes the circuit again, its failure keeps it open for another interval.
+ */
+public class ConnectionHealthMonitor {
+
+    private static Logger logger = Logger.getLogger(ConnectionHealthMonitor.class);
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long OPEN_INTERVAL = 30 * 1000;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInProgress = false;
+
+    ConnectionHealthMonitor(String name) {
+        this.name = name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the last known outcome of a request to the Big-IP was successful
+     */
+    public synchronized boolean isReachable() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Check if a request may be sent to the Big-IP.<br>
+     * Return an OK status if the circuit is closed, or if it is the trial request of a half open circuit.<br>
+     * Otherwise return a WARNING status without contacting the Big-IP.
+     */
+    public synchronized IStatus checkAvailable() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_INTERVAL) {
+            logger.debug(this + " trying a request to " + name);
+            state = State.HALF_OPEN;
+            trialInProgress = false;
+        }
+        if (state == State.CLOSED) {
+            return Status.OK_STATUS;
+        }
+        if (state == State.HALF_OPEN && !trialInProgress) {
+            trialInProgress = true;
+            return Status.OK_STATUS;
+        }
+        return new Status(IStatus.WARNING, Ids.PLUGIN, name + " : " + Messages.NOT_REACHABLE);
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info(name + " is reachable again");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure(Throwable ex) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            if (state != State.OPEN) {
+                logger.warn(name + " is not reachable after " + consecutiveFailures + " failures", ex);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trialInProgress = false;
+        }
+    }
+
+    /**
+     * Record the outcome of a failed request.<br>
+     * Only failures to reach the Big-IP count against the circuit,
+     * an error response still proves the Big-IP is reachable.<br>
+     * A failure without an exception or with a local {@link TimeoutException}, e.g. waiting for a write permit,
+     * says nothing about the Big-IP, it neither closes nor opens the circuit,
+     * it only lets another request be the half open trial.
+     */
+    public void recordOutcome(Throwable ex) {
+        if (ex == null || ex instanceof TimeoutException) {
+            recordNeutral();
+        } else if (isTransportFailure(ex)) {
+            recordFailure(ex);
+        } else {
+            recordSuccess();
+        }
+    }
+
+    private synchronized void recordNeutral() {
+        if (state == State.HALF_OPEN) {
+            trialInProgress = false;
+        }
+    }
+
+    /**
+     * Close the circuit, e.g. after the user changed the connection details.
+     */
+    public synchronized void reset() {
+        recordSuccess();
+    }
+
+    static boolean isTransportFailure(Throwable ex) {
+        Throwable cause = ex;
+        while (cause != null) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException ||
+                    cause instanceof UnknownHostException || cause instanceof SocketTimeoutException ||
+                    cause instanceof ConnectTimeoutException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Wrap the completion so the outcome of the request is recorded before it is delegated.
+     */
+    RequestCompletion track(RequestCompletion completion) {
+        return new HealthTrackingCompletion(this, completion);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(name);
+        builder.append(" ").append(state);
+        builder.append(" ").append(consecutiveFailures);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    private static class HealthTrackingCompletion extends RequestCompletion {
+
+        private ConnectionHealthMonitor monitor;
+        private RequestCompletion completion;
+
+        private HealthTrackingCompletion(ConnectionHealthMonitor monitor, RequestCompletion completion) {
+            this.monitor = monitor;
+            this.completion = completion;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            monitor.recordSuccess();
+            if (completion != null) {
+                completion.completed(method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+            monitor.recordSuccess();
+            if (completion != null) {
+                completion.completedStream(method, uri, responseReader);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            monitor.recordOutcome(ex);
+            if (completion != null) {
+                completion.failed(ex, method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public boolean isJson() {
+            return completion == null || completion.isJson();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return completion != null && completion.isStreaming();
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return completion == null ? null : completion.getCoordinationId();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(completion);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
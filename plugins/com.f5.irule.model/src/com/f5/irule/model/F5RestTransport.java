@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.log4j.Logger;
+
+import com.f5.irule.model.RestFramework.ProgressCompletionHandler;
+import com.f5.rest.common.CompletionHandler;
+import com.f5.rest.common.RestFileSender;
+import com.f5.rest.common.RestFileTransferInformation;
+import com.f5.rest.common.RestOperation;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.f5.rest.common.RestRequestCompletion;
+import com.f5.rest.common.RestRequestSender;
+
+/**
+ * {@link RestTransport} that uses the bundled f5.rest.jar {@link RestRequestSender} and {@link RestFileSender}.<br>
+ * It can only reach the Big-IP directly and its connection handling can not be tuned,
+ * it is used only when the {@link RestFramework#DIRECT_TRANSPORT_PROPERTY} system property selects it.
+ */
+class F5RestTransport implements RestTransport {
+
+    private static Logger logger = Logger.getLogger(F5RestTransport.class);
+
+    static final F5RestTransport INSTANCE = new F5RestTransport();
+
+    private F5RestTransport() {
+    }
+
+    /**
+     * Use the f5.rest.jar {@link RestRequestSender} to send a REST request to the Big-IP.<br>
+     * A {@link RestRequestCompletionBridge} is created that wraps the method {@link RequestCompletion}<br>
+     * So when an answer is received and the {@link RestRequestCompletion #completed(RestOperation)} is called<br>
+     * it would delegate the response handling to the {@link RequestCompletion} method.
+     */
+    @Override
+    public void sendRequest(BigIPConnection conn, RestMethod method,
+            String uri, String jsonBody, RequestCompletion completion) throws URISyntaxException {
+        String contentType = "application/json";
+        RestRequestCompletion restRequestCompletion = new RestRequestCompletionBridge(completion, conn);
+        RestOperation op = createRestOperation(method,
+            uri, conn, contentType, null, jsonBody, restRequestCompletion);
+        String coordinationId = completion.getCoordinationId();
+        if (coordinationId != null) {
+            op.setCoordinationId(coordinationId);
+        }
+        String message = method + " " + uri;
+        if (jsonBody != null && !AuthSession.isLoginRequest(uri)) {
+            message += " Body: " + jsonBody;
+        }
+        message += " Completion: " + completion;
+        logger.debug(message);
+        RestRequestSender.sendRequest(op);
+    }
+
+    /**
+     * Use the f5.rest.jar {@link RestFileSender} file-transfer/uploads REST api<br>
+     * to upload a file by sending a POST REST request to the Big-IP.<br>
+     * When the upload finishes, the {@link CompletionHandler #completed(Object)} method is called.
+     * and delegates the response handling to the {@link RequestCompletion} completed method.
+     */
+    @Override
+    public void uploadResource(BigIPConnection connection, String targetUri, String localFilePath,
+            RestFrameworkCompletionHandler completionHandler)
+            throws URISyntaxException {
+
+        String contentRange = RestFramework.getContentRange();
+        RestOperation op = createRestOperation(RestMethod.POST, targetUri,
+            connection, "application/octet-stream", contentRange, null, null);
+        RestFileSender sender = RestFileSender.create(localFilePath, op);
+        // .setChunkByteCount(Math.min(1024 * 1024, fileSize));
+        CompletionHandler<RestFileTransferInformation> progressCompletion = new ProgressCompletionHandler(localFilePath);
+        sender.setProgressCompletion(progressCompletion);
+        sender.setFinalCompletion(completionHandler);
+        // Not resumed, but it overwrites the partial upload an UploadProgress may have recorded for the target
+        UploadProgress.clear(targetUri);
+        logger.debug("Send " + targetUri + " Completion: " + completionHandler);
+        sender.start();
+    }
+
+    /**
+     * Create a {@link RestOperation} for the f5.rest.jar {@link RestRequestSender}.<br>
+     * No Accept-Encoding is requested since the f5.rest.jar receiver decodes the body according
+     * to its Content-Type and does not support a compressed Content-Encoding.
+     */
+    private static RestOperation createRestOperation(RestMethod method, String uri,
+            Connection conn, String contentType, String contentRange, String body,
+            RestRequestCompletion completion) throws URISyntaxException {
+
+        RestOperation op = RestOperation.createSigned();
+        op.setMethod(method);
+        op.setUri(new URI(uri));
+        String token = conn.getAuthToken(uri);
+        if (token != null) {
+            op.setXF5AuthToken(token);
+        } else {
+            op.setBasicAuthorization(conn.getUser(), conn.getPassword());
+        }
+        if (contentType != null) {
+            op.setContentType(contentType);
+        }
+        if (contentRange != null) {
+            op.setContentRange(contentRange);
+        }
+        if (body != null) {
+            op.setBody(body);
+        }
+        if (completion != null) {
+            op.setCompletion(completion);
+        }
+        return op;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "]";
+    }
+}
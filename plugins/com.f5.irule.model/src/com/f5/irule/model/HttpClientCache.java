@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps one long lived pooled {@link HttpClient} for every {@link Connection},
+ * whether it reaches the Big-IP directly or through a proxy.<br>
+ * The client is created on first use and replaced when the connection {@link ProxyDetails} change.<br>
+ * Reusing the client keeps the connections (or the tunnels through the proxy) open between requests
+ * and lets the shared SSL context resume TLS sessions instead of doing a full handshake.<br>
+ * Connections idle for longer than {@link #IDLE_TIMEOUT} seconds are evicted from the pool.<br>
+ * All the clients share the {@link #REQUEST_CONFIG} timeouts.
+ */
+class HttpClientCache {
+
+    private static Logger logger = Logger.getLogger(HttpClientCache.class);
+
+    static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+    static final int MAX_CONNECTIONS_TOTAL = 100;
+    /**
+     * Seconds a pooled connection may stay idle before it is closed
+     */
+    static final long IDLE_TIMEOUT = 30;
+    /**
+     * Seconds to keep a connection alive when the server does not send a Keep-Alive timeout
+     */
+    static final long DEFAULT_KEEP_ALIVE = 60;
+    /**
+     * Milliseconds to wait for a TCP (or proxy tunnel) connection to be established
+     */
+    static final int CONNECT_TIMEOUT = 15 * 1000;
+    /**
+     * Milliseconds to wait for data on an open connection
+     */
+    static final int SOCKET_TIMEOUT = 120 * 1000;
+    /**
+     * Milliseconds to wait for a connection from the pool
+     */
+    static final int POOL_TIMEOUT = 30 * 1000;
+
+    /**
+     * The timeouts of every request, the proxy is set per request by {@link ProxyUtil#executeRequest}
+     */
+    static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+        .setConnectTimeout(CONNECT_TIMEOUT)
+        .setSocketTimeout(SOCKET_TIMEOUT)
+        .setConnectionRequestTimeout(POOL_TIMEOUT)
+        .build();
+
+    private static HttpClientCache instance = new HttpClientCache();
+
+    static HttpClientCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Map of Big-IP address to the client that reaches it
+     */
+    private final Map<String, CachedClient> clients = new HashMap<String, CachedClient>();
+
+    private HttpClientCache() {
+    }
+
+    /**
+     * Get the pooled client of the connection, creating it if needed.<br>
+     * A client created for different {@link ProxyDetails} is closed and replaced.
+     */
+    HttpClient getClient(Connection conn) throws GeneralSecurityException {
+        String address = conn.getAddress();
+        ProxyDetails proxyDetails = conn.getProxyDetails();
+        CachedClient stale = null;
+        CachedClient cached;
+        synchronized (clients) {
+            cached = clients.get(address);
+            if (cached != null && !cached.proxyDetails.equals(proxyDetails)) {
+                stale = cached;
+                cached = null;
+            }
+            if (cached == null) {
+                CloseableHttpClient client = conn.isUseProxy() ?
+                    ProxyUtil.createClient(conn.getProxyIp(), conn.getProxyPort(), conn.getProxyUser(), conn.getProxyPassword()) :
+                    ProxyUtil.createClient(null, -1, null, null);
+                cached = new CachedClient(proxyDetails, client);
+                clients.put(address, cached);
+                logger.debug("Created client for " + address + " via " + proxyDetails);
+            }
+        }
+        if (stale != null) {
+            close(address, stale);
+        }
+        return cached.client;
+    }
+
+    /**
+     * Close and forget the client of the given Big-IP address, if any.
+     */
+    void remove(String address) {
+        CachedClient cached;
+        synchronized (clients) {
+            cached = clients.remove(address);
+        }
+        if (cached != null) {
+            close(address, cached);
+        }
+    }
+
+    /**
+     * Close all the cached clients.
+     */
+    void clear() {
+        Map<String, CachedClient> copy;
+        synchronized (clients) {
+            copy = new HashMap<String, CachedClient>(clients);
+            clients.clear();
+        }
+        for (Map.Entry<String, CachedClient> entry : copy.entrySet()) {
+            close(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void close(String address, CachedClient cached) {
+        try {
+            cached.client.close();
+        } catch (IOException ex) {
+            logger.warn("Failed to close client of " + address, ex);
+        }
+    }
+
+    /**
+     * Keep connections alive for the period the server asks for,
+     * or {@link #DEFAULT_KEEP_ALIVE} seconds if it does not say.
+     */
+    static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final ConnectionKeepAliveStrategy serverStrategy = DefaultConnectionKeepAliveStrategy.INSTANCE;
+
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = serverStrategy.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : TimeUnit.SECONDS.toMillis(DEFAULT_KEEP_ALIVE);
+        }
+    }
+
+    private static class CachedClient {
+
+        private final ProxyDetails proxyDetails;
+        private final CloseableHttpClient client;
+
+        private CachedClient(ProxyDetails proxyDetails, CloseableHttpClient client) {
+            this.proxyDetails = proxyDetails;
+            this.client = client;
+        }
+    }
+}
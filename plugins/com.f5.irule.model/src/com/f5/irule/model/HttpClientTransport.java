@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+
+/**
+ * {@link RestTransport} that uses the pooled keep-alive client of the connection in the {@link HttpClientCache},
+ * so requests share the pooling, timeout and TLS settings whether or not the connection uses a proxy.<br>
+ * The blocking HttpClient executions run on a thread pool of the connection,
+ * sized by the maximum limit of its {@link ConcurrencyLimiter},
+ * so like the f5.rest.jar transport a request does not wait for the response of the previous one.
+ */
+class HttpClientTransport implements RestTransport {
+
+    private static Logger logger = Logger.getLogger(HttpClientTransport.class);
+
+    static final HttpClientTransport INSTANCE = new HttpClientTransport();
+
+    /**
+     * Seconds an idle request thread is kept
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    private final Map<String, ThreadPoolExecutor> executors = new HashMap<String, ThreadPoolExecutor>();
+
+    private HttpClientTransport() {
+    }
+
+    @Override
+    public void sendRequest(final BigIPConnection conn, final RestMethod method, final String uri, final String body,
+            final RequestCompletion completion) {
+        getExecutor(conn).execute(new Runnable() {
+            public void run() {
+                try {
+                    ProxyUtil.sendRequest(conn, method, uri, body, completion);
+                } catch (Throwable ex) {
+                    logger.warn("Failed " + method + " " + uri, ex);
+                    completion.failed(ex instanceof Exception ? (Exception) ex : new Exception(ex),
+                        method.name(), uri, null);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void uploadResource(BigIPConnection conn, String uri, String localFilePath,
+            RestFrameworkCompletionHandler completionHandler) throws GeneralSecurityException {
+        ProxyUtil.uploadResource(conn, uri, localFilePath, completionHandler);
+    }
+
+    /**
+     * Shut down and forget the request thread pool of a removed connection.<br>
+     * The requests already queued still run, a connection later created with the same name gets a new pool.
+     */
+    synchronized void remove(String connectionName) {
+        ThreadPoolExecutor executor = executors.remove(connectionName);
+        if (executor != null) {
+            logger.debug("Shut down the request threads of " + connectionName);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Return the request thread pool of the connection, creating it on first use.<br>
+     * Its threads time out when idle.
+     */
+    private synchronized ThreadPoolExecutor getExecutor(final BigIPConnection conn) {
+        ThreadPoolExecutor executor = executors.get(conn.getName());
+        if (executor == null) {
+            int threads = conn.getConcurrencyLimiter().getMaxLimit();
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "iControl REST " + conn.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(conn.getName(), executor);
+        }
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "]";
+    }
+}
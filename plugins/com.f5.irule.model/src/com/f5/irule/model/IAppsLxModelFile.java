@@ -15,13 +15,14 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.ui.statushandlers.StatusManager;
 
 import com.f5.rest.common.RestOperation;
 import com.f5.rest.common.RestOperation.RestMethod;
@@ -110,11 +111,32 @@ public class IAppsLxModelFile extends ModelFile {
     }
 
     public IStatus iControlRestPatch(RequestCompletion finalCompletion) {
-        // Wrap the external completion with a RestartRestnodedCompletion
-        // so if the resource patching completes successfully
-        // it would send a REST request to restart the restnoded service.
-        RequestCompletion restartCompletion = new RestartRestnodedCompletion(this, finalCompletion);
         BigIPConnection conn = getConnection();
+        if (!requiresRestart()) {
+            return patch(conn, finalCompletion);
+        }
+        // Wrap the external completion with a RestartRestnodedCompletion
+        // that counts the write as outstanding on the connection RestnodedRestart until it finishes,
+        // so the restnoded service is restarted once all the writes finished and settled.
+        RestartRestnodedCompletion restartCompletion = new RestartRestnodedCompletion(conn.getRestnodedRestart(), finalCompletion);
+        conn.getRestnodedRestart().writeStarted();
+        IStatus status = patch(conn, restartCompletion);
+        if (!status.isOK()) {
+            restartCompletion.finish(false);
+        }
+        return status;
+    }
+
+    /**
+     * Return false if the top level iApp directory of the file is the presentation dir,
+     * whose files are served without restarting restnoded.
+     */
+    private boolean requiresRestart() {
+        IPath path = getFilePath();
+        return !(path.segmentCount() > 2 && path.segment(2).equals(IAPP_PRESENTATION_FOLDER));
+    }
+
+    private IStatus patch(BigIPConnection conn, RequestCompletion finalCompletion) {
         String localFilePath = getFile().getLocation().toString();
         ModelParent parent = getParent();
         boolean parentLocallyAdded = parent.isLocallyAdded();
@@ -127,80 +149,41 @@ public class IAppsLxModelFile extends ModelFile {
             // using the /mgmt/shared/iapp/file-management api.
             IPath parentRemotePath = remotePath.removeLastSegments(1);
             RestURI uri = RestUri(conn, RestFramework.IAPP_DIRECTORY_MANAGEMENT_RECURSIVE, parentRemotePath);
-            RequestCompletion completion = new MkdirCompletion(conn, localFilePath, remotePath, restartCompletion);
+            RequestCompletion completion = new MkdirCompletion(conn, localFilePath, remotePath, finalCompletion);
             return RestFramework.sendRequest(conn, RestMethod.POST, uri.toString(), null, "{}", completion);
         } else {
-            return writeIappLXResource(conn, localFilePath, remotePath, restartCompletion);
+            return writeIappLXResource(conn, localFilePath, remotePath, finalCompletion);
         }
     }
     
     /**
-     * On completed() schedule restart operation on the Big-Ip<br>
+     * Report the end of the write to the connection {@link RestnodedRestart}, once,
+     * so a burst of writes restarts it once after the last write finished,<br>
      * and then delegate response processing to the external final completion 
      */
     private static class RestartRestnodedCompletion extends RequestCompletion {
-        private IAppsLxModelFile model;
+        private RestnodedRestart restnodedRestart;
         private RequestCompletion finalCompletion;
-        private RestartRestnodedCompletion(IAppsLxModelFile model, RequestCompletion finalCompletion) {
-            this.model = model;
+        private AtomicBoolean finished = new AtomicBoolean(false);
+        private RestartRestnodedCompletion(RestnodedRestart restnodedRestart, RequestCompletion finalCompletion) {
+            this.restnodedRestart = restnodedRestart;
             this.finalCompletion = finalCompletion;
         }
-        public void completed(String method, String uri, JsonObject responseBody) {
-            IPath path = model.getFilePath();
-            if (!(path.segmentCount() > 2 && path.segment(2).equals(IAPP_PRESENTATION_FOLDER))) {
-                // If the top level iApp directory is NOT the presentation dir, restart the service
-                model.restartRestnoded();                
+        private void finish(boolean succeeded) {
+            if (finished.compareAndSet(false, true)) {
+                restnodedRestart.writeFinished(succeeded);
             }
+        }
+        public void completed(String method, String uri, JsonObject responseBody) {
+            finish(true);
             finalCompletion.completed(method, uri, responseBody);
         }
         public void failed(Exception ex, String method, String uri, String responseBody) {
+            finish(false);
             finalCompletion.failed(ex, method, uri, responseBody);
         }
     }
 
-    /**
-     * Send a REST request to the Big-ip to restart the restnoded service.
-     */
-    private void restartRestnoded() {
-        // Finished updating Big-Ip with some file. Need to restart restnoded.
-        BigIPConnection conn = getConnection();
-        logger.debug("Restart restnoded on " + conn);
-        IStatus status = new Status(IStatus.INFO, Ids.PLUGIN, Messages.REQUESTED_RESTART_OF_RESTNODED_SERVICE);
-        StatusManager.getManager().handle(status, StatusManager.LOG);
-        
-        String uri = conn.getURI(RestFramework.MGMT_TM_SYS_SERVICE).toString();        
-        JsonObject restartJson = new JsonObject();
-        restartJson.addProperty("command", "restart");
-        restartJson.addProperty("name", "restnoded");
-        String body = restartJson.toString();
-        
-        // Send the restart request on the same thread.
-        // Since this is a side task, the plugin updates the UI tree prior to receiving the response for this request.
-        // If the RestFramework.sendRequestJob would be used then it would use another SendRequestJob job to send the request
-        // and the UI connection label would remain with the '(Loading)' suffix.
-        RestFramework.sendRequest(conn, RestMethod.POST, uri, "application/json", body, new LogMessageCompletion());
-    }
-    
-    /**
-     * {@link RequestCompletion} that logs a restnoded successful/failed message to the plug-in UI<br>
-     * when the restart restnoded request execution completes
-     */
-    private static class LogMessageCompletion extends RequestCompletion {
-        @Override
-        public void completed(String method, String uri, JsonObject responseBody) {
-            logger.debug("Completed " + method + " " + uri + " response:\n" + responseBody);
-            /* String commandResult = responseBody.get("commandResult").getAsString();
-            IStatus status = new Status(IStatus.INFO, Ids.PLUGIN, Messages.SUCCESSFUL_RESTNODED_SERVICE_RESULT + "\n" + commandResult);
-            StatusManager.getManager().handle(status, StatusManager.SHOW | StatusManager.LOG);*/
-        }
-        @Override
-        public void failed(Exception ex, String method, String uri, String responseBody) {
-            logger.warn("Failed " + method + " " + uri + " response:\n" + responseBody, ex);
-            IStatus status = new Status(IStatus.ERROR, Ids.PLUGIN, Messages.FAILED_RESTNODED_SERVICE, ex);
-            StatusManager.getManager().handle(status, StatusManager.SHOW | StatusManager.LOG);
-        }        
-    }
-
     /**
      * Synchronously upload the iAppsLx resource to the Big-IP.<br>
      * Use the /mgmt/shared/iapp/file-management upload REST api to upload the file.
@@ -235,12 +218,18 @@ public class IAppsLxModelFile extends ModelFile {
         @Override
         public void completed(String method, String uri, JsonObject jsonBody) {
             logger.debug("Completed " + method + " " + uri);
-            writeIappLXResource(conn, localFilePath, remotePath, finalCompletion);
+            IStatus status = writeIappLXResource(conn, localFilePath, remotePath, finalCompletion);
+            if (!status.isOK()) {
+                Throwable cause = status.getException();
+                Exception ex = cause instanceof Exception ? (Exception) cause : new IOException(status.getMessage());
+                finalCompletion.failed(ex, method, uri, null);
+            }
         }
 
         @Override
         public void failed(Exception ex, String method, String uri, String responseBody) {
             logger.warn("Failed " + method + " " + uri, ex);
+            finalCompletion.failed(ex, method, uri, responseBody);
         }
     }
 }
@@ -39,6 +39,9 @@ public class Ids {
     public static final String REST_PATCH = "Rest Patch";
     public static final String REST_DELETE = "Rest Delete";
     public static final String SEND_REST_REQUEST = "Send Rest Request";
+    public static final String REST_TRANSACTION = "Rest Transaction";
+    public static final String ILX_BULK_UPLOAD = "ILX Bulk Upload";
+    public static final String RESTART_RESTNODED = "Restart Restnoded";
     public static final String PROXY_SERVER = "proxyServer";
     public static final String PROXY_IP = "proxyIp";
     public static final String PROXY_PORT = "proxyPort";
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.ui.statushandlers.StatusManager;
+
+import com.f5.irule.model.jobs.BulkUploadJob;
+import com.f5.rest.common.RestFileTransferInformation;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Uploads the changed files of ILX extensions in bulk instead of one upload-file-copy cycle per file.<br>
+ * The files of each extension are packed into one tar.gz archive that is transferred by a single chunked upload
+ * to the file-transfer/uploads REST api, and then extracted into the workspace directory
+ * by a single call to the util/bash REST api.<br>
+ * The workspace write permit is held from the upload until the extraction answered.<br>
+ * An extension with a single changed file, or whose archive could not be created, uploaded or extracted
+ * (for example when the user role has no access to util/bash), falls back to the update of each file by its own job.<br>
+ * The completion of every added model is called with a null response body, as for any uploaded file.
+ */
+public class IlxBulkUpload {
+
+    private static Logger logger = Logger.getLogger(IlxBulkUpload.class);
+
+    static final String UTIL_BASH = "mgmt/tm/util/bash";
+    static final String DOWNLOADS_DIRECTORY = "/var/config/rest/downloads/";
+    static final String WORKSPACES_DIRECTORY = "/var/ilx/workspaces/";
+    private static final String EXTENSIONS = "extensions";
+    private static final String EXTRACTED = "ARCHIVE_EXTRACTED";
+
+    /**
+     * Names that are placed in the extraction command line without quoting issues
+     */
+    private static final Pattern SAFE_NAME = Pattern.compile("[\\w.\\-]+");
+
+    private final BigIPConnection conn;
+    private final ISchedulingRule mutex;
+    private final Map<String, List<Entry>> extensions = new LinkedHashMap<String, List<Entry>>();
+    private boolean running = false;
+
+    IlxBulkUpload(BigIPConnection conn, ISchedulingRule mutex) {
+        this.conn = conn;
+        this.mutex = mutex;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn.getName());
+        builder.append(" ").append(extensions.keySet());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * @return true if the model is an existing ILX extension file that can be uploaded in an extension archive.
+     */
+    public static boolean isBulkUploadable(ModelObject model) {
+        return model instanceof ILXModelFile && model.getType() == ModelObject.Type.EXTENSION_FILE
+            && !model.isLocallyAdded();
+    }
+
+    public synchronized boolean isEmpty() {
+        return extensions.isEmpty();
+    }
+
+    /**
+     * Add the upload of the ILX extension file to the archive of its extension.<br>
+     * The connection job count is incremented until the completion is called,
+     * as if the file was uploaded by its own job.<br>
+     * A model whose file holds the content of the last response is skipped, like in {@link ModelObject#iControlRestPatchJob}.
+     * @return false if the bulk upload already started running and can not take more models.
+     */
+    public synchronized boolean add(ModelObject model, RequestCompletion completion) {
+        if (running) {
+            return false;
+        }
+        if (model.hasLastResponseContent()) {
+            logger.warn("Big-IP already have content of " + model);
+            return true;
+        }
+        Entry entry = new Entry(model, completion);
+        String key = entry.partition + "/" + entry.workspace + "/" + entry.extension;
+        List<Entry> entries = extensions.get(key);
+        if (entries == null) {
+            entries = new ArrayList<Entry>();
+            extensions.put(key, entries);
+        }
+        conn.incrementJobCount();
+        entries.add(entry);
+        return true;
+    }
+
+    /**
+     * Schedule a {@link BulkUploadJob} that runs this bulk upload.
+     */
+    public void commitJob() {
+        new BulkUploadJob(this, mutex).schedule();
+    }
+
+    /**
+     * Start the upload of the archive of each extension.<br>
+     * Files the Big-IP already has the content of are completed without being sent.<br>
+     * The archives are uploaded and extracted asynchronously, the completions are called when each extraction answered.
+     */
+    public IStatus run() {
+        List<List<Entry>> groups;
+        synchronized (this) {
+            running = true;
+            groups = new ArrayList<List<Entry>>(extensions.values());
+            extensions.clear();
+        }
+        logger.debug("Run " + this + " " + groups.size() + " extensions");
+        for (List<Entry> group : groups) {
+            completeUnchanged(group);
+            if (group.size() == 1) {
+                patchEach(group);
+            } else if (!group.isEmpty()) {
+                uploadArchive(group);
+            }
+        }
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Remove the entries of files whose content has the digest of the content the Big-IP has,
+     * see {@link ModelObject#hasDeployedContent()}, and complete them as if they were uploaded.
+     */
+    private void completeUnchanged(List<Entry> group) {
+        List<Entry> unchanged = new ArrayList<Entry>();
+        for (Entry entry : group) {
+            if (entry.model.hasDeployedContent()) {
+                unchanged.add(entry);
+            }
+        }
+        group.removeAll(unchanged);
+        for (Entry entry : unchanged) {
+            logger.debug("Big-IP already have the content of " + entry.model + ". Skip upload");
+            entry.completion.setConnectionJobCount(conn.decrementJobCount());
+            entry.completion.completed(null, null, null);
+        }
+    }
+
+    /**
+     * Pack the files of the extension into an archive and upload it.<br>
+     * Entries are named by their path in the workspace, so the archive is extracted into the workspace directory.
+     */
+    private void uploadArchive(List<Entry> group) {
+        Entry first = group.get(0);
+        if (!isSafe(first.partition) || !isSafe(first.workspace)) {
+            logger.debug("Can not extract an archive into workspace " + first.workspace + ". Upload each file");
+            patchEach(group);
+            return;
+        }
+        File archive = null;
+        try {
+            archive = File.createTempFile("ilx_" + first.workspace + "_", ".tar.gz");
+            TarArchiveWriter writer = new TarArchiveWriter(archive);
+            try {
+                for (Entry entry : group) {
+                    writer.addFile(entry.uploadFileCopy, new File(entry.localFilePath));
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed creating archive of " + first.extension + ". Upload each file", ex);
+            if (archive != null) {
+                archive.delete();
+            }
+            patchEach(group);
+            return;
+        }
+        logger.debug("Upload " + group.size() + " files of " + first.extension + " in " + archive.getName());
+        ArchiveCompletionHandler completionHandler = new ArchiveCompletionHandler(group, archive);
+        RestFramework.getInstance().writeILXArchive(conn, archive.getPath(),
+            first.partition, first.workspace, completionHandler);
+    }
+
+    /**
+     * Fall back to the update of each file of the group by its own {@link ModelObject#iControlRestPatchJob}.<br>
+     * The job count of the entry is handed over to the scheduled job.
+     */
+    private void patchEach(List<Entry> group) {
+        for (Entry entry : group) {
+            entry.model.iControlRestPatchJob(entry.completion, mutex);
+            conn.decrementJobCount();
+        }
+    }
+
+    private void complete(List<Entry> group) {
+        for (Entry entry : group) {
+            entry.completion.setConnectionJobCount(conn.decrementJobCount());
+            entry.completion.completed(null, null, null);
+        }
+    }
+
+    private static boolean isSafe(String name) {
+        return name != null && SAFE_NAME.matcher(name).matches();
+    }
+
+    /**
+     * The util/bash command that extracts the uploaded archive into the workspace directory, then removes it.<br>
+     * util/bash does not return the exit code of the command, so a marker is echoed when tar succeeded.
+     */
+    private static String createExtractBody(String archiveName, String partition, String workspace) {
+        String archivePath = DOWNLOADS_DIRECTORY + archiveName;
+        String workspacePath = WORKSPACES_DIRECTORY + partition + "/" + workspace;
+        String command = "tar -xzf " + archivePath + " -C " + workspacePath + " --no-same-owner"
+            + " && echo " + EXTRACTED + "; rm -f " + archivePath;
+        JsonObject json = new JsonObject();
+        json.addProperty("command", "run");
+        json.addProperty("utilCmdArgs", "-c '" + command + "'");
+        return json.toString();
+    }
+
+    /**
+     * An ILX extension file added to the bulk upload, with its location in the workspace.
+     */
+    private static class Entry {
+        private final ModelObject model;
+        private final RequestCompletion completion;
+        private final String localFilePath;
+        private final String partition;
+        private final String workspace;
+        private final String extension;
+        private final String uploadFileCopy;
+
+        private Entry(ModelObject model, RequestCompletion completion) {
+            this.model = model;
+            this.completion = completion;
+            IFile file = model.getFile();
+            IPath fullPath = file.getFullPath();
+            this.localFilePath = file.getLocation().toString();
+            this.partition = fullPath.segment(1);
+            this.workspace = fullPath.segment(3);
+            IPath workspacePath = fullPath.removeFirstSegments(4);
+            this.extension = workspacePath.segment(0).equals(EXTENSIONS) ? workspacePath.segment(1) : null;
+            this.uploadFileCopy = workspacePath.toString();
+        }
+    }
+
+    /**
+     * Once the archive is transferred, ask the Big-IP to extract it.<br>
+     * The write permit is released when the extraction answered, or when the transfer failed.
+     */
+    private class ArchiveCompletionHandler extends RestFrameworkCompletionHandler {
+
+        private final List<Entry> group;
+        private final File archive;
+
+        private ArchiveCompletionHandler(List<Entry> group, File archive) {
+            super(null);
+            this.group = group;
+            this.archive = archive;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName()).append(" ");
+            builder.append(archive.getName());
+            builder.append("]");
+            return builder.toString();
+        }
+
+        @Override
+        public void completed(RestFileTransferInformation info) {
+            recordSuccess();
+            archive.delete();
+            Entry first = group.get(0);
+            String uri = conn.getURI(UTIL_BASH).toString();
+            String body = createExtractBody(archive.getName(), first.partition, first.workspace);
+            logger.debug("Transferred " + archive.getName() + "\n\tSend " + uri + " " + body);
+            RequestCompletion extractCompletion = new ExtractCompletion(this);
+            // Through sendRequest, like any other request: health check, concurrency limit, metrics,
+            // and the detach of the coalesced GETs that must not serve a listing from before the extract
+            IStatus status = RestFramework.sendRequest(conn, RestMethod.POST, uri, null, body, extractCompletion);
+            if (!status.isOK()) {
+                extractCompletion.failed(new Exception(status.getMessage(), status.getException()),
+                    RestMethod.POST.name(), uri, null);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, RestFileTransferInformation info) {
+            recordOutcome(ex);
+            archive.delete();
+            releasePermit();
+            fallBack(ex);
+        }
+
+        private void fallBack(Exception ex) {
+            logger.warn("Failed bulk upload of " + archive.getName() + ". Upload each file", ex);
+            patchEach(group);
+        }
+    }
+
+    /**
+     * Completion of the util/bash call that extracts the archive.<br>
+     * It succeeded only if the command result has the marker echoed after tar.
+     */
+    private class ExtractCompletion extends RequestCompletion {
+
+        private final ArchiveCompletionHandler handler;
+
+        private ExtractCompletion(ArchiveCompletionHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            handler.releasePermit();
+            JsonElement result = responseBody == null ? null : responseBody.get("commandResult");
+            String commandResult = result == null ? "" : result.getAsString();
+            if (commandResult.contains(EXTRACTED)) {
+                String message = Messages.FILE_UPLOADED_SUCCESSFULLY + " : " + handler.group.size() +
+                    " files of " + handler.group.get(0).extension;
+                StatusManager.getManager().handle(new Status(IStatus.INFO, Ids.PLUGIN, message), StatusManager.LOG);
+                complete(handler.group);
+            } else {
+                handler.fallBack(new Exception(Messages.ARCHIVE_EXTRACTION_FAILED + ": " + commandResult));
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            handler.releasePermit();
+            handler.fallBack(ex);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName()).append(" ");
+            builder.append(handler);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
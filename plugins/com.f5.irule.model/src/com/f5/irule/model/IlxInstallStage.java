@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonObject;
+
+/**
+ * The install stage of the ILX file writes of a {@link BigIPConnection}.<br>
+ * An ILX file is written in two stages:
+ * its bytes are transferred to the ilx_workspace_file upload under the workspace write permit,
+ * which is released as soon as the transfer completed,
+ * and then the upload-file-copy PATCH installs the uploaded file into the workspace.<br>
+ * The Big-IP keeps a single ilx_workspace_file, so a write must own the staging file from its transfer
+ * until its install answered. The staging file is handed to the waiting writes in the order they asked for it.<br>
+ * The ILX writes of a connection are therefore serialized: the transfer of a file never overlaps
+ * the install of the previous one. The early release of the write permit only lets the other uploads
+ * of the connection, e.g. iAppsLX files, use it while the install runs.
+ */
+class IlxInstallStage {
+
+    private static Logger logger = Logger.getLogger(IlxInstallStage.class);
+
+    static final String ILX_WORKSPACE_FILE = "ilx_workspace_file";
+
+    private final BigIPConnection conn;
+    private final Semaphore staging = new Semaphore(1, true);
+
+    IlxInstallStage(BigIPConnection conn) {
+        this.conn = conn;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn.getName());
+        builder.append(" ").append(staging.getQueueLength());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * Wait up to the timeout for the staging file.
+     * @return true if the staging file was acquired, it must be released by {@link #releaseStaging()}
+     */
+    boolean tryAcquireStaging(long timeout, TimeUnit unit) {
+        try {
+            return staging.tryAcquire(timeout, unit);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    void releaseStaging() {
+        staging.release();
+    }
+
+    /**
+     * Send the upload-file-copy PATCH that installs the transferred file into the workspace,
+     * through {@link RestFramework#sendRequest} like any other request of the connection.<br>
+     * The staging file is released when the Big-IP answered, then the response is delegated to the final completion.
+     */
+    void install(String partition, String workspace, String uploadFileCopy, RequestCompletion finalCompletion) {
+        RestURI restUri = conn.getURI(BigIPConnection.Module.ilx.name(), "workspace");
+        restUri.appendPartitionedOID(partition, workspace);
+        restUri.addOption("upload-file-copy", uploadFileCopy);
+        String uri = restUri.toString();
+        JsonObject json = new JsonObject();
+        json.addProperty("command", "modify");
+        String body = json.toString();
+        logger.debug("Install " + uploadFileCopy + "\n\tSend " + uri + " Completion: " + finalCompletion);
+        RequestCompletion installCompletion = new InstallCompletion(finalCompletion);
+        IStatus status = RestFramework.sendRequest(conn, RestMethod.PATCH, uri, null, body, installCompletion);
+        if (!status.isOK()) {
+            installCompletion.failed(new Exception(status.getMessage(), status.getException()),
+                RestMethod.PATCH.name(), uri, null);
+        }
+    }
+
+    /**
+     * Release the staging file once the Big-IP answered the install request<br>
+     * and then delegate the response to the final {@link RequestCompletion}.
+     */
+    private class InstallCompletion extends RequestCompletion {
+
+        private RequestCompletion finalCompletion;
+
+        private InstallCompletion(RequestCompletion finalCompletion) {
+            this.finalCompletion = finalCompletion;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            releaseStaging();
+            finalCompletion.completed(method, uri, responseBody);
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            releaseStaging();
+            finalCompletion.failed(ex, method, uri, responseBody);
+        }
+
+        @Override
+        public boolean isJson() {
+            return finalCompletion.isJson();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName()).append(" ");
+            builder.append(finalCompletion);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
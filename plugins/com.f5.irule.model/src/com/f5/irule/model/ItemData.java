@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
 import java.util.Set;
 import java.util.Map.Entry;
 
@@ -23,6 +24,9 @@ import org.eclipse.core.runtime.Path;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 public class ItemData {
 
@@ -35,10 +39,12 @@ public class ItemData {
     public JsonElement rules;
     public JsonElement files;
     public JsonArray records;
+    public Long generation;
+    public Long lastUpdateMicros;
 
     private ItemData(String name, String body, String partition,
             JsonElement extensions, JsonElement rules, JsonElement files,
-            Path fullPath, String type, JsonArray records) {
+            Path fullPath, String type, JsonArray records, Long generation, Long lastUpdateMicros) {
         this.name = name;
         this.body = body;
         this.partition = partition;
@@ -48,6 +54,21 @@ public class ItemData {
         this.fullPath = fullPath;
         this.type = type;
         this.records = records;
+        this.generation = generation;
+        this.lastUpdateMicros = lastUpdateMicros;
+    }
+
+    /**
+     * Return a stamp of the item version on the Big-IP,
+     * composed from its generation and lastUpdateMicros values.<br>
+     * The stamp changes whenever the item is modified on the Big-IP.<br>
+     * Return null if the item has none of these values.
+     */
+    public String getStamp() {
+        if (generation == null && lastUpdateMicros == null) {
+            return null;
+        }
+        return generation + "/" + lastUpdateMicros;
     }
 
     @Override
@@ -64,6 +85,9 @@ public class ItemData {
         if (fullPath != null) {
             builder.append(" ").append(fullPath);
         }
+        if (generation != null) {
+            builder.append(" generation=").append(generation);
+        }
         if (body != null) {
             builder.append(" ").append(body);
         }
@@ -102,6 +126,8 @@ public class ItemData {
         Path fullPath = null;
         String type = null;
         JsonArray records = null;
+        Long generation = null;
+        Long lastUpdateMicros = null;
         for (Entry<String, JsonElement> en : entrySet) {
             String key = en.getKey();
             JsonElement val = en.getValue();
@@ -123,9 +149,71 @@ public class ItemData {
                 type = val.getAsString();
             } else if (key.equals("records")) {
                 records = (JsonArray) val;
+            } else if (key.equals("generation")) {
+                generation = val.getAsLong();
+            } else if (key.equals("lastUpdateMicros")) {
+                lastUpdateMicros = val.getAsLong();
+            }
+        }
+        ItemData itemData = new ItemData(name, body, partition, extensions, rules, files, fullPath, type, records, generation, lastUpdateMicros);
+        return itemData;
+    }
+
+    /**
+     * Read the next item object from the reader directly into an {@link ItemData},
+     * without building a {@link JsonObject} of the whole item.<br>
+     * Only the nested elements (extensions, rules, files, records) are parsed to trees,
+     * other unknown values are skipped.<br>
+     * Return null and skip the value if it is not an object.
+     */
+    public static ItemData read(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String name = null;
+        String body = null;
+        String partition = null;
+        JsonElement extensions = null;
+        JsonElement rules = null;
+        JsonElement files = null;
+        Path fullPath = null;
+        String type = null;
+        JsonArray records = null;
+        Long generation = null;
+        Long lastUpdateMicros = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("name")) {
+                name = reader.nextString();
+            } else if (key.equals("apiAnonymous")) {
+                body = reader.nextString();
+            } else if (key.equals("partition")) {
+                partition = reader.nextString();
+            } else if (key.equals("extensions")) {
+                extensions = JSON_PARSER.parse(reader);
+            } else if (key.equals("rules")) {
+                rules = JSON_PARSER.parse(reader);
+            } else if (key.equals("files")) {
+                files = JSON_PARSER.parse(reader);
+            } else if (key.equals("fullPath")) {
+                fullPath = new Path(reader.nextString());
+            } else if (key.equals("type")) {
+                type = reader.nextString();
+            } else if (key.equals("records")) {
+                records = (JsonArray) JSON_PARSER.parse(reader);
+            } else if (key.equals("generation")) {
+                generation = reader.nextLong();
+            } else if (key.equals("lastUpdateMicros")) {
+                lastUpdateMicros = reader.nextLong();
+            } else {
+                reader.skipValue();
             }
         }
-        ItemData itemData = new ItemData(name, body, partition, extensions, rules, files, fullPath, type, records);
+        reader.endObject();
+        ItemData itemData = new ItemData(name, body, partition, extensions, rules, files, fullPath, type, records, generation, lastUpdateMicros);
         return itemData;
     }
+    private static final JsonParser JSON_PARSER = new JsonParser();
 }
\ No newline at end of file
@@ -37,4 +37,6 @@ public class Messages {
     public static final String REQUESTED_RESTART_OF_RESTNODED_SERVICE = "Requested restart of 'restnoded' service";
     public static final String FAILED_RESTNODED_SERVICE = "Failed restnoded service";
     public static final String FAILED_TO_GET_PARTITION = "Failed to get partition";
+    public static final String TRANSACTION_FAILED = "Transaction failed";
+    public static final String ARCHIVE_EXTRACTION_FAILED = "Archive extraction failed";
 }
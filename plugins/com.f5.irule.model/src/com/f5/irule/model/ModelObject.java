@@ -326,12 +326,9 @@ public abstract class ModelObject implements IAdaptable {
      */
     public void iControlRestPatchJob(RequestCompletion completion, ISchedulingRule mutex) {
 
-        IFile file = getFile();
-        long modificationStamp = file.getModificationStamp();
-        long contentModificationStamp = PersistentPropertiesUtil.getResponseTimeStampLong(connection, filePath);
         // Safety check - Validate that the model file content does not have the time stamp of the last response from the Big-IP.
         // If it did, it signifies some kind of a loop: a response received from the Big-IP is patched back to the Big-IP...
-        if (contentModificationStamp == modificationStamp) {
+        if (hasLastResponseContent()) {
             logger.warn("Big-IP already have content of " + this);
         } else {
             BigIPConnection conn = (BigIPConnection) getConnection();
@@ -340,6 +337,27 @@ public abstract class ModelObject implements IAdaptable {
         }
         
     }
+
+    /**
+     * @return true if the model file has the modification stamp of the last response received from the Big-IP,
+     * meaning the Big-IP already has its content.
+     */
+    public boolean hasLastResponseContent() {
+        IFile file = getFile();
+        long modificationStamp = file.getModificationStamp();
+        long contentModificationStamp = PersistentPropertiesUtil.getResponseTimeStampLong(connection, filePath);
+        return contentModificationStamp == modificationStamp;
+    }
+
+    /**
+     * @return true if the model file content has the digest of the content
+     * the Big-IP had when the model was last received or sent, so an update would not change it.
+     */
+    public boolean hasDeployedContent() {
+        IFile file = getFile();
+        return file != null && PersistentPropertiesUtil.hasDeployedContent(connection, file);
+    }
+
     /**
      * Schedule a job that executes the {@link ModelObject #iControlRestDelete(RequestCompletion)} method
      */
@@ -33,6 +33,31 @@ public class ModelRoot extends ModelParent {
         return instance;
     }
 
+    /**
+     * Remove the child, and if it is a {@link BigIPConnection} release its REST resources:<br>
+     * its request threads, and its pooled client unless another connection uses the same Big-IP address.
+     */
+    @Override
+    public void removeChild(ModelObject child) {
+        super.removeChild(child);
+        if (child instanceof BigIPConnection) {
+            BigIPConnection conn = (BigIPConnection) child;
+            HttpClientTransport.INSTANCE.remove(conn.getName());
+            if (findConnectionByAddress(conn.getAddress()) == null) {
+                HttpClientCache.getInstance().remove(conn.getAddress());
+            }
+        }
+    }
+
+    private Connection findConnectionByAddress(String address) {
+        for (ModelObject child : getChildren()) {
+            if (child instanceof Connection && ((Connection) child).getAddress().equals(address)) {
+                return (Connection) child;
+            }
+        }
+        return null;
+    }
+
     /*
      * Finds the Connection associated with the specified path.  If not found, return null
      */
@@ -15,7 +15,13 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.DatatypeConverter;
 
 import org.apache.log4j.Logger;
 import org.eclipse.core.resources.IContainer;
@@ -75,26 +81,27 @@ public class ModelUtils {
     static void setContentFromResponseQualifier(IResource resource, boolean contentFromResponse) throws CoreException {
         QualifiedName qualifiedName = getContentFromResponseQualifier(resource.getName());
         IResource parent = resource.getParent();
-        try {
-            parent.setSessionProperty(qualifiedName, contentFromResponse);
-        } catch (CoreException ex) {
-            String message = ex.getMessage();
-            if (message.endsWith("is not local.")) {
-                logger.warn("Try again to set " + qualifiedName + " session property to " + contentFromResponse);
-                // Try Again
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+        RetryPolicy.Attempts attempts = RetryPolicy.RESOURCE_STATE.start();
+        while (true) {
+            try {
                 parent.setSessionProperty(qualifiedName, contentFromResponse);
-            }
-            else if(message.endsWith("does not exist.")){
-                logger.warn(message + " Cannot set " + qualifiedName + " session property to " + contentFromResponse);
-            }
-            else{
-                logger.warn("Failed setting " + qualifiedName + " session property to " + contentFromResponse, ex);
-                throw ex;
+                return;
+            } catch (CoreException ex) {
+                String message = ex.getMessage();
+                if (message.endsWith("is not local.")) {
+                    logger.warn("Try again to set " + qualifiedName + " session property to " + contentFromResponse);
+                    if (!attempts.await()) {
+                        throw ex;
+                    }
+                }
+                else if(message.endsWith("does not exist.")){
+                    logger.warn(message + " Cannot set " + qualifiedName + " session property to " + contentFromResponse);
+                    return;
+                }
+                else{
+                    logger.warn("Failed setting " + qualifiedName + " session property to " + contentFromResponse, ex);
+                    throw ex;
+                }
             }
         }
     }
@@ -125,6 +132,31 @@ public class ModelUtils {
         return qualifiedName;
     }
     
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Read the stream to its end, close it and return the lower case hex SHA-256 digest of its content.
+     */
+    static String digest(InputStream stream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        try {
+            byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            stream.close();
+        }
+        return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+    }
+
     /**
      * Below are some admittedly LAME utilities for extracting file attributes from
      * its corresponding path.  Assumptions are made about the path.
@@ -15,7 +15,10 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
+
 import org.apache.log4j.Logger;
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
@@ -27,7 +30,9 @@ import org.eclipse.core.runtime.QualifiedName;
  * When the plug-in receives a REST response containing the content of a model resource,<br>
  * It saves the content in the local file system and cache its time stamp in the project persistent properties.<br>
  * The plug-in uses the cached time stamp to determine if a certain resource
- * was modified locally without synchronizing with the Big-IP.
+ * was modified locally without synchronizing with the Big-IP.<br>
+ * The digest of the file content is cached with the time stamp,
+ * so a file that was touched but holds the same content is not considered modified.
  */
 public class PersistentPropertiesUtil {
 
@@ -51,6 +56,11 @@ public class PersistentPropertiesUtil {
         // The resource was downloaded from the Big-IP server
         long responseTimeStamp = Long.parseLong(responseTimeStampValue);
         if (modificationStamp > responseTimeStamp) {
+            if (resource instanceof IFile && hasDeployedContent(connection, (IFile) resource)) {
+                logger.trace(filePath + ": The resource was touched at " + modificationStamp +
+                    " but has the content it had at " + responseTimeStamp);
+                return false;
+            }
             // The Model was modified since it was downloaded from the server
             logger.trace(filePath + ": The resource was downloaded at " + responseTimeStamp +
                 " and modified at " + modificationStamp);
@@ -99,13 +109,9 @@ public class PersistentPropertiesUtil {
      */
     private static String getResponseTimeStamp(BigIPConnection connection, IPath filePath) {
         IProject project = connection.getProject();
-        if (!project.isOpen()) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            if (!project.isOpen()) {
+        RetryPolicy.Attempts attempts = RetryPolicy.RESOURCE_STATE.start();
+        while (!project.isOpen()) {
+            if (!attempts.await()) {
                 logger.warn("Not Open: " + project);
                 return null;
             }
@@ -122,7 +128,8 @@ public class PersistentPropertiesUtil {
     }
 
     /**
-     * Set the {@link IResource} modification stamp in the project persistent properties.
+     * Set the {@link IResource} modification stamp in the project persistent properties.<br>
+     * For a file, also set the digest of its content, which is now the content the Big-IP has.
      */
     static void updateModificationStampMap(IResource file, BigIPConnection connection) {
         if (file == null) {
@@ -134,9 +141,57 @@ public class PersistentPropertiesUtil {
         QualifiedName qualifiedName = getResponseTimeStampQualifiedName(connection, location);
         String value = String.valueOf(modificationStamp);
         setPersistentProperty(connection, qualifiedName, value);
+        if (file instanceof IFile) {
+            String digest = getContentDigest((IFile) file);
+            setPersistentProperty(connection, getContentDigestQualifiedName(connection, location), digest);
+        }
         updateModificationStampMap(file.getParent(), connection);
     }
 
+    /**
+     * Return true if the file content has the digest cached when the Big-IP last had the file content,
+     * so deploying the file would not change the Big-IP.
+     */
+    static boolean hasDeployedContent(BigIPConnection connection, IFile file) {
+        if (!file.exists()) {
+            return false;
+        }
+        IProject project = connection.getProject();
+        QualifiedName qualifiedName = getContentDigestQualifiedName(connection, file.getFullPath());
+        String deployedDigest;
+        try {
+            deployedDigest = project.getPersistentProperty(qualifiedName);
+        } catch (CoreException e) {
+            logger.warn("Failed to get persistent property " + qualifiedName, e);
+            return false;
+        }
+        return deployedDigest != null && deployedDigest.equals(getContentDigest(file));
+    }
+
+    /**
+     * Return the digest of the file content, or null if it could not be read.
+     */
+    static String getContentDigest(IFile file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return ModelUtils.digest(file.getContents());
+        } catch (CoreException ex) {
+            logger.warn("Failed to read " + file, ex);
+        } catch (IOException ex) {
+            logger.warn("Failed to read " + file, ex);
+        }
+        return null;
+    }
+
+    private static final String CONTENT_DIGEST_QUALIFIER = "com.f5.irule.model.ContentDigest";
+    private static QualifiedName getContentDigestQualifiedName(BigIPConnection connection, IPath location) {
+        String localName = connection.getName() + "_" + location.toString();
+        QualifiedName name = new QualifiedName(CONTENT_DIGEST_QUALIFIER, localName);
+        return name;
+    }
+
     private static final String MODIFICATION_STAMP_QUALIFIER = "com.f5.irule.model.ModificationStamp";
     private static QualifiedName getResponseTimeStampQualifiedName(BigIPConnection connection, IPath location) {
         String localName = connection.getName() + "_" + location.toString();
@@ -20,11 +20,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.io.UnsupportedEncodingException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -34,7 +40,6 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.ByteArrayEntity;
-import org.apache.http.entity.StringEntity;
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -47,15 +52,32 @@ import com.f5.rest.common.RestFileTransferInformation;
 import com.f5.rest.common.RestHelper;
 import com.f5.rest.common.RestOperation;
 import com.f5.rest.common.RestReference;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 
 /**
  * Helper that uploads files to the Big-ip with raw data from the local file system.<br>
+ * The file is split to chunks of the request Content-Range size.<br>
+ * Up to {@link #WINDOW_PROPERTY} chunks (default {@link #DEFAULT_WINDOW}) are in flight at the same time,
+ * each sent by its own {@link FileChunkTransferJob}.<br>
+ * The last chunk commits the upload, so it is sent only after all the other chunks were acknowledged.<br>
+ * Chunks are read with positional {@link FileChannel} reads into a buffer each job reuses for all its chunks,
+ * and sent as is without decoding them.<br>
+ * The acknowledged chunks are persisted in an {@link UploadProgress},
+ * so a later upload of the same file to the same target after a failure or an exit
+ * sends only the chunks that were not acknowledged.
+ * If the response to the last chunk shows the Big-IP lost the skipped chunks, e.g. restjavad restarted,
+ * the record is dropped and the file is uploaded again from the start.<br>
+ * The proxy host is null when the connection reaches the Big-IP directly.<br>
  * Original code: {@link RestFileSender}
  */
 public class ProxyRestFileSender {
 
     private static Logger logger = Logger.getLogger(ProxyRestFileSender.class);
 
+    static final String WINDOW_PROPERTY = Ids.PLUGIN + ".uploadWindow";
+    static final int DEFAULT_WINDOW = 4;
+
     private HttpRequestBase request;
     private HttpClient proxyClient;
     private String remoteHost;
@@ -67,6 +89,33 @@ public class ProxyRestFileSender {
     private CompletionHandler<RestFileTransferInformation> progressCompletion;
     private RestFrameworkCompletionHandler finalCompletion;
 
+    private int window;
+    private String contentType;
+    private FileChannel channel;
+    private int chunkSize;
+    private int chunkCount;
+    private boolean unknownSizeRange;
+    /**
+     * Indexes of the chunks to send before the last chunk, those not acknowledged by a previous attempt.
+     */
+    private int[] pendingChunks;
+    /**
+     * Position in {@link #pendingChunks} of the next chunk to be sent by a worker.
+     */
+    private AtomicInteger nextChunk = new AtomicInteger();
+    /**
+     * Acknowledged chunks. Guarded by this sender.
+     */
+    private boolean[] acked;
+    private int ackedCount;
+    private int ackedPrefix;
+    private AtomicBoolean done = new AtomicBoolean(false);
+    private UploadProgress progress;
+    /**
+     * True while chunks acknowledged by a previous attempt are skipped.
+     */
+    private boolean resumed;
+
     ProxyRestFileSender(String localFilePath, HttpRequest request, HttpClient proxyClient,
             String remoteHost, String proxyHost, int proxyPort,
             RestFrameworkCompletionHandler finalCompletion,
@@ -78,6 +127,7 @@ public class ProxyRestFileSender {
         this.proxyPort = proxyPort;
         this.finalCompletion = finalCompletion;
         this.progressCompletion = progressCompletion;
+        this.window = Math.max(1, Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW));
         
         state.localFilePath = localFilePath;
         state.targetReference = new RestReference(this.request.getURI());
@@ -85,24 +135,34 @@ public class ProxyRestFileSender {
     }
 
     /**
-     * Schedule a {@link FileChunkTransferJob} to send the request to remote server.<br>
-     * The request body is set with data from local file chunk.<br>
-     * While there are still remaining bytes to send from the local file,<br>
-     * it would keep scheduling jobs to send the rest of remaining bytes. 
+     * Initialize the sender state and split the local file to chunks.<br>
+     * Schedule up to window {@link FileChunkTransferJob}s, each keeps sending chunks
+     * while there are chunks left to send.<br>
+     * If the file fits in a single chunk, schedule one job that sends it.
      */
     void start() {
         if (this.startCount.incrementAndGet() > 1) {
             throw new IllegalStateException("Already started");
         }
-        logger.trace("Schedule File Chunk Transfer");
-        Job job = new FileChunkTransferJob(this);
-        job.schedule();
+        if (!initialize()) {
+            return;
+        }
+        scheduleWorkers();
+    }
+
+    private void scheduleWorkers() {
+        int workers = Math.max(1, Math.min(window, pendingChunks.length));
+        logger.trace("Schedule " + workers + " File Chunk Transfer jobs for " + chunkCount + " chunks");
+        for (int i = 0; i < workers; i++) {
+            Job job = new FileChunkTransferJob(this);
+            job.schedule();
+        }
     }
 
     /**
-     * A {@link Job} that clones the sender request.<br>
-     * Set its body with data from the local file.<br>
-     * Sends the request and processes the response.
+     * A {@link Job} that keeps taking the next chunk of the sender,
+     * sends it and processes the response.<br>
+     * The job that acknowledges the last pending chunk also sends the final chunk.
      */
     private static class FileChunkTransferJob extends Job {
         private ProxyRestFileSender sender;
@@ -115,7 +175,8 @@ public class ProxyRestFileSender {
         @Override
         protected IStatus run(IProgressMonitor monitor) {
             try {
-                sender.transferFileChunk();
+                ByteBuffer buffer = ByteBuffer.allocate(sender.chunkSize);
+                sender.transferFileChunks(buffer);
                 return Status.OK_STATUS;
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -125,305 +186,393 @@ public class ProxyRestFileSender {
         }
         
     }
-    
+
+    /**
+     * Send the pending chunks until no chunk is left or an error occurred.<br>
+     * When all the chunks but the last were acknowledged, send the last chunk
+     * and call the final completion.
+     */
+    private void transferFileChunks(ByteBuffer buffer) {
+        if (pendingChunks.length == 0) {
+            transferLastChunk(buffer);
+            return;
+        }
+        while (state.error == null) {
+            int next = nextChunk.getAndIncrement();
+            if (next >= pendingChunks.length) {
+                return;
+            }
+            int index = pendingChunks[next];
+            if (transferFileChunk(index, buffer) == null) {
+                return;
+            }
+            if (acknowledge(index)) {
+                transferLastChunk(buffer);
+                return;
+            }
+        }
+    }
+
+    private void transferLastChunk(ByteBuffer buffer) {
+        int lastChunk = chunkCount - 1;
+        String responseBody = transferFileChunk(lastChunk, buffer);
+        if (responseBody == null) {
+            return;
+        }
+        long remaining = getRemainingByteCount(responseBody);
+        if (remaining > 0) {
+            if (resumed) {
+                restartFromZero(remaining);
+            } else {
+                fail(new IOException("The Big-IP is missing " + remaining + " bytes of " + state.localFilePath));
+            }
+            return;
+        }
+        if (done.compareAndSet(false, true)) {
+            state.remainingByteCount -= getChunkSize(lastChunk);
+            closeFile();
+            if (progress != null) {
+                progress.delete();
+            }
+            if (this.finalCompletion != null) {
+                this.finalCompletion.completed(this.state);
+            } else if (this.progressCompletion != null) {
+                this.progressCompletion.completed(this.state);
+            }
+        }
+    }
+
+    /**
+     * Return the remainingByteCount the Big-IP reported in the chunk response,
+     * or 0 if the response does not report it.
+     */
+    static long getRemainingByteCount(String responseBody) {
+        try {
+            JsonElement root = new JsonParser().parse(responseBody);
+            if (root.isJsonObject()) {
+                JsonElement remaining = root.getAsJsonObject().get("remainingByteCount");
+                if (remaining != null && remaining.isJsonPrimitive()) {
+                    return remaining.getAsLong();
+                }
+            }
+        } catch (RuntimeException ex) {
+            logger.trace("No remainingByteCount in the chunk response: " + ex.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * The Big-IP did not receive the chunks acknowledged by a previous attempt,
+     * e.g. restjavad restarted and dropped the partial upload, so the last chunk did not finalize the file.<br>
+     * Drop the {@link UploadProgress} and send all the chunks again, this time without skipping any.<br>
+     * Called by the only worker left, the one that sent the last chunk.
+     */
+    private void restartFromZero(long remaining) {
+        logger.info("The Big-IP is missing " + remaining + " bytes of the resumed upload of " + state.localFilePath +
+            ", upload it again from the start");
+        resumed = false;
+        if (progress != null) {
+            progress.reset();
+        }
+        int lastChunk = chunkCount - 1;
+        synchronized (this) {
+            Arrays.fill(acked, false);
+            ackedCount = 0;
+            ackedPrefix = 0;
+            state.remainingByteCount = state.totalByteCount;
+            state.usedChunks.clear();
+        }
+        int[] pending = new int[lastChunk];
+        for (int index = 0; index < lastChunk; index++) {
+            pending[index] = index;
+        }
+        pendingChunks = pending;
+        nextChunk.set(0);
+        scheduleWorkers();
+    }
+
+    /**
+     * Mark the chunk as acknowledged and invoke the progress completion
+     * when the acknowledged prefix of the file grows.
+     * @return true if all the chunks except the last one are acknowledged
+     */
+    private boolean acknowledge(int index) {
+        boolean progressed = false;
+        boolean allAcked;
+        synchronized (this) {
+            acked[index] = true;
+            ackedCount++;
+            state.remainingByteCount -= getChunkSize(index);
+            while (ackedPrefix < acked.length && acked[ackedPrefix]) {
+                ackedPrefix++;
+                progressed = true;
+            }
+            allAcked = ackedCount == chunkCount - 1;
+        }
+        if (progress != null) {
+            progress.acknowledge((long) index * chunkSize, getChunkSize(index));
+        }
+        if (progressed) {
+            invokeProgressCompletion();
+        }
+        return allAcked;
+    }
+
     /**
-     * 1. Check and initialize this sender status.<br>
+     * 1. Check this sender status.<br>
      * If error occurred then return and do not send chunk.<br>
      * 2. Clone Request<br>
-     * 3. Read bytes from local file and set them on the clonedRequest body<br>
+     * 3. Read the chunk bytes from local file into the buffer and set them on the clonedRequest body<br>
      * 4. Send Request<br>
-     * 5. Get Response<br>
-     * 6. Process Response<br>
-     * 7. If the sender state remainingByteCount is bigger than 0
-     * then schedule another transferFileChunk Job.
+     * 5. Get and check the Response
+     * @return the response body if the chunk was acknowledged by the Big-IP, otherwise null
      */
-    private void transferFileChunk() {
-        logger.trace("Transfer File Chunk");
+    private String transferFileChunk(int index, ByteBuffer buffer) {
+        logger.trace("Transfer File Chunk " + index + " of " + state.localFilePath);
         if (!checkStatus()) {
-            return;
+            return null;
         }
 
-        // Clone Request
         HttpRequestBase clonedRequest = cloneRequest();
         if (clonedRequest == null) {
-            return;
+            fail(new CloneNotSupportedException("Failed to clone " + request));
+            return null;
         }
-                
-        // Read bytes from local file and set them on the clonedRequest body
-        final boolean isComplete;
+
+        long pos = (long) index * chunkSize;
+        int size = getChunkSize(index);
         try {
-            isComplete = readFileChunk(state, clonedRequest);
+            readFileChunk(clonedRequest, buffer, pos, size);
         } catch (Exception e) {
             fail(e);
-            return;
+            return null;
         }
         
         // Send Request, Get Response
+        String responseBody;
         try {
             HttpResponse response = ProxyUtil.executeRequest(proxyClient, clonedRequest, remoteHost, proxyHost, proxyPort);
-            String responseBody = ProxyUtil.getResponse(response);
+            int statusCode = response.getStatusLine().getStatusCode();
+            responseBody = ProxyUtil.getResponse(response);
             logger.debug(clonedRequest + " Response:\n" + responseBody);
-            // Process Response
-            if (responseBody != null) {
-                if (isComplete) {
-                    state.localFile.close();
-                    if (this.finalCompletion != null) {
-                        this.finalCompletion.completed(this.state);
-                    } else if (this.progressCompletion != null) {
-                        this.progressCompletion.completed(this.state);
-                    }
-                } else {
-                    // resume file transfer
-                    logger.debug("Schedule File Chunk Transfer");
-                    Job job = new FileChunkTransferJob(this);
-                    job.schedule();
-                }
+            if (statusCode != RestOperation.STATUS_OK) {
+                throw new ProtocolException("Error " + statusCode + ": " + response.getStatusLine().getReasonPhrase());
+            }
+            if (responseBody == null) {
+                throw new IOException("No response to chunk " + index + " of " + state.localFilePath);
             }
         } catch (IOException ex) {
             fail(ex);
+            return null;
         }
+        return responseBody;
+    }
+
+    private int getChunkSize(int index) {
+        long pos = (long) index * chunkSize;
+        return (int) Math.min(chunkSize, state.totalByteCount - pos);
     }
 
     /**
-     * Check the {@link RestFileTransferInformation} state of this {@link ProxyRestFileSender}.<br>
-     * Validate that it has no error and that its local file exists.<br>
-     * If its the first chunk, then initialize the state. Otherwise call the progress completion.<br>
-     * return true if state and initialization process had no errors. False Otherwise
+     * Initialize the {@link RestFileTransferInformation} state of this {@link ProxyRestFileSender}<br>
+     * and compute the chunks layout from the request Content-Range.<br>
+     * return true if initialization had no errors. False Otherwise
      */
-    private boolean checkStatus() {
+    private boolean initialize() {
+        File file = new File(state.localFilePath);
+        try {
+            checkFileExists(state, file);
+            doInitialize(state, file);
+        } catch (Exception e) {
+            fail(e);
+            return false;
+        }
+        Header contentRangeHeader = request.getFirstHeader("Content-Range");
+        String contentRange = contentRangeHeader == null ? null : contentRangeHeader.getValue();
+        long chunkByteCount = contentRange == null ? RestFileSender.MAX_CHUNK_SIZE_BYTES :
+            RestHelper.parseContentRangeHeaderChunkByteCount(contentRange);
+        // Size requested is probably more than rest javad can handle with the constraint on the memory.
+        // Enforce requests from user to use smaller chunks
+        if (chunkByteCount > RestFileSender.MAX_CHUNK_SIZE_BYTES) {
+            String message = String.format(ERROR_INVALID_REQUEST_SIZE_FMT, chunkByteCount, RestFileSender.MAX_CHUNK_SIZE_BYTES);
+            fail(new IllegalArgumentException(message));
+            return false;
+        }
+        contentType = getContentTypeValue(state.localFilePath);
+        channel = state.localFile.getChannel();
+        unknownSizeRange = contentRange != null && RestHelper.isContentRangeHeaderWithUnknownSize(contentRange);
+        chunkSize = (int) chunkByteCount;
+        chunkCount = (int) Math.max(1, (state.totalByteCount + chunkSize - 1) / chunkSize);
+        acked = new boolean[chunkCount];
+        resume(file);
+        return true;
+    }
+
+    /**
+     * Open the persisted {@link UploadProgress} of a multi chunk upload,
+     * mark the chunks it had acknowledged and list the other chunks as pending.<br>
+     * A single chunk upload is not resumed, but still clears the progress recorded for its target,
+     * since it overwrites whatever a previous upload left there.
+     */
+    private void resume(File file) {
+        int lastChunk = chunkCount - 1;
+        String target = request.getURI().toString();
+        if (lastChunk > 0) {
+            progress = UploadProgress.open(target, file, chunkSize);
+        } else {
+            UploadProgress.clear(target);
+        }
+        int[] pending = new int[Math.max(0, lastChunk)];
+        int pendingCount = 0;
+        for (int index = 0; index < lastChunk; index++) {
+            long pos = (long) index * chunkSize;
+            int size = getChunkSize(index);
+            if (progress != null && progress.isAcknowledged(pos, size)) {
+                acked[index] = true;
+                ackedCount++;
+                state.remainingByteCount -= size;
+            } else {
+                pending[pendingCount++] = index;
+            }
+        }
+        while (ackedPrefix < acked.length && acked[ackedPrefix]) {
+            ackedPrefix++;
+        }
+        pendingChunks = Arrays.copyOf(pending, pendingCount);
+        resumed = ackedCount > 0;
+        if (resumed) {
+            logger.info("Resume upload of " + state.localFilePath + ": " + ackedCount + " of " + chunkCount +
+                " chunks were already acknowledged");
+        }
+    }
+    private static final String ERROR_INVALID_REQUEST_SIZE_FMT =
+        "Requested file size %s greater than maximum chunk size %s allowed";
 
+    /**
+     * Validate that the sender has no error and that its local file exists and was not modified
+     * since the upload started.<br>
+     * return true if the chunk can be sent. False Otherwise
+     */
+    private boolean checkStatus() {
         if (state.error != null) {
             return false;
         }
         try {
             File file = new File(state.localFilePath);
             checkFileExists(state, file);
-            if (state.localFile == null) {
-                doInitialize(state, file);
-            }
-            else if (file.lastModified() != state.lastModified) {
-                // File is modified, close and reopen the file
-                state.localFile.close();
-                doInitialize(state, file);
-            }
-            else{
-                // If state wasn't initialized then only a chunk of the message was sent.
-                // Invole the progress completion.
-                invokeProgressCompletion();                
+            if (file.lastModified() != state.lastModified) {
+                throw new IOException("File modified during upload: " + state.localFilePath);
             }
         } catch (Exception e) {
             fail(e);
             return false;
         }
-
         return true;
     }
 
     private HttpRequestBase cloneRequest() {
-        HttpRequestBase clonedRequest;
         try {
-            clonedRequest = (HttpRequestBase) request.clone();
+            return (HttpRequestBase) request.clone();
         } catch (CloneNotSupportedException ex) {
-            // TODO Auto-generated catch block
             ex.printStackTrace();
             return null;
         }
-        Header contentRangeHeader = request.getFirstHeader("Content-Range");
-        if (contentRangeHeader != null) {
-            String contentRange = contentRangeHeader.getValue();
-            buildContentRangeHeaderForNextChunk(state, clonedRequest, contentRange);
-        }
-        return clonedRequest;
     }
 
     /**
-     * Read bytes from local file and set them on the {@link HttpRequest} body as Entity:<br>
-     * Produce a chunk info according to the sender state,<br>
-     * create a bytes buffer with data from the local file according to the chunk info<br>
-     * and set the request Content-Range and Content-Type headers and its body with the file buffer info.
+     * Read the chunk bytes from local file into the buffer and set them on the {@link HttpRequest} body as Entity.<br>
+     * Set the request Content-Range and Content-Type headers.
      * Original code: {@link RestFileSender #transferFileChunk} 
      */
-    private static boolean readFileChunk(RestFileTransferInformation state, HttpRequest request) throws Exception {
-        
-        String contentRange = request.getFirstHeader("Content-Range").getValue();
-        ChunkInfo chunkInfo = getChunkInfo(state, contentRange);
-        // Size requested is probably more than rest javad can handle with the constraint on the memory.
-        // Enforce requests from user to use smaller chunks
-        if (chunkInfo.size > RestFileSender.MAX_CHUNK_SIZE_BYTES) {
-            String message = String.format(ERROR_INVALID_REQUEST_SIZE_FMT, chunkInfo.size, RestFileSender.MAX_CHUNK_SIZE_BYTES);
-            throw new IllegalArgumentException(message);
-        }
-        state.localFile.seek(chunkInfo.pos);
-        byte[] buffer = new byte[chunkInfo.size];
-        readBytes(state, chunkInfo.size, buffer);
-        boolean isComplete = checkIfComplete(state, contentRange, chunkInfo.pos, chunkInfo.size, chunkInfo.rangeForChunkOffset);
-        // First implementation does no overlapping. Next version will use batching and overlap
-        // N chunks at the same time for increased throughput
-        contentRange = RestHelper.buildContentRangeHeaderValue(chunkInfo.pos, chunkInfo.size, state.totalByteCount);
-        request.setHeader("Content-Range", contentRange);
-        String contentTypeValue = getContentTypeValue(state.localFilePath);
-        request.setHeader("Content-Type", contentTypeValue);
-        setBody(request, buffer, contentTypeValue);
-        return isComplete;
-    }
-    private static final String ERROR_INVALID_REQUEST_SIZE_FMT =
-        "Requested file size %s greater than maximum chunk size %s allowed";
-
-    /**
-     * Produce a chunk info according to the request content range and this sender state.<br>
-     * The chunk info holds the position, size and range of the next File chunk transfer
-     */
-    private static ChunkInfo getChunkInfo(RestFileTransferInformation state, String contentRange) {
-        ChunkInfo chunkInfo = new ChunkInfo();
-        if (contentRange == null) {
-            // If Content-Range is not provided in the request,
-            // attempt to return first chunk not greater than MAX_CHUNK_SIZE_BYTES.
-            // If actual file size is less, then the whole file will be returned in response.
-            chunkInfo.pos = 0;
-            chunkInfo.size = state.totalByteCount <= RestFileSender.MAX_CHUNK_SIZE_BYTES ?
-                (int) state.totalByteCount : RestFileSender.MAX_CHUNK_SIZE_BYTES;
-        } else {
-            // specific chunk is being requested through content-range header
-            chunkInfo.pos = RestHelper.parseContentRangeHeaderStartValue(contentRange);
-            long chunkByteCount = RestHelper.parseContentRangeHeaderChunkByteCount(contentRange);
-            chunkInfo.rangeForChunkOffset = state.usedChunks.get(chunkInfo.pos);
-            chunkInfo.size = chunkInfo.rangeForChunkOffset == null ?
-                // If its a new chunk requested, Client would have computed chunk size and requested.
-                // remainingByteCount should be used only to decide when to close file handle
-                (int) Math.min(chunkByteCount, state.totalByteCount) :
-                // Otherwise, duplicate chunk is being requested. Adjust the size based on what is sent last time.
-                chunkInfo.rangeForChunkOffset.intValue();
-        }
-        return chunkInfo;
-    }
-    
-    private static class ChunkInfo {
-        long pos;
-        int size;
-        Long rangeForChunkOffset = null;
-    }
-
-    /**
-     * Return True if the sender state remainingByteCount is 0. False otherwise
-     */
-    private static boolean checkIfComplete(RestFileTransferInformation state,
-            String contentRange, long pos, int size, Long rangeForChunkOffset) {
-        if (contentRange == null) {
-            return true;
-        }
-        if (rangeForChunkOffset != null) {
-            return false;
-        }
-        // its a new chunk requested, cache the information
+    private void readFileChunk(HttpRequest request, ByteBuffer buffer, long pos, int size) throws IOException {
+        readBytes(pos, size, buffer);
         state.usedChunks.put(pos, (long) size);
-        // decrement remaining count only when this is used to the send file chunks using postTemplate
-        state.remainingByteCount -= size;
-        boolean isComplete = state.remainingByteCount == 0;
-        return isComplete;
+        String contentRange = unknownSizeRange ?
+            RestHelper.buildContentRangeHeaderValueWithUnknownSize(pos, size) :
+            RestHelper.buildContentRangeHeaderValue(pos, size, state.totalByteCount);
+        request.setHeader("Content-Range", contentRange);
+        request.setHeader("Content-Type", contentType);
+        // The bytes are sent as they are in the file, text content included
+        HttpEntity entity = new ByteArrayEntity(buffer.array(), 0, size);
+        ((HttpEntityEnclosingRequest) request).setEntity(entity);
     }
 
     /**
-     * Read bytes from local file to buffer.
+     * Read size bytes at the file position to the start of the buffer.<br>
+     * Positional reads do not move the channel position so workers may read concurrently.
      */
-    private static void readBytes(RestFileTransferInformation state, int size, byte[] buffer) throws IOException {
-        int bytesRead = 0;
-        while (bytesRead < size) {
-            int readCount;
-            readCount = state.localFile.read(buffer, bytesRead, size - bytesRead);
+    private void readBytes(long pos, int size, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.limit(size);
+        while (buffer.hasRemaining()) {
+            int readCount = channel.read(buffer, pos + buffer.position());
             if (readCount == -1) {
                 throw new EOFException("Attempt to read past end of file:" + state.localFilePath);// we should never try to read past the end of file
             }
-            bytesRead += readCount;
         }
     }
 
-
     /**
-     * Set the buffer as the body entity of the request
+     * Get the content type of the file from its extension.
      */
-    private static void setBody(HttpRequest request, byte[] buffer, String contentTypeValue) {
-        if (RestHelper.contentTypeUsesBinaryBody(contentTypeValue)) {
-            // Set Binary Body
-            HttpEntity entity = new ByteArrayEntity(buffer);
-            ((HttpEntityEnclosingRequest) request).setEntity(entity);
-            return;
-        }
-        try {
-            HttpEntity entity = new StringEntity(new String(buffer, "UTF8"));
-            ((HttpEntityEnclosingRequest) request).setEntity(entity);
-        } catch (UnsupportedEncodingException e) {
-            // we cannot convert non-unicode byte array into unicode, falling back to default charset and log a warning
-            try {
-                HttpEntity entity = new StringEntity(new String(buffer));
-                ((HttpEntityEnclosingRequest) request).setEntity(entity);
-            } catch (UnsupportedEncodingException e1) {
-                e1.printStackTrace();
-            }
-        }
-    }
-
-    private static String getContentTypeValue(String filePath) {
-        String contentTypeValue;
-        if (jsFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_APPLICATION_JAVASCRIPT;
-        } else if (htmlFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_TEXT_HTML;
-        } else if (cssFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_TEXT_CSS;
-        } else if (bmpFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_BMP;
-        } else if (gifFilePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_GIF;
-        } else if (jpegFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_JPEG;
-        } else if (pngFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_PNG;
-        } else if (svgFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_SVG;
-        } else if (tiffFileNamePattern.matcher(filePath).matches()) {
-            contentTypeValue = RestOperation.MIME_TYPE_IMAGE_TIFF;
-        } else {
-            contentTypeValue = RestOperation.MIME_TYPE_APPLICATION_OCTET_STREAM;
+    static String getContentTypeValue(String filePath) {
+        int dot = filePath.lastIndexOf('.');
+        int separator = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
+        if (dot <= separator) {
+            return RestOperation.MIME_TYPE_APPLICATION_OCTET_STREAM;
         }
-        return contentTypeValue;
+        String extension = filePath.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+        String contentTypeValue = contentTypes.get(extension);
+        return contentTypeValue == null ? RestOperation.MIME_TYPE_APPLICATION_OCTET_STREAM : contentTypeValue;
     }
-    private static final Pattern jsFileNamePattern = Pattern.compile(".*\\.js", Pattern.CASE_INSENSITIVE);
-    private static final Pattern htmlFileNamePattern = Pattern.compile(".*\\.html?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern cssFileNamePattern = Pattern.compile(".*\\.css", Pattern.CASE_INSENSITIVE);
-    private static final Pattern bmpFileNamePattern = Pattern.compile(".*\\.bmp", Pattern.CASE_INSENSITIVE);
-    private static final Pattern gifFilePattern = Pattern.compile(".*\\.gif", Pattern.CASE_INSENSITIVE);
-    private static final Pattern jpegFileNamePattern = Pattern.compile(".*\\.jpe?g?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern pngFileNamePattern = Pattern.compile(".*\\.png", Pattern.CASE_INSENSITIVE);
-    private static final Pattern svgFileNamePattern = Pattern.compile(".*\\.svg", Pattern.CASE_INSENSITIVE);
-    private static final Pattern tiffFileNamePattern = Pattern.compile(".*\\.tiff?", Pattern.CASE_INSENSITIVE);
-
-    
-    private static void buildContentRangeHeaderForNextChunk(RestFileTransferInformation state,
-            HttpRequest op, String contentRange) {
-        long chunkByteCount = RestHelper.parseContentRangeHeaderChunkByteCount(contentRange); 
-        int size = (int) Math.min(chunkByteCount, state.remainingByteCount);
-        long pos = state.totalByteCount - state.remainingByteCount;
-        contentRange = RestHelper.isContentRangeHeaderWithUnknownSize(contentRange) ?
-            RestHelper.buildContentRangeHeaderValueWithUnknownSize(pos, size) :
-            RestHelper.buildContentRangeHeaderValue(pos, size, state.totalByteCount);
-        op.setHeader("Content-Range", contentRange);
+    private static final Map<String, String> contentTypes = new HashMap<String, String>();
+    static {
+        contentTypes.put("js", RestOperation.MIME_TYPE_APPLICATION_JAVASCRIPT);
+        contentTypes.put("htm", RestOperation.MIME_TYPE_TEXT_HTML);
+        contentTypes.put("html", RestOperation.MIME_TYPE_TEXT_HTML);
+        contentTypes.put("css", RestOperation.MIME_TYPE_TEXT_CSS);
+        contentTypes.put("bmp", RestOperation.MIME_TYPE_IMAGE_BMP);
+        contentTypes.put("gif", RestOperation.MIME_TYPE_IMAGE_GIF);
+        contentTypes.put("jp", RestOperation.MIME_TYPE_IMAGE_JPEG);
+        contentTypes.put("jpe", RestOperation.MIME_TYPE_IMAGE_JPEG);
+        contentTypes.put("jpg", RestOperation.MIME_TYPE_IMAGE_JPEG);
+        contentTypes.put("jpeg", RestOperation.MIME_TYPE_IMAGE_JPEG);
+        contentTypes.put("png", RestOperation.MIME_TYPE_IMAGE_PNG);
+        contentTypes.put("svg", RestOperation.MIME_TYPE_IMAGE_SVG);
+        contentTypes.put("tif", RestOperation.MIME_TYPE_IMAGE_TIFF);
+        contentTypes.put("tiff", RestOperation.MIME_TYPE_IMAGE_TIFF);
     }
 
     private static void checkFileExists(RestFileTransferInformation state, File file) throws IOException, FileNotFoundException {
         boolean fileNotExist = !file.exists() || !file.isFile();
         if (fileNotExist) {
-            if (state.localFile != null) {
-                // File no longer exists, so close the file handle
-                state.localFile.close();
-                state.localFile = null;                
-            }
             throw new FileNotFoundException(
                 "File does not exist or file path is not a file: " + state.localFilePath);
         }
     }
 
+    private void closeFile() {
+        synchronized (state) {
+            if (state.localFile != null) {
+                try {
+                    state.localFile.close();
+                } catch (IOException ex) {
+                    logger.warn("Failed to close " + state.localFilePath, ex);
+                }
+                state.localFile = null;
+            }
+        }
+    }
+
+    /**
+     * Fail the transfer once. Chunks still in flight are ignored.
+     */
     private void fail(Exception error) {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
         state.error = error;
+        closeFile();
         if ((error instanceof CancellationException)) {
             logger.info("Cancelled, file:" + state.localFilePath);
         } else {
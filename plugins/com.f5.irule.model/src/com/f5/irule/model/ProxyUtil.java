@@ -17,17 +17,22 @@ package com.f5.irule.model;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.ProtocolException;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.xml.bind.DatatypeConverter;
 
+import org.apache.http.Consts;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
@@ -54,8 +59,10 @@ import org.apache.http.conn.scheme.SocketFactory;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
@@ -66,50 +73,88 @@ import com.f5.irule.model.RestFramework.ProgressCompletionHandler;
 import com.f5.rest.common.CompletionHandler;
 import com.f5.rest.common.RestFileTransferInformation;
 import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
 
+/**
+ * Sends REST requests and uploads with the pooled Apache {@link HttpClient} of the connection,
+ * kept by the {@link HttpClientCache}.<br>
+ * Requests of a connection that uses a proxy are tunneled through it,
+ * other requests go directly to the Big-IP.
+ */
 @SuppressWarnings({ "restriction", "deprecation" })
 public class ProxyUtil {
 
     private static Logger logger = Logger.getLogger(ProxyUtil.class);
 
+    /**
+     * System properties that override the scheme and port of the Big-IP,
+     * so the plugin can be pointed at a local stand-in server (such as "http" and "8100").
+     */
+    static final String TARGET_SCHEME_PROPERTY = Ids.PLUGIN + ".targetScheme";
+    static final String TARGET_PORT_PROPERTY = Ids.PLUGIN + ".targetPort";
+    private static final String TARGET_SCHEME = System.getProperty(TARGET_SCHEME_PROPERTY, "https");
+    private static final int TARGET_PORT = Integer.getInteger(TARGET_PORT_PROPERTY, 443);
+
     /**
      * Create an {@link HttpRequest} corresponding to the {@link RestMethod} argument.<br>
-     * Set the request {@link RequestConfig} Proxy with the proxy address.<br>
-     * Create a Proxy {@link HttpClient}, use it to open an SSL https tunnel<br>
+     * If the connection uses a proxy, set the request {@link RequestConfig} Proxy with the proxy address.<br>
+     * Get the pooled {@link HttpClient} of the connection, use it to open an SSL https connection (or tunnel)<br>
      * and execute the request to the remote host.<br>
      * Read the response body of the received {@link HttpResponse} and<br>
      * execute the {@link RequestCompletion #completed(String, String, JsonObject)} method.<br>
      * In case of an error call the {@link RequestCompletion #failed(Exception, String, String, String)} method instead.<br>
-     * Close the proxy client when finish
+     * The client is kept open by the {@link HttpClientCache} so following requests reuse its connections.
      */
     public static void sendRequest(Connection conn, RestMethod method, String uri, String jsonBody, RequestCompletion completion) {
 
-        HttpRequestBase request = (HttpRequestBase) createRequestSafe(method, uri, conn, "application/json", null, jsonBody);
-        if (request == null) {
+        HttpRequestBase request;
+        try {
+            request = (HttpRequestBase) createConnectionRequest(method, uri, conn, "application/json", null, jsonBody);
+        } catch (UnsupportedEncodingException ex) {
+            // The caller holds a limiter permit and a job count that only the completion gives back
+            logger.warn("Failed to create " + method + " " + uri, ex);
+            completion.failed(ex, method.name(), uri, null);
             return;
         }
+        String coordinationId = completion.getCoordinationId();
+        if (coordinationId != null) {
+            request.addHeader(RestTransaction.COORDINATION_ID_HEADER, coordinationId);
+        }
         HttpResponse response = null;
-        HttpClient proxyclient = null;
         Exception sendException = null;
         try {
-            String proxyHost = conn.getProxyIp();
-            int proxyPort = conn.getProxyPort();
-            String proxyUser = conn.getProxyUser();
-            String proxyPassword = conn.getProxyPassword();
-            proxyclient = createProxyClient(proxyHost, proxyPort, proxyUser, proxyPassword);
-            response = executeRequest(proxyclient, request, conn.getAddress(), proxyHost, proxyPort);
+            HttpClient client = HttpClientCache.getInstance().getClient(conn);
+            response = executeRequest(client, request, conn.getAddress(), getProxyHost(conn), conn.getProxyPort());
         } catch (Exception ex) {
             logger.warn("Failed " + method + " uri", ex);
             sendException = ex;
         }
-        doCompletion(response, completion, method.name(), uri, sendException);
-        if (proxyclient != null && proxyclient instanceof Closeable) {
+        try {
+            doCompletion(conn, response, completion, method.name(), uri, sendException);
+        } finally {
+            releaseResponse(response);
+        }
+    }
+
+    /**
+     * Consume whatever is left of the response entity and close the response<br>
+     * so its connection goes back to the pool of the proxy client.
+     */
+    static void releaseResponse(HttpResponse response) {
+        if (response == null) {
+            return;
+        }
+        EntityUtils.consumeQuietly(response.getEntity());
+        if (response instanceof Closeable) {
             try {
-                ((Closeable) proxyclient).close();
+                ((Closeable) response).close();
             } catch (IOException ex) {
-                logger.warn("Failed to close " + proxyclient, ex);
+                logger.warn("Failed to close " + response, ex);
             }
         }
     }
@@ -118,7 +163,11 @@ public class ProxyUtil {
      * Check the response has no errors and call the {@link RequestCompletion #completed(String, String, JsonObject)} method.<br>
      * In case of an error call the {@link RequestCompletion #failed(Exception, String, String, String)} method instead.
      */
-    private static void doCompletion(HttpResponse response, RequestCompletion completion, String methodName, String uri, Exception sendException) {
+    private static void doCompletion(Connection conn, HttpResponse response, RequestCompletion completion,
+            String methodName, String uri, Exception sendException) {
+        if (response != null && response.getStatusLine().getStatusCode() == UNAUTHORIZED_CODE) {
+            conn.authenticationFailed();
+        }
         if (completion == null) {
             return;
         }
@@ -136,16 +185,27 @@ public class ProxyUtil {
         if (statusCode != SUCCESS_CODE) {
             // Failure http response
             String reasonPhrase = statusLine.getReasonPhrase();
-            Exception ex = new ProtocolException("Error " + statusCode + ": " + reasonPhrase);
-            completion.failed(ex, methodName, uri, null);
+            String errorBody = getResponse(response);
+            String message = createErrorMessage(statusCode, reasonPhrase, errorBody);
+            Exception ex = new RestStatusException(statusCode, message);
+            completion.failed(ex, methodName, uri, errorBody);
+            return;
+        }
+
+        if (completion.isStreaming() && isJsonEntity(response.getEntity())) {
+            recordBytesIn(conn, uri, response.getEntity().getContentLength());
+            doStreamingCompletion(response.getEntity(), completion, methodName, uri);
             return;
         }
 
+        long contentLength = response.getEntity() == null ? -1 : response.getEntity().getContentLength();
         String responseBody = getResponse(response);
         if (responseBody == null) {
             completion.failed(null, methodName, uri, null);
             return;
         }
+        // The length of a compressed or chunked response is not declared, count its decoded bytes instead
+        recordBytesIn(conn, uri, contentLength >= 0 ? contentLength : RequestMetrics.utf8Length(responseBody));
         logger.trace(methodName + " " + uri + " Response:\n" + responseBody);
         try {
             RestRequestCompletionBridge.doCompleted(completion, methodName, uri, responseBody);
@@ -160,6 +220,68 @@ public class ProxyUtil {
     }
     private static final int SUCCESS_CODE = 200;
 
+    /**
+     * Create the message of a failure http response.<br>
+     * A json error body of the Big-IP is kept in the message as its "body" element,
+     * the form of the f5.rest.jar failure messages, so the error details can still be parsed from the message.
+     */
+    static String createErrorMessage(int statusCode, String reasonPhrase, String errorBody) {
+        String message = "Error " + statusCode + ": " + reasonPhrase;
+        if (errorBody == null || errorBody.isEmpty()) {
+            return message;
+        }
+        try {
+            JsonElement body = new JsonParser().parse(errorBody);
+            if (body.isJsonObject()) {
+                return "\"message\":" + new JsonPrimitive(message) + ",\"body\":" + body;
+            }
+        } catch (JsonParseException ex) {
+            // Not json, e.g. an html error page of the proxy
+        }
+        return message + "\n" + errorBody;
+    }
+
+    /**
+     * Count the response bytes in the {@link RequestMetrics} of the connection.<br>
+     * The length of a chunked streaming response is unknown (negative) and is not counted.
+     */
+    private static void recordBytesIn(Connection conn, String uri, long length) {
+        if (conn instanceof BigIPConnection) {
+            ((BigIPConnection) conn).getRequestMetrics().recordBytesIn(uri, length);
+        }
+    }
+
+    /**
+     * Return true if the entity is not declared as html.<br>
+     * An html response is an error page of the proxy and is handled as text.
+     */
+    private static boolean isJsonEntity(HttpEntity entity) {
+        if (entity == null) {
+            return false;
+        }
+        ContentType contentType = ContentType.get(entity);
+        return contentType == null || !ContentType.TEXT_HTML.getMimeType().equals(contentType.getMimeType());
+    }
+
+    /**
+     * Let the streaming {@link RequestCompletion} decode the entity content while it is read from the connection,
+     * without reading it to a String first.
+     */
+    private static void doStreamingCompletion(HttpEntity entity, RequestCompletion completion,
+            String methodName, String uri) {
+        Reader reader;
+        try {
+            ContentType contentType = ContentType.getOrDefault(entity);
+            Charset charset = contentType.getCharset() == null ? Consts.UTF_8 : contentType.getCharset();
+            reader = new InputStreamReader(entity.getContent(), charset);
+        } catch (Exception ex) {
+            completion.failed(ex, methodName, uri, null);
+            return;
+        }
+        RestRequestCompletionBridge.doStreamingCompleted(completion, methodName, uri, reader);
+    }
+    private static final int UNAUTHORIZED_CODE = 401;
+
     /**
      * Check the response in order to identify the type of error<br>
      * and call the {@link RequestCompletion #failed(Exception, String, String, String)} method. 
@@ -177,23 +299,25 @@ public class ProxyUtil {
     /**
      * Upload a local file to the Big-IP<br>
      * 1. Create a POST {@link HttpRequest} with 1024 * 1024 content-range.<br>
-     * 2. Create a Proxy {@link HttpClient} to be used to open an SSL https tunnel to remote server.<br>
+     * 2. Get the pooled {@link HttpClient} used to open an SSL https connection (or tunnel) to remote server.<br>
      * 3. Use the {@link ProxyRestFileSender} to upload the local file to the Big-ip.
      */
     public static void uploadResource(Connection conn, String uri, String localFilePath,
             RestFrameworkCompletionHandler completionHandler) throws GeneralSecurityException {
         logger.debug("Upload " + localFilePath + " to " + uri);
         String contentRange = RestFramework.getContentRange();
-        HttpRequest request = createRequestSafe(RestMethod.POST, uri, conn, "application/octet-stream", contentRange, null);
-        if (request == null) {
+        HttpRequest request;
+        try {
+            request = createConnectionRequest(RestMethod.POST, uri, conn, "application/octet-stream", contentRange, null);
+        } catch (UnsupportedEncodingException ex) {
+            logger.warn("Failed to create the upload of " + localFilePath, ex);
+            completionHandler.failed(ex, RestFramework.createRestFileTransferInformation(localFilePath, uri));
             return;
         }
         String remoteHost = conn.getAddress();
-        String proxyHost = conn.getProxyIp();
+        String proxyHost = getProxyHost(conn);
         int proxyPort = conn.getProxyPort();
-        String proxyUser = conn.getProxyUser();
-        String proxyPassword = conn.getProxyPassword();
-        HttpClient proxyClient = createProxyClient(proxyHost, proxyPort, proxyUser, proxyPassword);
+        HttpClient proxyClient = HttpClientCache.getInstance().getClient(conn);
         CompletionHandler<RestFileTransferInformation> progressCompletion = new ProgressCompletionHandler(localFilePath);
         ProxyRestFileSender sender = new ProxyRestFileSender(localFilePath, request, proxyClient,
             remoteHost, proxyHost, proxyPort, completionHandler, progressCompletion);
@@ -203,20 +327,16 @@ public class ProxyUtil {
 
     /**
      * Create an {@link HttpRequest} corresponding to the {@link RestMethod} argument.<br>
-     * Add the Authorization, Content-Range and Content-Type headers and the body if exists.<br>
-     * The Authorization header is composed of the connection user and password.
+     * Add the authentication, Content-Range and Content-Type headers and the body if exists.<br>
+     * Authenticate with the connection auth token if there is one.<br>
+     * Otherwise the Authorization header is composed of the connection user and password.
      */
-    private static HttpRequest createRequestSafe(RestMethod method, String uri, Connection conn, String contentType,
-            String contentRange, String jsonBody) {
+    private static HttpRequest createConnectionRequest(RestMethod method, String uri, Connection conn, String contentType,
+            String contentRange, String jsonBody) throws UnsupportedEncodingException {
+        String token = conn.getAuthToken(uri);
         String user = conn.getUser();
         String password = conn.getPassword();
-        HttpRequest request = null;
-        try {
-            request = createRequest(method, uri, user, password, contentType, contentRange, jsonBody);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        return request;
+        return createRequest(method, uri, token, user, password, contentType, contentRange, jsonBody);
     }
 
     /**
@@ -245,27 +365,41 @@ public class ProxyUtil {
     }
 
     /**
-     * Set the request {@link RequestConfig} Proxy with the proxy address<br>
-     * and use the proxy {@link HttpClient} to execute the request to the remote host<br>
+     * Return the proxy address of the connection, or null if it reaches the Big-IP directly.
+     */
+    private static String getProxyHost(Connection conn) {
+        return conn.isUseProxy() ? conn.getProxyIp() : null;
+    }
+
+    /**
+     * Set the request {@link RequestConfig} with the {@link HttpClientCache#REQUEST_CONFIG} timeouts
+     * and the proxy address, unless the proxy host is null<br>
+     * The target is the remote host on the {@link #TARGET_PORT_PROPERTY} port (default 443)<br>
+     * and use the {@link HttpClient} to execute the request to the remote host<br>
      * Return the {@link HttpResponse} from the remote server.
      */
-    static HttpResponse executeRequest(HttpClient proxyclient,
+    static HttpResponse executeRequest(HttpClient client,
             HttpRequestBase request, String remoteHost, String proxyHost, int proxyPort) throws IOException, ClientProtocolException {
-        HttpHost proxyAddress = new HttpHost(proxyHost, proxyPort, "http");
-        RequestConfig config = RequestConfig.custom().setProxy(proxyAddress).build();
-        request.setConfig(config);
-        HttpHost targetAddress = new HttpHost(remoteHost, 443, "https");
-        logger.debug("Sending " + request.getRequestLine() + " to " + targetAddress + " via " + proxyAddress);
-        HttpResponse response = proxyclient.execute(targetAddress, request);
+        RequestConfig.Builder config = RequestConfig.copy(HttpClientCache.REQUEST_CONFIG);
+        HttpHost proxyAddress = null;
+        if (proxyHost != null) {
+            proxyAddress = new HttpHost(proxyHost, proxyPort, "http");
+            config.setProxy(proxyAddress);
+        }
+        request.setConfig(config.build());
+        HttpHost targetAddress = new HttpHost(remoteHost, TARGET_PORT, TARGET_SCHEME);
+        logger.debug("Sending " + request.getRequestLine() + " to " + targetAddress +
+            (proxyAddress == null ? "" : " via " + proxyAddress));
+        HttpResponse response = client.execute(targetAddress, request);
         return response;
     }
 
     /**
      * Create an {@link HttpRequestBase} corresponding to the {@link RestMethod} argument.<br>
      * ( {@link HttpGet}, {@link HttpPost}, {@link HttpPatch}, {@link HttpDelete}, {@link HttpPut} or {@link HttpOptions} )<br>
-     * Add the Authorization, Content-Range and Content-Type headers and the body if exists
+     * Add the authentication, Content-Range and Content-Type headers and the body if exists
      */
-    private static HttpRequest createRequest(RestMethod method, String url,
+    private static HttpRequest createRequest(RestMethod method, String url, String token,
             String username, String password, String contentType, String contentRange, String body)
             throws UnsupportedEncodingException {
         HttpRequestBase request;
@@ -291,7 +425,11 @@ public class ProxyUtil {
         default:
             return null;
         }
-        request.addHeader("Authorization", computeAuthorization(username, password));
+        if (token != null) {
+            request.addHeader(AuthSession.AUTH_TOKEN_HEADER, token);
+        } else {
+            request.addHeader("Authorization", computeAuthorization(username, password));
+        }
         if (contentRange != null) {
             request.addHeader("Content-Range", contentRange);
         }
@@ -300,7 +438,7 @@ public class ProxyUtil {
         }
         if (body != null) {
             if (request instanceof HttpEntityEnclosingRequestBase) {
-                HttpEntity params = new StringEntity(body);
+                HttpEntity params = new StringEntity(body, Consts.UTF_8);
                 ((HttpEntityEnclosingRequestBase) request).setEntity(params);                
             }
         }
@@ -315,30 +453,49 @@ public class ProxyUtil {
     }
 
     /**
-     * Create an {@link HttpClient} to be used to open an SSL https tunnel to the remote server.<br>
+     * Create an {@link HttpClient} to be used to open an SSL https connection (or tunnel) to the remote server.<br>
      * The {@link SSLSocketFactory} that is used to create the client uses an easy trust manger<br>
      * in order to avoid security certificate checks and allow connection to any remote server.<br>
-     * If proxy user and password are supplied then set a {@link UsernamePasswordCredentials} to the client builder.
+     * The factory is shared by all the clients so their TLS sessions can be resumed.<br>
+     * Connections are kept alive and evicted from the pool once idle or expired.<br>
+     * The default interceptors of the {@link HttpClientBuilder} ask for gzip compressed responses
+     * and decompress them while the entity is read, so streaming completions decode the uncompressed content.<br>
+     * If proxy user and password are supplied then set a {@link UsernamePasswordCredentials} to the client builder.<br>
+     * The proxy host is null for a client that reaches the Big-IP directly.
      */
-    private static HttpClient createProxyClient(String proxyHost, int proxyPort, String proxyUser, String proxyPassword) throws GeneralSecurityException {
-        SSLSocketFactory sslsf = createSSLSocketFactory();
+    static CloseableHttpClient createClient(String proxyHost, int proxyPort, String proxyUser, String proxyPassword) throws GeneralSecurityException {
+        SSLSocketFactory sslsf = getSSLSocketFactory();
         RegistryBuilder<ConnectionSocketFactory> registryBuilder = RegistryBuilder.<ConnectionSocketFactory>create();
         PlainConnectionSocketFactory socketFactory = new PlainConnectionSocketFactory();
         Registry<ConnectionSocketFactory> registry = registryBuilder.register("http", socketFactory).register("https", sslsf).build();
         PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
-        cm.setMaxTotal(100);
+        cm.setMaxTotal(HttpClientCache.MAX_CONNECTIONS_TOTAL);
+        cm.setDefaultMaxPerRoute(HttpClientCache.MAX_CONNECTIONS_PER_ROUTE);
         HttpClientBuilder builder = HttpClients.custom();
-        if (proxyUser != null && proxyPassword != null) {
+        builder.setKeepAliveStrategy(new HttpClientCache.KeepAliveStrategy());
+        builder.evictExpiredConnections();
+        builder.evictIdleConnections(HttpClientCache.IDLE_TIMEOUT, TimeUnit.SECONDS);
+        builder.setDefaultRequestConfig(HttpClientCache.REQUEST_CONFIG);
+        if (proxyHost != null && proxyUser != null && proxyPassword != null) {
             CredentialsProvider credsProvider = new BasicCredentialsProvider();
             AuthScope authScope = new AuthScope(proxyHost, proxyPort);
             UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(proxyUser, proxyPassword);
             credsProvider.setCredentials(authScope, credentials);
             builder.setDefaultCredentialsProvider(credsProvider);
         }
-        HttpClient httpClient = builder.setSSLSocketFactory(sslsf).setConnectionManager(cm).build();
+        CloseableHttpClient httpClient = builder.setSSLSocketFactory(sslsf).setConnectionManager(cm).build();
         return httpClient;
     }
 
+    private static SSLSocketFactory sslSocketFactory;
+
+    private static synchronized SSLSocketFactory getSSLSocketFactory() throws GeneralSecurityException {
+        if (sslSocketFactory == null) {
+            sslSocketFactory = createSSLSocketFactory();
+        }
+        return sslSocketFactory;
+    }
+
     /**
      * Create an SSL {@link SocketFactory} that trusts any remote server
      */
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.f5.irule.model.RestRecorder.Exchange;
+import com.f5.rest.common.RestFileTransferInformation;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A {@link RestTransport} that answers the requests of all connections
+ * from a file captured by the {@link RestRecorder}, without any network access.<br>
+ * It is selected by setting the {@link #REPLAY_FILE_PROPERTY} system property to the capture file path.<br>
+ * A request is matched to the recorded exchanges with the same method, uri path and request body.
+ * Repeated requests get the recorded responses in their recorded order, and the last one keeps answering.<br>
+ * Each response is delivered after its recorded duration multiplied by the {@link #TIME_SCALE_PROPERTY}
+ * system property: 1 (the default) keeps the original timing, 0 answers right away.<br>
+ * File uploads are acknowledged right away.
+ */
+class ReplayTransport implements RestTransport {
+
+    private static Logger logger = Logger.getLogger(ReplayTransport.class);
+
+    static final String REPLAY_FILE_PROPERTY = Ids.PLUGIN + ".replayFile";
+    static final String TIME_SCALE_PROPERTY = Ids.PLUGIN + ".replayTimeScale";
+    static final double DEFAULT_TIME_SCALE = 1.0;
+
+    private static final int NOT_FOUND_STATUS = 404;
+    private static final int UNAUTHORIZED_STATUS = 401;
+    private static final int THREADS = 4;
+
+    private static boolean replayChecked = false;
+    private static ReplayTransport instance;
+
+    private final File file;
+    private final double timeScale;
+    private final Map<String, LinkedList<Exchange>> exchanges = new HashMap<String, LinkedList<Exchange>>();
+    private final ScheduledExecutorService scheduler;
+
+    ReplayTransport(File file, double timeScale) throws IOException {
+        this.file = file;
+        this.timeScale = Math.max(0, timeScale);
+        List<Exchange> recorded = RestRecorder.read(file);
+        for (Exchange exchange : recorded) {
+            String key = getKey(exchange.method, exchange.uri, exchange.body);
+            LinkedList<Exchange> list = exchanges.get(key);
+            if (list == null) {
+                list = new LinkedList<Exchange>();
+                exchanges.put(key, list);
+            }
+            list.add(exchange);
+        }
+        this.scheduler = Executors.newScheduledThreadPool(THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "REST Replay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        logger.info("Replaying " + recorded.size() + " exchanges of " + file + " with time scale " + this.timeScale);
+    }
+
+    /**
+     * Return the transport of the {@link #REPLAY_FILE_PROPERTY} file, or null if replay is not enabled.
+     */
+    static synchronized ReplayTransport getInstance() {
+        if (!replayChecked) {
+            replayChecked = true;
+            String path = System.getProperty(REPLAY_FILE_PROPERTY);
+            if (path != null) {
+                try {
+                    instance = new ReplayTransport(new File(path), getTimeScale());
+                } catch (IOException ex) {
+                    logger.warn("Failed to read the replay file " + path, ex);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static double getTimeScale() {
+        String value = System.getProperty(TIME_SCALE_PROPERTY);
+        if (value == null) {
+            return DEFAULT_TIME_SCALE;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            logger.warn("Invalid " + TIME_SCALE_PROPERTY + " " + value);
+            return DEFAULT_TIME_SCALE;
+        }
+    }
+
+    /**
+     * The matching key of a request: the method, the uri from its mgmt/ path on
+     * (so the capture can be replayed for another address) and the request body with masked passwords.
+     */
+    static String getKey(String method, String uri, String body) {
+        int index = uri.indexOf("mgmt/");
+        String path = index < 0 ? uri : uri.substring(index);
+        StringBuilder builder = new StringBuilder();
+        builder.append(method).append(" ").append(path);
+        if (body != null) {
+            builder.append("\n").append(body);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Return the next recorded exchange of the request, or null if none was recorded.
+     */
+    private synchronized Exchange next(String key) {
+        LinkedList<Exchange> list = exchanges.get(key);
+        if (list == null) {
+            return null;
+        }
+        return list.size() > 1 ? list.removeFirst() : list.getFirst();
+    }
+
+    @Override
+    public void sendRequest(final BigIPConnection conn, final RestMethod method, final String uri, String body,
+            final RequestCompletion completion) {
+        final Exchange exchange = next(getKey(method.name(), uri, RestRecorder.maskPasswords(body)));
+        if (exchange == null) {
+            logger.warn("No recorded response to " + method + " " + uri);
+        }
+        long delay = exchange == null ? 0 : (long) (exchange.duration * timeScale);
+        scheduler.schedule(new Runnable() {
+            public void run() {
+                deliver(conn, method.name(), uri, exchange, completion);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void deliver(BigIPConnection conn, String method, String uri, Exchange exchange,
+            RequestCompletion completion) {
+        if (exchange != null && exchange.status == UNAUTHORIZED_STATUS) {
+            conn.authenticationFailed();
+        }
+        if (completion == null) {
+            return;
+        }
+        if (exchange == null) {
+            completion.failed(new RestStatusException(NOT_FOUND_STATUS, "No recorded response"), method, uri, null);
+            return;
+        }
+        if (exchange.status != Exchange.SUCCESS_STATUS) {
+            completion.failed(getException(exchange), method, uri, exchange.errorBody);
+            return;
+        }
+        JsonElement response = exchange.response;
+        try {
+            if (completion.isStreaming() && !response.isJsonNull()) {
+                completion.completedStream(method, uri, new JsonReader(new StringReader(response.toString())));
+            } else {
+                completion.completed(method, uri, response.isJsonObject() ? response.getAsJsonObject() : null);
+            }
+        } catch (Exception ex) {
+            completion.failed(ex, method, uri, null);
+        }
+    }
+
+    /**
+     * Recreate the failure of a recorded exchange.
+     */
+    private static Exception getException(Exchange exchange) {
+        if (exchange.status > 0) {
+            return new RestStatusException(exchange.status, exchange.error);
+        }
+        return exchange.error == null ? null : new IOException(exchange.error);
+    }
+
+    @Override
+    public void uploadResource(BigIPConnection conn, String uri, String localFilePath,
+            final RestFrameworkCompletionHandler completionHandler) {
+        final RestFileTransferInformation info = RestFramework.createRestFileTransferInformation(localFilePath, uri);
+        scheduler.execute(new Runnable() {
+            public void run() {
+                completionHandler.completed(info);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" file=").append(file);
+        builder.append(" timeScale=").append(timeScale);
+        builder.append("]");
+        return builder.toString();
+    }
+}
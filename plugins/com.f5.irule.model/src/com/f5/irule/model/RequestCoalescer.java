@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Shares a single network call between identical GET requests that are in flight at the same time.<br>
+ * The first request of a connection and uri is sent, and requests that arrive before it completes
+ * join it instead of being sent. Its response is then handed to the completions of all of them,
+ * each joined completion getting its own copy of the response body.<br>
+ * Streaming completions read the response themselves and are never coalesced.<br>
+ * A write to the connection detaches the GETs in flight, see {@link #detach(String)}.
+ */
+class RequestCoalescer {
+
+    private static Logger logger = Logger.getLogger(RequestCoalescer.class);
+
+    private final Map<String, CoalescedCompletion> inFlight = new HashMap<String, CoalescedCompletion>();
+
+    static boolean isCoalescable(RestMethod method, RequestCompletion completion) {
+        return method == RestMethod.GET && !completion.isStreaming() && completion.getCoordinationId() == null;
+    }
+
+    /**
+     * Join the request to an identical request of the connection that is in flight.
+     * @return null if the completion joined a request in flight and nothing should be sent,
+     * otherwise the {@link CoalescedCompletion} the request should be sent with.
+     */
+    synchronized CoalescedCompletion join(String connection, String uri, RequestCompletion completion) {
+        String key = connection + (completion.isJson() ? " json " : " text ") + uri;
+        CoalescedCompletion existing = inFlight.get(key);
+        if (existing != null) {
+            logger.debug("Join " + completion + " to " + existing);
+            existing.joined.add(completion);
+            return null;
+        }
+        CoalescedCompletion coalesced = new CoalescedCompletion(key, completion);
+        inFlight.put(key, coalesced);
+        return coalesced;
+    }
+
+    /**
+     * Stop joining requests to the GETs of the connection that are in flight.<br>
+     * Called before a write to the connection, so a GET sent after the write
+     * does not get a response read before it.
+     */
+    synchronized void detach(String connection) {
+        String prefix = connection + " ";
+        Iterator<String> iterator = inFlight.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The request failed to be sent, its own completion is failed by the caller.<br>
+     * Fail the completions that joined it.
+     */
+    void abandon(CoalescedCompletion coalesced, IStatus status) {
+        Throwable statusException = status.getException();
+        Exception ex = statusException instanceof Exception ? (Exception) statusException : new Exception(status.getMessage());
+        for (RequestCompletion completion : finish(coalesced)) {
+            completion.failed(ex, null, null, null);
+        }
+    }
+
+    /**
+     * Stop accepting joins to the request and return the completions that joined it.
+     */
+    private synchronized List<RequestCompletion> finish(CoalescedCompletion coalesced) {
+        if (inFlight.get(coalesced.key) == coalesced) {
+            inFlight.remove(coalesced.key);
+        }
+        List<RequestCompletion> joined = new ArrayList<RequestCompletion>(coalesced.joined);
+        coalesced.joined.clear();
+        return joined;
+    }
+
+    /**
+     * Completion of the request that was sent, fanning its response out to the completions that joined it.
+     */
+    class CoalescedCompletion extends RequestCompletion {
+
+        private final String key;
+        private final RequestCompletion completion;
+        private final List<RequestCompletion> joined = new ArrayList<RequestCompletion>();
+
+        private CoalescedCompletion(String key, RequestCompletion completion) {
+            this.key = key;
+            this.completion = completion;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(key);
+            builder.append(" ").append(completion);
+            builder.append("]");
+            return builder.toString();
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            List<RequestCompletion> completions = finish(this);
+            // Copy the body for the joined completions before any of them gets to modify it
+            String json = responseBody == null || completions.isEmpty() ? null : responseBody.toString();
+            try {
+                completion.completed(method, uri, responseBody);
+            } finally {
+                // The joined completions were already removed, they must be called even if the primary one threw
+                JsonParser parser = new JsonParser();
+                for (RequestCompletion joinedCompletion : completions) {
+                    try {
+                        JsonElement copy = json == null ? null : parser.parse(json);
+                        joinedCompletion.completed(method, uri, copy == null ? null : copy.getAsJsonObject());
+                    } catch (RuntimeException ex) {
+                        logger.warn("Failed completing " + joinedCompletion, ex);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            List<RequestCompletion> completions = finish(this);
+            try {
+                completion.failed(ex, method, uri, responseBody);
+            } finally {
+                for (RequestCompletion joinedCompletion : completions) {
+                    try {
+                        joinedCompletion.failed(ex, method, uri, responseBody);
+                    } catch (RuntimeException failedEx) {
+                        logger.warn("Failed failing " + joinedCompletion, failedEx);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean isJson() {
+            return completion.isJson();
+        }
+    }
+}
@@ -15,9 +15,14 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
+
 import org.apache.log4j.Logger;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 /**
  * Callback interface for processing a response
@@ -49,6 +54,34 @@ public abstract class RequestCompletion {
         return true;
     }
 
+    /**
+     * @return true if this completion decodes the response body itself while it is read,
+     * in which case the transports call {@link #completedStream(String, String, JsonReader)}
+     * instead of building a {@link JsonObject} tree of the whole response.
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Do logic for Successful request of a streaming completion.<br>
+     * The reader is positioned at the start of the response body and reads it as it arrives.<br>
+     * By default parse the whole body and call {@link #completed(String, String, JsonObject)}.
+     */
+    public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+        JsonElement root = new JsonParser().parse(responseReader);
+        completed(method, uri, root.isJsonObject() ? root.getAsJsonObject() : null);
+    }
+
+    /**
+     * @return the id of the {@link RestTransaction} the request is part of,
+     * sent in the {@link RestTransaction#COORDINATION_ID_HEADER} header so the Big-IP queues the request in the transaction.<br>
+     * Null if the request should be applied right away.
+     */
+    public String getCoordinationId() {
+        return null;
+    }
+
     public void setConnectionJobCount(int jobCount) {
         this.jobCount = jobCount;
     }
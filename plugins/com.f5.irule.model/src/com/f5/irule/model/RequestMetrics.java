@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Request metrics of a single {@link BigIPConnection}, per REST endpoint.<br>
+ * {@link RestFramework} counts the requests, their latency and outcome,
+ * the transports ({@link ProxyUtil} and {@link RestRequestCompletionBridge}) count the bytes read
+ * and {@link com.f5.irule.model.jobs.ConnectionJob} counts the retries.<br>
+ * The endpoint of a request is its uri path without the host and query,
+ * where every name segment ("~Common~rule") is replaced by {@link #NAME_SEGMENT}
+ * and the segments beyond {@link #MAX_SEGMENTS} (such as iAppsLX file paths) by {@link #DEEPER_SEGMENTS}.
+ */
+public class RequestMetrics {
+
+    static final String NAME_SEGMENT = "~*";
+    static final String DEEPER_SEGMENTS = "*";
+    private static final String MGMT = "mgmt/";
+    private static final int MAX_SEGMENTS = 6;
+
+    /**
+     * Upper bounds of the latency histogram buckets, in milliseconds.<br>
+     * The last bucket counts all the slower requests.
+     */
+    public static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private final String address;
+    private final Map<String, EndpointMetrics> endpoints = new LinkedHashMap<String, EndpointMetrics>();
+    private long since = System.currentTimeMillis();
+
+    RequestMetrics(String address) {
+        this.address = address;
+    }
+
+    /**
+     * Return the endpoint of the uri, such as "mgmt/tm/ltm/rule/~*".
+     */
+    public static String getEndpoint(String uri) {
+        if (uri == null) {
+            return "";
+        }
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        int mgmt = path.indexOf(MGMT);
+        if (mgmt > 0) {
+            path = path.substring(mgmt);
+        }
+        String[] segments = path.split("/");
+        if (path.indexOf('~') < 0 && segments.length <= MAX_SEGMENTS) {
+            return path;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                builder.append("/");
+            }
+            if (i == MAX_SEGMENTS) {
+                builder.append(DEEPER_SEGMENTS);
+                break;
+            }
+            builder.append(segments[i].startsWith("~") ? NAME_SEGMENT : segments[i]);
+        }
+        return builder.toString();
+    }
+
+    private synchronized EndpointMetrics getMetrics(String uri) {
+        String endpoint = getEndpoint(uri);
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null) {
+            metrics = new EndpointMetrics(endpoint);
+            endpoints.put(endpoint, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Count a request to the uri with its body and the time it waited to be sent,
+     * and wrap the completion so its latency and outcome are recorded.
+     */
+    RequestCompletion track(String method, String uri, String body, long waitMillis, RequestCompletion completion) {
+        EndpointMetrics metrics = getMetrics(uri);
+        synchronized (this) {
+            metrics.requests++;
+            metrics.waitMillis += waitMillis;
+            if (body != null) {
+                metrics.bytesOut += utf8Length(body);
+            }
+        }
+        return new MeteredCompletion(metrics, completion);
+    }
+
+    /**
+     * Return the number of bytes of the text encoded in UTF-8, the encoding of the request and response bodies,
+     * without encoding it.
+     */
+    static long utf8Length(String text) {
+        long length = 0;
+        int size = text.length();
+        for (int i = 0; i < size; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate is encoded as '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Count a request to the uri that failed without being sent.
+     */
+    synchronized void recordRejected(String uri) {
+        EndpointMetrics metrics = getMetrics(uri);
+        metrics.requests++;
+        metrics.errors++;
+    }
+
+    /**
+     * Count the bytes uploaded to the uri, outside of a tracked request.
+     */
+    public synchronized void recordBytesOut(String uri, long bytes) {
+        if (bytes > 0) {
+            getMetrics(uri).bytesOut += bytes;
+        }
+    }
+
+    /**
+     * Count the bytes of a response from the uri.
+     */
+    public synchronized void recordBytesIn(String uri, long bytes) {
+        if (bytes > 0) {
+            getMetrics(uri).bytesIn += bytes;
+        }
+    }
+
+    /**
+     * Count a request to the uri that is sent again.
+     */
+    public synchronized void recordRetry(String uri) {
+        getMetrics(uri).retries++;
+    }
+
+    private synchronized void recordLatency(EndpointMetrics metrics, long latency, boolean failed) {
+        if (failed) {
+            metrics.errors++;
+        } else {
+            metrics.completed++;
+        }
+        metrics.totalLatency += latency;
+        metrics.maxLatency = Math.max(metrics.maxLatency, latency);
+        metrics.histogram[getBucket(latency)]++;
+    }
+
+    private static int getBucket(long latency) {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            if (latency <= LATENCY_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS.length;
+    }
+
+    /**
+     * Return a copy of the current metrics of every endpoint, the busiest first.
+     */
+    public synchronized List<EndpointMetrics> getEndpoints() {
+        List<EndpointMetrics> copies = new ArrayList<EndpointMetrics>(endpoints.size());
+        for (EndpointMetrics metrics : endpoints.values()) {
+            copies.add(metrics.copy(metrics.endpoint));
+        }
+        Collections.sort(copies, BUSIEST_FIRST);
+        return copies;
+    }
+
+    /**
+     * Return a copy of the metrics of all the endpoints together.
+     */
+    public synchronized EndpointMetrics getTotal() {
+        EndpointMetrics total = new EndpointMetrics(address);
+        for (EndpointMetrics metrics : endpoints.values()) {
+            total.add(metrics);
+        }
+        return total;
+    }
+
+    /**
+     * Return the time the metrics started to be collected.
+     */
+    public synchronized long getSince() {
+        return since;
+    }
+
+    public synchronized void reset() {
+        endpoints.clear();
+        since = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(address);
+        builder.append(" endpoints=").append(endpoints.size());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    private static final Comparator<EndpointMetrics> BUSIEST_FIRST = new Comparator<EndpointMetrics>() {
+        @Override
+        public int compare(EndpointMetrics metrics0, EndpointMetrics metrics1) {
+            return Long.compare(metrics1.requests, metrics0.requests);
+        }
+    };
+
+    /**
+     * The counters of one endpoint (or of all the endpoints of the connection).
+     */
+    public static class EndpointMetrics {
+
+        private final String endpoint;
+        private long requests;
+        private long completed;
+        private long errors;
+        private long retries;
+        private long bytesIn;
+        private long bytesOut;
+        private long waitMillis;
+        private long totalLatency;
+        private long maxLatency;
+        private final long[] histogram = new long[LATENCY_BUCKETS.length + 1];
+
+        private EndpointMetrics(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private EndpointMetrics copy(String name) {
+            EndpointMetrics copy = new EndpointMetrics(name);
+            copy.add(this);
+            return copy;
+        }
+
+        private void add(EndpointMetrics metrics) {
+            requests += metrics.requests;
+            completed += metrics.completed;
+            errors += metrics.errors;
+            retries += metrics.retries;
+            bytesIn += metrics.bytesIn;
+            bytesOut += metrics.bytesOut;
+            waitMillis += metrics.waitMillis;
+            totalLatency += metrics.totalLatency;
+            maxLatency = Math.max(maxLatency, metrics.maxLatency);
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += metrics.histogram[i];
+            }
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * Return the requests that got a response or failed.
+         */
+        public long getAnswered() {
+            return completed + errors;
+        }
+
+        /**
+         * Return the ratio of failed requests of the answered ones.
+         */
+        public double getErrorRate() {
+            long answered = getAnswered();
+            return answered == 0 ? 0 : (double) errors / answered;
+        }
+
+        public long getAverageLatency() {
+            long answered = getAnswered();
+            return answered == 0 ? 0 : totalLatency / answered;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        /**
+         * Return the average time the requests waited for a {@link ConcurrencyLimiter} permit.
+         */
+        public long getAverageWait() {
+            return requests == 0 ? 0 : waitMillis / requests;
+        }
+
+        /**
+         * Return the upper bound of the latency histogram bucket holding the percentile,
+         * or the max latency if it is in the last bucket.
+         */
+        public long getLatencyPercentile(double percentile) {
+            long answered = getAnswered();
+            if (answered == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(answered * percentile);
+            long count = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                count += histogram[i];
+                if (count >= rank) {
+                    return Math.min(LATENCY_BUCKETS[i], maxLatency);
+                }
+            }
+            return maxLatency;
+        }
+
+        /**
+         * Return a copy of the request counts per {@link RequestMetrics#LATENCY_BUCKETS} bucket.
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(endpoint);
+            builder.append(" requests=").append(requests);
+            builder.append(" errors=").append(errors);
+            builder.append(" retries=").append(retries);
+            builder.append(" avg=").append(getAverageLatency());
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+
+    private class MeteredCompletion extends RequestCompletion {
+
+        private EndpointMetrics metrics;
+        private RequestCompletion completion;
+        private long start = System.currentTimeMillis();
+
+        private MeteredCompletion(EndpointMetrics metrics, RequestCompletion completion) {
+            this.metrics = metrics;
+            this.completion = completion;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            recordLatency(metrics, System.currentTimeMillis() - start, false);
+            if (completion != null) {
+                completion.completed(method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+            recordLatency(metrics, System.currentTimeMillis() - start, false);
+            if (completion != null) {
+                completion.completedStream(method, uri, responseReader);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            recordLatency(metrics, System.currentTimeMillis() - start, true);
+            if (completion != null) {
+                completion.failed(ex, method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public boolean isJson() {
+            return completion == null || completion.isJson();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return completion != null && completion.isStreaming();
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return completion == null ? null : completion.getCoordinationId();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(completion);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
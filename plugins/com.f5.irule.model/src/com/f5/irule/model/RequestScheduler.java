@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Scheduling rules for the jobs that send REST requests, by {@link Priority} class.<br>
+ * The interactive requests a user waits on, such as opening or saving a file, run in a lane of their own,
+ * so they never wait behind background loads of the explorer.<br>
+ * Within a lane the jobs run one at a time and the Eclipse job manager starts
+ * the waiting job with the highest job priority first, see {@link #getJobPriority(ISchedulingRule)}.
+ */
+public class RequestScheduler {
+
+    public enum Priority {
+        /** Requests the user is waiting on: opening, saving, creating or deleting an item */
+        INTERACTIVE(Job.INTERACTIVE),
+        /** Requests of a connection load the explorer depends on */
+        NORMAL(Job.SHORT),
+        /** Listing and prefetch requests that fill the explorer */
+        BACKGROUND(Job.DECORATE);
+
+        private final int jobPriority;
+
+        private Priority(int jobPriority) {
+            this.jobPriority = jobPriority;
+        }
+
+        public int getJobPriority() {
+            return jobPriority;
+        }
+    }
+
+    private final String name;
+    private final Object interactiveLane = new Object();
+    private final Object mainLane = new Object();
+    private final Rule interactive;
+    private final Rule normal;
+    private final Rule background;
+
+    public RequestScheduler(String name) {
+        this.name = name;
+        interactive = new Rule(Priority.INTERACTIVE, interactiveLane);
+        normal = new Rule(Priority.NORMAL, mainLane);
+        background = new Rule(Priority.BACKGROUND, mainLane);
+    }
+
+    /**
+     * Return the scheduling rule of the requests of the priority class.
+     */
+    public ISchedulingRule getRule(Priority priority) {
+        switch (priority) {
+        case INTERACTIVE:
+            return interactive;
+        case BACKGROUND:
+            return background;
+        default:
+            return normal;
+        }
+    }
+
+    /**
+     * Return the job priority of a job with the given scheduling rule.<br>
+     * Jobs with a rule that is not a {@link RequestScheduler} rule keep the default {@link Job#LONG} priority.
+     */
+    public static int getJobPriority(ISchedulingRule rule) {
+        if (rule instanceof Rule) {
+            return ((Rule) rule).priority.getJobPriority();
+        }
+        return Job.LONG;
+    }
+
+    /**
+     * A rule that conflicts with the rules of the same lane.
+     */
+    private class Rule implements ISchedulingRule {
+
+        private final Priority priority;
+        private final Object lane;
+
+        private Rule(Priority priority, Object lane) {
+            this.priority = priority;
+            this.lane = lane;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("[Rule ");
+            builder.append(name).append(" ").append(priority);
+            builder.append("]");
+            return builder.toString();
+        }
+
+        public boolean isConflicting(ISchedulingRule rule) {
+            return rule instanceof Rule && ((Rule) rule).lane == lane;
+        }
+
+        public boolean contains(ISchedulingRule rule) {
+            return rule == this;
+        }
+    }
+}
@@ -15,13 +15,14 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Scanner;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IPath;
@@ -33,14 +34,10 @@ import org.eclipse.ui.statushandlers.StatusManager;
 import com.f5.irule.model.jobs.ConnectionJob;
 import com.f5.irule.model.jobs.SendRequestJob;
 import com.f5.rest.common.CompletionHandler;
-import com.f5.rest.common.RestFileSender;
 import com.f5.rest.common.RestFileTransferInformation;
 import com.f5.rest.common.RestHelper;
-import com.f5.rest.common.RestOperation;
 import com.f5.rest.common.RestReference;
 import com.f5.rest.common.RestOperation.RestMethod;
-import com.f5.rest.common.RestRequestCompletion;
-import com.f5.rest.common.RestRequestSender;
 
 /**
  * A bridge to the com.f5.rest package.<br>
@@ -65,11 +62,14 @@ public class RestFramework {
     }
     
     /**
-     * Mutex is required so that only one write occurs at a time.
-     * TODO Once iControlRest is changed to allow simultaneous writes, this could be removed
+     * Write permits striped by connection and iAppsLX application,
+     * so only writes to the same application wait for each other.<br>
+     * All the ILX writes of a connection share the {@link #ILX_STRIPE} stripe,
+     * since the Big-IP stages every ILX file in the same ilx_workspace_file upload.
      */
-    private final Semaphore writeMutex = new Semaphore(1);
+    private final WritePermits writePermits = new WritePermits();
     private static final int LOCK_ACQUIRE_TIMEOUT = 15;  // seconds 
+    private static final String ILX_STRIPE = "ilx";
 
     void writeILXResource(BigIPConnection conn, IPath fullPath, IPath location, RequestCompletion externalCompletion) {
         String localFilePath = location.toString();
@@ -83,16 +83,37 @@ public class RestFramework {
 
     /**
      * Synchronously upload the ILX file to the Big-IP.<br>
-     * Acquire the mutex lock and then use the file-transfer/uploads REST api to upload the file.
+     * Acquire the staging file of the connection {@link IlxInstallStage} and the ILX write permit,
+     * and then use the file-transfer/uploads REST api to upload the file.<br>
+     * The write permit is released once the file is transferred, the staging file once it is installed.
      */
     public void writeILXResource(BigIPConnection conn, String localFilePath, String workspace, String partition,
             String uploadFileCopy, RequestCompletion finalCompletion) {
         RestURI restUri = conn.getURI(FILE_TRANSFER_UPLOADS);
-        restUri.appendSlashFirst("ilx_workspace_file");
+        restUri.appendSlashFirst(IlxInstallStage.ILX_WORKSPACE_FILE);
         String targetUri = restUri.toString();
-        WriteILXResourceCompletionHandler completionHandler = new WriteILXResourceCompletionHandler(conn,
-            partition, workspace, uploadFileCopy, finalCompletion, writeMutex);
-        syncUploadResource(conn, targetUri, localFilePath, completionHandler, writeMutex);
+        IlxInstallStage installStage = conn.getIlxInstallStage();
+        if (!installStage.tryAcquireStaging(LOCK_ACQUIRE_TIMEOUT, TimeUnit.SECONDS)) {
+            TimeoutException ex = new TimeoutException(Messages.TIMEOUT_TRYING_TO_UPLOAD + " : " + localFilePath);
+            handleError(ex.getMessage(), ex);
+            finalCompletion.failed(ex, RestMethod.POST.name(), targetUri, null);
+            return;
+        }
+        WriteILXResourceCompletionHandler completionHandler = new WriteILXResourceCompletionHandler(installStage,
+            partition, workspace, uploadFileCopy, finalCompletion);
+        syncUploadResource(conn, targetUri, localFilePath, completionHandler, writePermits, ILX_STRIPE);
+    }
+
+    /**
+     * Synchronously upload an archive of ILX workspace files to the Big-IP.<br>
+     * Acquire the workspace write permit, the completion handler releases it once the archive is extracted.
+     */
+    void writeILXArchive(BigIPConnection conn, String localFilePath, String partition, String workspace,
+            RestFrameworkCompletionHandler completionHandler) {
+        RestURI restUri = conn.getURI(FILE_TRANSFER_UPLOADS);
+        restUri.appendSlashFirst(new File(localFilePath).getName());
+        String stripe = "ilx/" + partition + "/" + workspace;
+        syncUploadResource(conn, restUri.toString(), localFilePath, completionHandler, writePermits, stripe);
     }
 
     /**
@@ -104,8 +125,9 @@ public class RestFramework {
         RestURI restUri = conn.getURI(IAPP_FILE_MANAGEMENT);
         restUri.appendSlashFirst(remotePath.toString());
         RestFrameworkCompletionHandler completionHandler =
-            new RestFrameworkCompletionHandler(finalCompletion, writeMutex);
-        syncUploadResource(conn, restUri.toString(), localFilePath, completionHandler, writeMutex);
+            new RestFrameworkCompletionHandler(finalCompletion);
+        String stripe = "iapp/" + remotePath.segment(0);
+        syncUploadResource(conn, restUri.toString(), localFilePath, completionHandler, writePermits, stripe);
     }
 
     public static void sendRequestJob(Connection conn, RestMethod method, String uri,
@@ -115,35 +137,92 @@ public class RestFramework {
     }
 
     /**
-     * Check if the connection Ip is reachable and send the REST request to the Big-IP.<br>
-     * If the connection uses proxy then use the ProxyUtil.sendRequest() to send the request.<br>
-     * Otherwise use the RuleProvider.restSendRequest() method to send the request.
+     * Identical GET requests in flight, per connection
+     */
+    private static final RequestCoalescer coalescer = new RequestCoalescer();
+
+    /**
+     * Check the connection {@link ConnectionHealthMonitor} and send the REST request to the Big-IP.<br>
+     * If the Big-IP recently failed to answer, fail fast without sending the request.<br>
+     * A GET request that is identical to one in flight is not sent, it is completed by the response of that request.<br>
+     * Otherwise wait for a permit of the connection {@link ConcurrencyLimiter} before sending the request.<br>
+     * The request is counted in the connection {@link RequestMetrics}.<br>
+     * The request is sent by the {@link RestTransport} of the connection.
      */
     public static IStatus sendRequest(BigIPConnection conn, RestMethod method, String uri,
             String contentType, String jsonBody, RequestCompletion completion) {
         
-        IStatus status = ModelUtils.isIpReachable(conn.getIp(), 5000);
+        ConnectionHealthMonitor healthMonitor = conn.getHealthMonitor();
+        RequestMetrics metrics = conn.getRequestMetrics();
+        IStatus status = healthMonitor.checkAvailable();
         if (!status.isOK()) {
+            metrics.recordRejected(uri);
             return status;
         }
-        status = sendRequestToBigIP(conn, method, uri, jsonBody, completion, 1000);
+        RequestCoalescer.CoalescedCompletion coalesced = null;
+        if (RequestCoalescer.isCoalescable(method, completion)) {
+            coalesced = coalescer.join(conn.getName(), uri, completion);
+            if (coalesced == null) {
+                // An identical GET is in flight, its response will complete this request too
+                return Status.OK_STATUS;
+            }
+            completion = coalesced;
+        } else if (method != RestMethod.GET) {
+            coalescer.detach(conn.getName());
+        }
+        ConcurrencyLimiter limiter = conn.getConcurrencyLimiter();
+        long acquireStart = System.currentTimeMillis();
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        long waitMillis = System.currentTimeMillis() - acquireStart;
+        completion = metrics.track(method.name(), uri, jsonBody, waitMillis, completion);
+        status = sendRequestToBigIP(conn, method, uri, jsonBody, healthMonitor.track(limiter.track(permit, completion)));
+        if (!status.isOK()) {
+            permit.cancel();
+            healthMonitor.recordOutcome(status.getException());
+            if (coalesced != null) {
+                coalescer.abandon(coalesced, status);
+            }
+        }
         return status;
     }
 
     /**
-     * If the {@link BigIPConnection} uses proxy, then use the ProxyUtil.sendRequest() to send the request.<br>
-     * Otherwise use the f5.rest.jar {@link RestRequestSender} to send a REST request to the Big-IP.
+     * System property that selects the transport of connections that do not use a proxy:<br>
+     * {@link #HTTP_CLIENT_TRANSPORT} (the default) or {@link #F5_REST_TRANSPORT}.
+     */
+    static final String DIRECT_TRANSPORT_PROPERTY = Ids.PLUGIN + ".directTransport";
+    static final String HTTP_CLIENT_TRANSPORT = "httpclient";
+    static final String F5_REST_TRANSPORT = "f5rest";
+
+    /**
+     * Return the {@link RestTransport} of the connection.<br>
+     * When a capture file is replayed all connections use the {@link ReplayTransport}.<br>
+     * Otherwise connections that use a proxy always use the {@link HttpClientTransport},
+     * direct connections use it too unless {@link #DIRECT_TRANSPORT_PROPERTY} selects the {@link F5RestTransport}.
+     */
+    static RestTransport getTransport(BigIPConnection conn) {
+        ReplayTransport replay = ReplayTransport.getInstance();
+        if (replay != null) {
+            return replay;
+        }
+        if (!conn.isUseProxy() && F5_REST_TRANSPORT.equals(System.getProperty(DIRECT_TRANSPORT_PROPERTY))) {
+            return F5RestTransport.INSTANCE;
+        }
+        return HttpClientTransport.INSTANCE;
+    }
+
+    /**
+     * Send the REST request to the Big-IP with the {@link RestTransport} of the {@link BigIPConnection}.<br>
+     * The call does not wait for the response,<br>
+     * callers that must run after the request finishes should chain on the {@link RequestCompletion}.<br>
+     * When capture is enabled the request and its response are recorded by the {@link RestRecorder}.
      */
     static IStatus sendRequestToBigIP(BigIPConnection conn, RestMethod method, String uri, String body,
-            RequestCompletion completion, int sleepTime) {
+            RequestCompletion completion) {
         IStatus status;
         try {
-            if (conn.isUseProxy()) {
-                ProxyUtil.sendRequest(conn, method, uri, body, completion);
-            } else {
-                restSendRequest(conn, method, uri, body, completion);
-            }
-            Thread.sleep(sleepTime);
+            completion = RestRecorder.track(method, uri, body, completion);
+            getTransport(conn).sendRequest(conn, method, uri, body, completion);
             return Status.OK_STATUS;
         } catch (Throwable ex) {
             status = new Status(IStatus.ERROR, Ids.PLUGIN, RestHelper.throwableStackToString(ex), ex);
@@ -152,60 +231,42 @@ public class RestFramework {
         }
     }
 
-    /**
-     * Use the f5.rest.jar {@link RestRequestSender} to send a REST request to the Big-IP.<br>
-     * A {@link RestRequestCompletionBridge} is created that wraps the method {@link RequestCompletion}<br>
-     * So when an answer is received and the {@link RestRequestCompletion #completed(RestOperation)} is called<br>
-     * it would delegate the response handling to the {@link RequestCompletion} method.
-     */
-    private static void restSendRequest(Connection conn, RestMethod method,
-            String uri, String jsonBody, RequestCompletion completion) throws URISyntaxException {
-        String contentType = "application/json";
-        RestRequestCompletion restRequestCompletion = new RestRequestCompletionBridge(completion);
-        RestOperation op = createRestOperation(method,
-            uri, conn, contentType, null, jsonBody, restRequestCompletion);
-        String message = method + " " + uri;
-        if (jsonBody != null) {
-            message += " Body: " + jsonBody;
-        }
-        message += " Completion: " + completion;
-        logger.debug(message);
-        RestRequestSender.sendRequest(op);
-    }
-
     /**
      * Synchronously upload the resource to the Big-IP.<br>
-     * If the {@link BigIPConnection} uses proxy, then use the ProxyUtil.uploadResource() to to upload the file.<br>
-     * Otherwise use the f5.rest.jar RestFileSender file-transfer/uploads REST api to upload the file.
+     * The file is uploaded by the {@link RestTransport} of the {@link BigIPConnection}.
      */
-    private static void syncUploadResource(Connection conn, String targetUri, String localFilePath,
-            RestFrameworkCompletionHandler completionHandler, Semaphore mutex) {
-        IStatus status = ModelUtils.isIpReachable(conn.getIp(), 5000);
+    private static void syncUploadResource(BigIPConnection conn, String targetUri, String localFilePath,
+            RestFrameworkCompletionHandler completionHandler, WritePermits permits, String stripe) {
+        ConnectionHealthMonitor healthMonitor = conn.getHealthMonitor();
+        IStatus status = healthMonitor.checkAvailable();
         if (!status.isOK()) {
+            StatusManager.getManager().handle(status, StatusManager.LOG);
             RestFileTransferInformation info = createRestFileTransferInformation(localFilePath, targetUri);
             completionHandler.failed(null, info);
             return;
         }
-        boolean acquired = tryAcquire(mutex);
-        if (acquired) {
+        coalescer.detach(conn.getName());
+        completionHandler.setHealthMonitor(healthMonitor);
+        WritePermits.Permit permit = tryAcquire(permits, conn.getAddress(), stripe);
+        if (permit != null) {
+            completionHandler.setPermit(permit);
+            conn.getRequestMetrics().recordBytesOut(targetUri, new File(localFilePath).length());
             try {
-                if (conn.isUseProxy()) {
-                    ProxyUtil.uploadResource(conn, targetUri, localFilePath, completionHandler);
-                } else {
-                    uploadResource(conn, targetUri, localFilePath, completionHandler);
-                }
+                getTransport(conn).uploadResource(conn, targetUri, localFilePath, completionHandler);
             } catch (Throwable ex) {
                 handleError(Messages.FILE_UPLOAD_FAILED + ": " + RestHelper.throwableStackToString(ex), ex);
-                mutex.release();
+                RestFileTransferInformation info = createRestFileTransferInformation(localFilePath, targetUri);
+                completionHandler.failed(ex instanceof Exception ? (Exception) ex : new Exception(ex), info);
             }
         } else {
-            handleError(Messages.TIMEOUT_TRYING_TO_UPLOAD + " : " + localFilePath, null);
+            TimeoutException ex = new TimeoutException(Messages.TIMEOUT_TRYING_TO_UPLOAD + " : " + localFilePath);
+            handleError(ex.getMessage(), ex);
             RestFileTransferInformation info = createRestFileTransferInformation(localFilePath, targetUri);
-            completionHandler.failed(null, info);
+            completionHandler.failed(ex, info);
         }
     }
 
-    private static RestFileTransferInformation createRestFileTransferInformation(String localFilePath, String targetUri) {
+    static RestFileTransferInformation createRestFileTransferInformation(String localFilePath, String targetUri) {
         RestFileTransferInformation info = new RestFileTransferInformation();
         info.localFilePath = localFilePath;
         try {
@@ -226,41 +287,19 @@ public class RestFramework {
     }
 
     /**
-     * Each thread will try to acquire the mutex lock.<br>
+     * Each thread will try to acquire the write permit of its connection and stripe.<br>
      * If successful, upload and install the file.<br>
-     * The lock is released by the completed/failed methods of the completion.<br>
-     * If the lock is not available, wait until timeout or lock is release by owning thread
+     * The permit is released by the completed/failed methods of the completion.<br>
+     * If the permit is not available, wait until timeout or the permit is released by owning thread
      */
-    private static boolean tryAcquire(Semaphore mutex) {
-        boolean acquired = false;
+    private static WritePermits.Permit tryAcquire(WritePermits permits, String connection, String stripe) {
+        WritePermits.Permit permit = null;
         try {
-            acquired = mutex.tryAcquire(1, LOCK_ACQUIRE_TIMEOUT, TimeUnit.SECONDS);
+            permit = permits.tryAcquire(connection, stripe, LOCK_ACQUIRE_TIMEOUT, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        return acquired;
-    }
-
-    /**
-     * Use the f5.rest.jar {@link RestFileSender} file-transfer/uploads REST api<br>
-     * to upload a file by sending a POST REST request to the Big-IP.<br>
-     * When the upload finishes, the {@link CompletionHandler #completed(Object)} method is called.
-     * and delegates the response handling to the {@link RequestCompletion} completed method.
-     */
-    private static void uploadResource(Connection connection, String targetUri, String localFilePath,
-            CompletionHandler<RestFileTransferInformation> completionHandler)
-            throws URISyntaxException {
-    
-        String contentRange = getContentRange();
-        RestOperation op = createRestOperation(RestMethod.POST, targetUri,
-            connection, "application/octet-stream", contentRange, null, null);
-        RestFileSender sender = RestFileSender.create(localFilePath, op);
-        // .setChunkByteCount(Math.min(1024 * 1024, fileSize));
-        CompletionHandler<RestFileTransferInformation> progressCompletion = new ProgressCompletionHandler(localFilePath);
-        sender.setProgressCompletion(progressCompletion);
-        sender.setFinalCompletion(completionHandler);
-        logger.debug("Send " + targetUri + " Completion: " + completionHandler);
-        sender.start();
+        return permit;
     }
 
     static String getContentRange() {
@@ -277,32 +316,6 @@ public class RestFramework {
         return ans;
     }
 
-    private static RestOperation createRestOperation(RestMethod method, String uri,
-            Connection conn, String contentType, String contentRange, String body,
-            RestRequestCompletion completion) throws URISyntaxException {
-
-        String user = conn.getUser();
-        String pwd = conn.getPassword();
-        
-        RestOperation op = RestOperation.createSigned();
-        op.setMethod(method);
-        op.setUri(new URI(uri));
-        op.setBasicAuthorization(user, pwd);
-        if (contentType != null) {
-            op.setContentType(contentType);
-        }
-        if (contentRange != null) {
-            op.setContentRange(contentRange);
-        }
-        if (body != null) {
-            op.setBody(body);
-        }
-        if (completion != null) {
-            op.setCompletion(completion);
-        }
-        return op;
-    }
-    
     public static class ProgressCompletionHandler extends CompletionHandler<RestFileTransferInformation>{
 
         private String fileName;
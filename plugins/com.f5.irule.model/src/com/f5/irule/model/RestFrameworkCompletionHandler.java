@@ -15,8 +15,6 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
-import java.util.concurrent.Semaphore;
-
 import org.apache.log4j.Logger;
 
 import com.f5.rest.common.CompletionHandler;
@@ -27,29 +25,63 @@ public class RestFrameworkCompletionHandler extends CompletionHandler<RestFileTr
     private static Logger logger = Logger.getLogger(RestFrameworkCompletionHandler.class);
 
     RequestCompletion finalCompletion;
-    private Semaphore mutex;
+    private WritePermits.Permit permit;
+    private ConnectionHealthMonitor healthMonitor;
 
-    protected RestFrameworkCompletionHandler(RequestCompletion finalCompletion, Semaphore mutex) {
+    protected RestFrameworkCompletionHandler(RequestCompletion finalCompletion) {
         this.finalCompletion = finalCompletion;
-        this.mutex = mutex;
     }
 
-    void releaseMutex() {
-        mutex.release();
+    void setPermit(WritePermits.Permit permit) {
+        this.permit = permit;
+    }
+
+    void setHealthMonitor(ConnectionHealthMonitor healthMonitor) {
+        this.healthMonitor = healthMonitor;
+    }
+
+    /**
+     * Record a completed transfer on the connection {@link ConnectionHealthMonitor}, if one was set.
+     */
+    void recordSuccess() {
+        if (healthMonitor != null) {
+            healthMonitor.recordSuccess();
+        }
+    }
+
+    /**
+     * Record the failure of the transfer on the connection {@link ConnectionHealthMonitor}, if one was set.
+     */
+    void recordOutcome(Exception ex) {
+        if (healthMonitor != null) {
+            healthMonitor.recordOutcome(ex);
+        }
+    }
+
+    /**
+     * Release the write permit acquired for this transfer.<br>
+     * Only the first call releases it, so both the transfer and the install completions may call it safely.
+     */
+    void releasePermit() {
+        if (permit != null) {
+            permit.release();
+        }
     }
 
     @Override
     public void completed(RestFileTransferInformation info) {
         logger.trace("Completed transfer of " + info.localFilePath + " to " + info.targetReference.link);
+        recordSuccess();
         finalCompletion.completed(null, null, null);
-        releaseMutex();
+        releasePermit();
     }
     
     @Override
     public void failed(Exception ex, RestFileTransferInformation info) {
         logger.warn("Failed transfer of " + info.localFilePath, ex);
+        recordOutcome(ex);
         finalCompletion.failed(ex, null, null, null);
-        releaseMutex();
+        releasePermit();
     }
  
 }
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Capture of the REST traffic of all the connections to a local file,
+ * to be served back later by the {@link ReplayTransport}.<br>
+ * Capture is enabled by setting the {@link #CAPTURE_FILE_PROPERTY} system property to the file path.<br>
+ * Every request sent by a {@link RestTransport} is appended to the file as one json line,
+ * with its method, uri, request body, response status, response body or error,
+ * and its start time and duration in milliseconds.<br>
+ * Passwords in the request bodies and the tokens of the {@link AuthSession#LOGIN_ENDPOINT} responses are masked.
+ */
+class RestRecorder {
+
+    private static Logger logger = Logger.getLogger(RestRecorder.class);
+
+    static final String CAPTURE_FILE_PROPERTY = Ids.PLUGIN + ".captureFile";
+
+    static final String PASSWORD = "password";
+    static final String TOKEN = "token";
+    static final String MASK = "****";
+
+    private static boolean captureChecked = false;
+    private static RestRecorder capture;
+
+    private final File file;
+    private final Writer writer;
+    private final long start = System.currentTimeMillis();
+
+    RestRecorder(File file) throws IOException {
+        this.file = file;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    }
+
+    /**
+     * Return the recorder of the {@link #CAPTURE_FILE_PROPERTY} file, or null if capture is not enabled.
+     */
+    static synchronized RestRecorder getCapture() {
+        if (!captureChecked) {
+            captureChecked = true;
+            String path = System.getProperty(CAPTURE_FILE_PROPERTY);
+            if (path != null) {
+                try {
+                    capture = new RestRecorder(new File(path));
+                    logger.info("Capturing REST traffic to " + path);
+                } catch (IOException ex) {
+                    logger.warn("Failed to open the capture file " + path, ex);
+                }
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * If capture is enabled wrap the completion so the request and its response are recorded,
+     * otherwise return the completion as is.
+     */
+    static RequestCompletion track(RestMethod method, String uri, String body, RequestCompletion completion) {
+        RestRecorder recorder = getCapture();
+        if (recorder == null) {
+            return completion;
+        }
+        return recorder.record(method.name(), uri, body, completion);
+    }
+
+    RequestCompletion record(String method, String uri, String body, RequestCompletion completion) {
+        long now = System.currentTimeMillis();
+        Exchange exchange = new Exchange(method, uri, maskPasswords(body), now - start);
+        return new RecordingCompletion(exchange, now, completion);
+    }
+
+    synchronized void write(Exchange exchange) {
+        try {
+            writer.write(exchange.toJson().toString());
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException ex) {
+            logger.warn("Failed to write " + exchange + " to " + file, ex);
+        }
+    }
+
+    synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Replace the value of a top level password field of the json request body with {@link #MASK}.<br>
+     * A body that is not a json object is returned as is.
+     */
+    static String maskPasswords(String body) {
+        if (body == null || body.indexOf(PASSWORD) < 0) {
+            return body;
+        }
+        try {
+            JsonElement root = new JsonParser().parse(body);
+            if (root.isJsonObject() && root.getAsJsonObject().has(PASSWORD)) {
+                root.getAsJsonObject().addProperty(PASSWORD, MASK);
+                return root.toString();
+            }
+        } catch (JsonParseException ex) {
+            logger.trace("Request body is not json: " + ex.getMessage());
+        }
+        return body;
+    }
+
+    /**
+     * Return a copy of the login response with its token masked.<br>
+     * Every string field of the token object that contains the token value,
+     * i.e. the token itself, its name and its selfLink, is replaced with {@link #MASK}.<br>
+     * The response of any other request is returned as is, the response passed to the completion is never changed.
+     */
+    static JsonElement maskToken(String uri, JsonElement response) {
+        if (!AuthSession.isLoginRequest(uri) || response == null || !response.isJsonObject()) {
+            return response;
+        }
+        JsonElement token = response.getAsJsonObject().get(TOKEN);
+        if (token == null || !token.isJsonObject()) {
+            return response;
+        }
+        JsonElement value = token.getAsJsonObject().get(TOKEN);
+        if (value == null || !value.isJsonPrimitive()) {
+            return response;
+        }
+        String tokenValue = value.getAsString();
+        JsonObject copy = new JsonParser().parse(response.toString()).getAsJsonObject();
+        JsonObject tokenCopy = copy.getAsJsonObject(TOKEN);
+        for (Map.Entry<String, JsonElement> entry : tokenCopy.entrySet()) {
+            JsonElement field = entry.getValue();
+            if (field.isJsonPrimitive() && field.getAsString().contains(tokenValue)) {
+                entry.setValue(new JsonPrimitive(MASK));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Read the exchanges of a capture file, in the order they were sent.
+     */
+    static List<Exchange> read(File file) throws IOException {
+        List<Exchange> exchanges = new ArrayList<Exchange>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            JsonParser parser = new JsonParser();
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                try {
+                    exchanges.add(Exchange.fromJson(parser.parse(line).getAsJsonObject()));
+                } catch (RuntimeException ex) {
+                    logger.warn("Skipping line " + lineNumber + " of " + file + ": " + ex.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return exchanges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" file=").append(file);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * A recorded request and its response.<br>
+     * The status is 200 for a response that completed the request,
+     * the http status of a failure response, or -1 if the request failed without one.
+     */
+    static class Exchange {
+
+        static final int SUCCESS_STATUS = 200;
+        static final int NO_STATUS = -1;
+
+        final String method;
+        final String uri;
+        final String body;
+        final long start;
+        int status = NO_STATUS;
+        JsonElement response = JsonNull.INSTANCE;
+        String error;
+        String errorBody;
+        long duration;
+
+        Exchange(String method, String uri, String body, long start) {
+            this.method = method;
+            this.uri = uri;
+            this.body = body;
+            this.start = start;
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("method", method);
+            json.addProperty("uri", uri);
+            json.addProperty("body", body);
+            json.addProperty("status", status);
+            json.add("response", response);
+            json.addProperty("error", error);
+            json.addProperty("errorBody", errorBody);
+            json.addProperty("start", start);
+            json.addProperty("duration", duration);
+            return json;
+        }
+
+        static Exchange fromJson(JsonObject json) {
+            Exchange exchange = new Exchange(getString(json, "method"), getString(json, "uri"),
+                getString(json, "body"), getLong(json, "start"));
+            exchange.status = (int) getLong(json, "status");
+            JsonElement response = json.get("response");
+            exchange.response = response == null ? JsonNull.INSTANCE : response;
+            exchange.error = getString(json, "error");
+            exchange.errorBody = getString(json, "errorBody");
+            exchange.duration = getLong(json, "duration");
+            return exchange;
+        }
+
+        private static String getString(JsonObject json, String key) {
+            JsonElement element = json.get(key);
+            return element == null || element.isJsonNull() ? null : element.getAsString();
+        }
+
+        private static long getLong(JsonObject json, String key) {
+            JsonElement element = json.get(key);
+            return element == null || element.isJsonNull() ? 0 : element.getAsLong();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(method).append(" ").append(uri);
+            builder.append(" status=").append(status);
+            builder.append(" duration=").append(duration);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Records the response of the request before passing it to the wrapped completion.<br>
+     * A streaming response is read into a tree for recording and passed on from the recorded text.
+     */
+    private class RecordingCompletion extends RequestCompletion {
+
+        private Exchange exchange;
+        private long sent;
+        private RequestCompletion completion;
+
+        private RecordingCompletion(Exchange exchange, long sent, RequestCompletion completion) {
+            this.exchange = exchange;
+            this.sent = sent;
+            this.completion = completion;
+        }
+
+        private void record(int status, JsonElement response, Exception ex, String errorBody) {
+            exchange.duration = System.currentTimeMillis() - sent;
+            exchange.status = status;
+            response = maskToken(exchange.uri, response);
+            exchange.response = response == null ? JsonNull.INSTANCE : response;
+            exchange.error = ex == null ? null : ex.getMessage();
+            exchange.errorBody = errorBody;
+            write(exchange);
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            record(Exchange.SUCCESS_STATUS, responseBody, null, null);
+            if (completion != null) {
+                completion.completed(method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+            JsonElement root = new JsonParser().parse(responseReader);
+            record(Exchange.SUCCESS_STATUS, root, null, null);
+            if (completion != null) {
+                completion.completedStream(method, uri, new JsonReader(new StringReader(root.toString())));
+            }
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            int status = RestStatusException.getStatusCode(ex);
+            record(status < 0 ? Exchange.NO_STATUS : status, null, ex, responseBody);
+            if (completion != null) {
+                completion.failed(ex, method, uri, responseBody);
+            }
+        }
+
+        @Override
+        public boolean isJson() {
+            return completion == null || completion.isJson();
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return completion != null && completion.isStreaming();
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return completion == null ? null : completion.getCoordinationId();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(completion);
+            builder.append("]");
+            return builder.toString();
+        }
+    }
+}
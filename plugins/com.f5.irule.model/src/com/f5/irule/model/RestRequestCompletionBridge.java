@@ -15,12 +15,19 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.net.URI;
+import java.nio.charset.Charset;
 
 import com.f5.rest.common.RestOperation;
 import com.f5.rest.common.RestRequestCompletion;
 import com.f5.rest.common.RestRequestSender;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 /**
  * A Bridge between {@link RestRequestCompletion} and {@link RequestCompletion}<br>
@@ -32,15 +39,28 @@ public class RestRequestCompletionBridge extends RestRequestCompletion {
     public static final String TEXT = "text";
 
     private RequestCompletion requestCompletion;
+    private Connection connection;
 
     RestRequestCompletionBridge(RequestCompletion requestCompletion) {
+        this(requestCompletion, null);
+    }
+
+    RestRequestCompletionBridge(RequestCompletion requestCompletion, Connection connection) {
         this.requestCompletion = requestCompletion;
+        this.connection = connection;
     }
 
     @Override
     public void completed(RestOperation response) {
         String method = response.getMethod().name();
         String uri = response.getUri().toString();
+        if (connection instanceof BigIPConnection && !response.isContentLengthUnknown()) {
+            ((BigIPConnection) connection).getRequestMetrics().recordBytesIn(uri, response.getContentLength());
+        }
+        if (requestCompletion.isStreaming()) {
+            doStreamingCompleted(response, method, uri);
+            return;
+        }
         String body = response.getBodyAsString();
         if (body == null) {
             byte[] binaryBody = response.getBinaryBody();
@@ -56,6 +76,14 @@ public class RestRequestCompletionBridge extends RestRequestCompletion {
         String method = response.getMethod().name();
         URI uri = response.getUri();
         String body = response.getBodyAsString();
+        int statusCode = response.getStatusCode();
+        if (connection != null && statusCode == RestOperation.STATUS_UNAUTHORIZED) {
+            connection.authenticationFailed();
+        }
+        if (statusCode >= 300) {
+            // Keep the response status for the retry policy
+            ex = new RestStatusException(statusCode, ex);
+        }
         requestCompletion.failed(ex, method, uri.toString(), body);
     }
 
@@ -68,6 +96,47 @@ public class RestRequestCompletionBridge extends RestRequestCompletion {
         return builder.toString();
     }
 
+    /**
+     * Let the streaming {@link RequestCompletion} decode the response body directly,
+     * without copying a binary body to a String or building a {@link JsonObject} tree.
+     */
+    private void doStreamingCompleted(RestOperation response, String method, String uri) {
+        String body = response.getBodyAsString();
+        Reader reader;
+        if (body != null) {
+            reader = new StringReader(body);
+        } else {
+            byte[] binaryBody = response.getBinaryBody();
+            reader = new InputStreamReader(new ByteArrayInputStream(binaryBody == null ? new byte[0] : binaryBody),
+                Charset.forName("UTF-8"));
+        }
+        doStreamingCompleted(requestCompletion, method, uri, reader);
+    }
+
+    /**
+     * Execute the streaming {@link RequestCompletion #completedStream(String, String, JsonReader)} method
+     * with a lenient {@link JsonReader} over the response body.<br>
+     * Call the {@link RequestCompletion #failed(Exception, String, String, String)} method if decoding fails.<br>
+     * The failure may follow a completion that already started consuming the response,
+     * completions that count their responses must not count it again nor retry the request,
+     * see {@link com.f5.irule.model.jobs.ConnectionJob.ConnectionJobCompletion}.
+     */
+    static void doStreamingCompleted(RequestCompletion completion, String methodName, String uri, Reader body) {
+        JsonReader reader = new JsonReader(body);
+        reader.setLenient(true);
+        try {
+            completion.completedStream(methodName, uri, reader);
+        } catch (Exception ex) {
+            completion.failed(ex, methodName, uri, null);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                RuleProvider.logger.warn("Failed to close response of " + uri, ex);
+            }
+        }
+    }
+
     /**
      * Execute the {@link RequestCompletion #completed(String, String, JsonObject)} method.<br>
      * If the {@link RequestCompletion} is expecting a json response then parse the response body as {@link JsonObject}.<br>
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+/**
+ * A failure of a REST request that the Big-IP (or the proxy) answered with an error http status.<br>
+ * It keeps the message of the exception it wraps, so the error details parsed from the message are not lost.
+ */
+public class RestStatusException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public RestStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public RestStatusException(int statusCode, Exception cause) {
+        super(cause == null ? "Error " + statusCode : cause.getMessage(), cause);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Return the status code of the first {@link RestStatusException} in the cause chain of the exception,
+     * or -1 if there is none.
+     */
+    public static int getStatusCode(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestStatusException) {
+                return ((RestStatusException) cause).getStatusCode();
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+import com.f5.irule.model.jobs.TransactionJob;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A batch of model updates sent to the Big-IP in a single iControl REST transaction (mgmt/tm/transaction).<br>
+ * The POST/PATCH request of each added model carries the {@link #COORDINATION_ID_HEADER} header,
+ * so the Big-IP queues it in the transaction instead of applying it.<br>
+ * The queued requests are sent without waiting for each other and are then committed together,
+ * so either all the models are updated or none of them.<br>
+ * Only iRules and Data-Groups belong to the tm modules and can take part in a transaction,
+ * see {@link #isTransactional(ModelObject)}.<br>
+ * The completion of every added model is called once the transaction is committed or failed,
+ * with a null response body since the local file already holds the committed content.
+ */
+public class RestTransaction {
+
+    private static Logger logger = Logger.getLogger(RestTransaction.class);
+
+    public static final String COORDINATION_ID_HEADER = "X-F5-REST-Coordination-Id";
+    static final String TRANSACTION_ENDPOINT = "mgmt/tm/transaction";
+    private static final String TRANS_ID = "transId";
+    private static final String STATE = "state";
+    private static final String COMMIT_BODY = "{\"state\":\"VALIDATING\"}";
+
+    /**
+     * Seconds to wait for the transaction requests responses
+     */
+    static final long RESPONSE_TIMEOUT = 120;
+
+    private final BigIPConnection conn;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private String transId;
+    private boolean running = false;
+
+    RestTransaction(BigIPConnection conn) {
+        this.conn = conn;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn.getName());
+        builder.append(" ").append(transId);
+        builder.append(" ").append(entries.size());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * @return true if the model update can be queued in a transaction.
+     */
+    public static boolean isTransactional(ModelObject model) {
+        return model instanceof RestRule || model instanceof DataGroup;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Add the update of the model to this transaction.<br>
+     * The model is posted if it was locally added, otherwise it is patched.<br>
+     * The connection job count is incremented until the completion is called,
+     * as if the update was sent by its own job.<br>
+     * A model whose file holds the content of the last response is skipped, like in {@link ModelObject#iControlRestPatchJob}.
+     * @return false if the transaction already started running and can not take more models.
+     */
+    public synchronized boolean add(ModelObject model, RequestCompletion completion) {
+        if (running) {
+            return false;
+        }
+        if (!model.isLocallyAdded() && model.hasLastResponseContent()) {
+            logger.warn("Big-IP already have content of " + model);
+            return true;
+        }
+        conn.incrementJobCount();
+        entries.add(new Entry(model, completion));
+        return true;
+    }
+
+    /**
+     * Schedule a {@link TransactionJob} that runs this transaction.
+     */
+    public void commitJob(ISchedulingRule mutex) {
+        commitJob(mutex, 0);
+    }
+
+    /**
+     * Schedule a {@link TransactionJob} that runs this transaction after the delay in milliseconds,
+     * models can be added until it starts running.
+     */
+    public void commitJob(ISchedulingRule mutex, long delay) {
+        new TransactionJob(this, mutex).schedule(delay);
+    }
+
+    /**
+     * Synchronously create the transaction, queue the added updates in it and commit it.<br>
+     * Data-Groups are queued before the iRules so rules may refer to the Data-Groups they come with.<br>
+     * On any failure the transaction is dropped and the completions of all the models fail.<br>
+     * A single model is sent by itself since a transaction would only add round trips.<br>
+     * Models the Big-IP already has the content of are completed without being sent.
+     */
+    public IStatus run() {
+        List<Entry> dataGroups = new ArrayList<Entry>();
+        List<Entry> others = new ArrayList<Entry>();
+        synchronized (this) {
+            running = true;
+        }
+        completeUnchanged();
+        synchronized (this) {
+            if (entries.isEmpty()) {
+                return Status.OK_STATUS;
+            }
+            if (entries.size() == 1) {
+                return runSingle(entries.remove(0));
+            }
+            for (Entry entry : entries) {
+                (entry.model instanceof DataGroup ? dataGroups : others).add(entry);
+            }
+        }
+        logger.debug("Run " + this);
+        Exception failure = null;
+        try {
+            JsonObject created = sendAndWait(RestMethod.POST, getTransactionUri(null), "{}");
+            JsonElement transIdElement = created == null ? null : created.get(TRANS_ID);
+            if (transIdElement == null) {
+                throw new IllegalStateException("No " + TRANS_ID + " in " + created);
+            }
+            transId = transIdElement.getAsString();
+            queue(dataGroups);
+            queue(others);
+            JsonObject committed = sendAndWait(RestMethod.PATCH, getTransactionUri(transId), COMMIT_BODY);
+            JsonElement state = committed == null ? null : committed.get(STATE);
+            if (state != null && state.getAsString().equals("FAILED")) {
+                throw new IllegalStateException(Messages.TRANSACTION_FAILED + " " + committed);
+            }
+        } catch (Exception ex) {
+            failure = ex;
+        }
+        if (failure == null) {
+            logger.debug("Committed " + this);
+            complete(null);
+            return Status.OK_STATUS;
+        }
+        logger.warn(Messages.TRANSACTION_FAILED + " " + this, failure);
+        if (transId != null) {
+            // Drop the transaction so none of its queued requests is applied
+            RestFramework.sendRequest(conn, RestMethod.DELETE, getTransactionUri(transId), null, null,
+                new ResponseLatch());
+        }
+        complete(failure);
+        return new Status(IStatus.WARNING, Ids.PLUGIN, Messages.TRANSACTION_FAILED, failure);
+    }
+
+    /**
+     * Remove the entries of models whose content has the digest of the content the Big-IP has,
+     * see {@link ModelObject#hasDeployedContent()}, and complete them as if they were sent.
+     */
+    private void completeUnchanged() {
+        List<Entry> unchanged = new ArrayList<Entry>();
+        synchronized (this) {
+            for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+                Entry entry = iterator.next();
+                if (!entry.model.isLocallyAdded() && entry.model.hasDeployedContent()) {
+                    unchanged.add(entry);
+                    iterator.remove();
+                }
+            }
+        }
+        for (Entry entry : unchanged) {
+            logger.debug("Big-IP already have the content of " + entry.model + ". Skip update");
+            entry.completion.setConnectionJobCount(conn.decrementJobCount());
+            entry.completion.completed(null, null, null);
+        }
+    }
+
+    private IStatus runSingle(final Entry entry) {
+        RequestCompletion completion = new RequestCompletion() {
+            @Override
+            public void completed(String method, String uri, JsonObject responseBody) {
+                entry.completion.setConnectionJobCount(conn.decrementJobCount());
+                entry.completion.completed(method, uri, responseBody);
+            }
+
+            @Override
+            public void failed(Exception ex, String method, String uri, String responseBody) {
+                entry.completion.setConnectionJobCount(conn.decrementJobCount());
+                entry.completion.failed(ex, method, uri, responseBody);
+            }
+
+            @Override
+            public boolean isJson() {
+                return entry.completion.isJson();
+            }
+        };
+        ModelObject model = entry.model;
+        IStatus status = model.isLocallyAdded() ? model.iControlRestPost(completion) : model.iControlRestPatch(completion);
+        if (!status.isOK()) {
+            Throwable statusException = status.getException();
+            completion.failed(statusException instanceof Exception ? (Exception) statusException : null, null, null, null);
+        }
+        return status;
+    }
+
+    /**
+     * Send the requests of all the entries without waiting for each other, then wait for all their responses.<br>
+     * Sending a request may block (e.g. waiting for a permit of the connection {@link ConcurrencyLimiter}),
+     * so the requests are sent from a thread pool bounded by the maximum limit of the connection.
+     */
+    private void queue(List<Entry> queueEntries) throws Exception {
+        if (queueEntries.isEmpty()) {
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(queueEntries.size());
+        List<QueuedCompletion> queued = new ArrayList<QueuedCompletion>();
+        int threads = Math.min(queueEntries.size(), conn.getConcurrencyLimiter().getMaxLimit());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Entry entry : queueEntries) {
+                final QueuedCompletion completion = new QueuedCompletion(entry, latch);
+                queued.add(completion);
+                final ModelObject model = entry.model;
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            IStatus status = model.isLocallyAdded() ?
+                                model.iControlRestPost(completion) : model.iControlRestPatch(completion);
+                            if (!status.isOK()) {
+                                completion.failed(new Exception(status.getMessage(), status.getException()),
+                                    null, null, null);
+                            }
+                        } catch (RuntimeException ex) {
+                            completion.failed(ex, null, null, null);
+                        }
+                    }
+                });
+            }
+            if (!latch.await(RESPONSE_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timeout queueing requests in " + this);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (QueuedCompletion completion : queued) {
+            if (completion.exception != null) {
+                throw completion.exception;
+            }
+        }
+    }
+
+    /**
+     * Call the completions of all the entries, as successful if the failure is null.
+     */
+    private void complete(Exception failure) {
+        List<Entry> completed;
+        synchronized (this) {
+            completed = new ArrayList<Entry>(entries);
+            entries.clear();
+        }
+        for (Entry entry : completed) {
+            int jobCount = conn.decrementJobCount();
+            entry.completion.setConnectionJobCount(jobCount);
+            if (failure == null) {
+                entry.completion.completed(entry.method, entry.uri, null);
+            } else {
+                entry.completion.failed(failure, entry.method, entry.uri, null);
+            }
+        }
+    }
+
+    private JsonObject sendAndWait(RestMethod method, String uri, String body) throws Exception {
+        ResponseLatch completion = new ResponseLatch();
+        IStatus status = RestFramework.sendRequest(conn, method, uri, null, body, completion);
+        if (!status.isOK()) {
+            throw new Exception(status.getMessage(), status.getException());
+        }
+        return completion.await(method + " " + uri);
+    }
+
+    private String getTransactionUri(String id) {
+        RestURI uri = conn.getURI(TRANSACTION_ENDPOINT);
+        if (id != null) {
+            uri.append(id);
+        }
+        return uri.toString();
+    }
+
+    /**
+     * A model added to the transaction, with the method and uri its request was queued with.
+     */
+    private static class Entry {
+        private final ModelObject model;
+        private final RequestCompletion completion;
+        private String method;
+        private String uri;
+
+        private Entry(ModelObject model, RequestCompletion completion) {
+            this.model = model;
+            this.completion = completion;
+        }
+    }
+
+    /**
+     * Completion of a request queued in the transaction. Its response is the queued command, not the applied model.
+     */
+    private class QueuedCompletion extends RequestCompletion {
+
+        private final Entry entry;
+        private final CountDownLatch latch;
+        private Exception exception;
+
+        private QueuedCompletion(Entry entry, CountDownLatch latch) {
+            this.entry = entry;
+            this.latch = latch;
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return transId;
+        }
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            logger.trace("Queued " + method + " " + uri + " in " + RestTransaction.this);
+            entry.method = method;
+            entry.uri = uri;
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            exception = ex != null ? ex : new Exception(method + " " + uri + " " + responseBody);
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Hand the response of a transaction request over to the thread waiting for it.
+     */
+    private static class ResponseLatch extends RequestCompletion {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private JsonObject response;
+        private Exception exception;
+
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            response = responseBody;
+            latch.countDown();
+        }
+
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            exception = ex != null ? ex : new Exception(method + " " + uri + " " + responseBody);
+            latch.countDown();
+        }
+
+        private JsonObject await(String request) throws Exception {
+            if (!latch.await(RESPONSE_TIMEOUT, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timeout waiting for " + request);
+            }
+            if (exception != null) {
+                throw exception;
+            }
+            return response;
+        }
+    }
+}
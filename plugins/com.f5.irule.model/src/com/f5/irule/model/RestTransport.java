@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import com.f5.rest.common.RestOperation.RestMethod;
+
+/**
+ * The way REST requests and file uploads reach the Big-IP of a {@link BigIPConnection}.<br>
+ * {@link RestFramework#getTransport(BigIPConnection)} selects the transport of a connection:<br>
+ * the pooled Apache HttpClient {@link HttpClientTransport}, directly or through the proxy,<br>
+ * or the f5.rest.jar {@link F5RestTransport} for direct connections when configured to,<br>
+ * or the {@link ReplayTransport} of all connections when a captured traffic file is replayed.
+ */
+interface RestTransport {
+
+    /**
+     * Send the request without waiting for the response.<br>
+     * The response is delegated to the {@link RequestCompletion}.
+     */
+    void sendRequest(BigIPConnection conn, RestMethod method, String uri, String body,
+            RequestCompletion completion) throws Exception;
+
+    /**
+     * Start uploading the local file to the uri,
+     * the {@link RestFrameworkCompletionHandler} is called once the upload finishes.
+     */
+    void uploadResource(BigIPConnection conn, String uri, String localFilePath,
+            RestFrameworkCompletionHandler completionHandler) throws Exception;
+}
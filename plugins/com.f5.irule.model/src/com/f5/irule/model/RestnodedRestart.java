@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.ui.statushandlers.StatusManager;
+
+import com.f5.irule.model.jobs.RestartRestnodedJob;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonObject;
+
+/**
+ * Restarts the restnoded service of a {@link BigIPConnection} once after a burst of iAppsLX file writes.<br>
+ * The writes that require a restart are counted from {@link #writeStarted()} to {@link #writeFinished(boolean)}.
+ * When the last outstanding write finished and one of them succeeded, a single {@link RestartRestnodedJob}
+ * is scheduled to run {@link #SETTLE_DELAY} milliseconds later.<br>
+ * A write that starts in the meantime cancels it, and the job checks again that no write is outstanding
+ * and that the delay passed since the last one finished, so restnoded is never restarted under a running write.
+ */
+public class RestnodedRestart {
+
+    private static Logger logger = Logger.getLogger(RestnodedRestart.class);
+
+    static final long SETTLE_DELAY = 1500;
+
+    private final BigIPConnection conn;
+    private RestartRestnodedJob job;
+    /**
+     * Writes that started and did not finish yet. Guarded by this.
+     */
+    private int outstanding = 0;
+    /**
+     * True if a write succeeded since the last restart. Guarded by this.
+     */
+    private boolean restartNeeded = false;
+    private long lastFinished = 0;
+
+    RestnodedRestart(BigIPConnection conn) {
+        this.conn = conn;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn.getName());
+        builder.append(" outstanding=").append(outstanding);
+        builder.append(" restartNeeded=").append(restartNeeded);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * A write that requires a restart started, postpone the restart until it finishes.
+     */
+    public synchronized void writeStarted() {
+        outstanding++;
+        logger.trace("Write started on " + this);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * A write counted by {@link #writeStarted()} finished.<br>
+     * If it was the last outstanding write and a restart is needed,
+     * schedule the restart after {@link #SETTLE_DELAY}.
+     * @param succeeded true if the write changed the file on the Big-IP, so restnoded has to be restarted
+     */
+    public synchronized void writeFinished(boolean succeeded) {
+        if (outstanding > 0) {
+            outstanding--;
+        } else {
+            logger.warn("Write finished without a started write on " + this);
+        }
+        if (succeeded) {
+            restartNeeded = true;
+        }
+        lastFinished = System.currentTimeMillis();
+        logger.trace("Write finished on " + this);
+        if (outstanding == 0 && restartNeeded) {
+            schedule(SETTLE_DELAY);
+        }
+    }
+
+    private void schedule(long delay) {
+        if (job == null) {
+            job = new RestartRestnodedJob(this);
+        } else {
+            job.cancel();
+        }
+        job.schedule(delay);
+    }
+
+    /**
+     * Return true if restnoded can be restarted now, i.e. a restart is needed, no write is outstanding
+     * and the writes settled for {@link #SETTLE_DELAY}.<br>
+     * If the writes have not settled yet reschedule the job for the rest of the delay.
+     */
+    private synchronized boolean claimRestart() {
+        if (outstanding > 0 || !restartNeeded) {
+            return false;
+        }
+        long remaining = lastFinished + SETTLE_DELAY - System.currentTimeMillis();
+        if (remaining > 0) {
+            schedule(remaining);
+            return false;
+        }
+        restartNeeded = false;
+        return true;
+    }
+
+    /**
+     * Send a REST request to the Big-ip to restart the restnoded service,
+     * unless a write started since the restart was scheduled.
+     */
+    public void restart() {
+        if (!claimRestart()) {
+            logger.trace("Skip the restart of restnoded on " + this);
+            return;
+        }
+        logger.debug("Restart restnoded on " + conn);
+        IStatus status = new Status(IStatus.INFO, Ids.PLUGIN, Messages.REQUESTED_RESTART_OF_RESTNODED_SERVICE);
+        StatusManager.getManager().handle(status, StatusManager.LOG);
+
+        String uri = conn.getURI(RestFramework.MGMT_TM_SYS_SERVICE).toString();
+        JsonObject restartJson = new JsonObject();
+        restartJson.addProperty("command", "restart");
+        restartJson.addProperty("name", "restnoded");
+        String body = restartJson.toString();
+
+        // The restart is a side task that does not take part in the connection job count,
+        // so the UI connection label does not remain with the '(Loading)' suffix while it runs.
+        RestFramework.sendRequest(conn, RestMethod.POST, uri, "application/json", body, new LogMessageCompletion());
+    }
+
+    /**
+     * {@link RequestCompletion} that logs a restnoded successful/failed message to the plug-in UI<br>
+     * when the restart restnoded request execution completes
+     */
+    private static class LogMessageCompletion extends RequestCompletion {
+        @Override
+        public void completed(String method, String uri, JsonObject responseBody) {
+            logger.debug("Completed " + method + " " + uri + " response:\n" + responseBody);
+        }
+        @Override
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            logger.warn("Failed " + method + " " + uri + " response:\n" + responseBody, ex);
+            IStatus status = new Status(IStatus.ERROR, Ids.PLUGIN, Messages.FAILED_RESTNODED_SERVICE, ex);
+            StatusManager.getManager().handle(status, StatusManager.SHOW | StatusManager.LOG);
+        }
+    }
+}
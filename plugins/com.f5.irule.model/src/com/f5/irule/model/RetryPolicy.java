@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Exponential backoff with jitter for retrying operations that failed for a transient reason.<br>
+ * The delay before retry n is a random value between half and all of min(maxDelay, baseDelay * 2^n),
+ * so callers that failed together do not retry together.<br>
+ * A call is retried at most maxRetries times and not after its budget of milliseconds since the first attempt.<br>
+ * Each call tracks its own retries with an {@link Attempts} object from {@link #start()}.
+ */
+public class RetryPolicy {
+
+    private static Logger logger = Logger.getLogger(RetryPolicy.class);
+
+    /**
+     * REST requests sent by a {@link com.f5.irule.model.jobs.ConnectionJob}
+     */
+    public static final RetryPolicy REST_REQUEST = new RetryPolicy(4, 500, 8000, 30000);
+
+    /**
+     * Short waits for the workspace, such as a resource that is not local yet or a project that is not open yet
+     */
+    public static final RetryPolicy RESOURCE_STATE = new RetryPolicy(6, 50, 1000, 2000);
+
+    /**
+     * Deleting a resource that is still locked by a previous workspace operation
+     */
+    public static final RetryPolicy RESOURCE_DELETE = new RetryPolicy(12, 250, 5000, 60000);
+
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_BAD_GATEWAY = 502;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+    private static final int STATUS_GATEWAY_TIMEOUT = 504;
+
+    private static final Random random = new Random();
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long budget;
+
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, long budget) {
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.budget = budget;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" maxRetries=").append(maxRetries);
+        builder.append(" baseDelay=").append(baseDelay);
+        builder.append(" maxDelay=").append(maxDelay);
+        builder.append(" budget=").append(budget);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * Start tracking the retries of a call.
+     */
+    public Attempts start() {
+        return new Attempts();
+    }
+
+    long getDelay(int retry) {
+        long ceiling = baseDelay << Math.min(retry, 30);
+        if (ceiling <= 0 || ceiling > maxDelay) {
+            ceiling = maxDelay;
+        }
+        long half = ceiling / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (ceiling - half));
+        }
+    }
+
+    /**
+     * Return true if the Big-IP answered with a status meaning it is busy and did not process the request.<br>
+     * A 503 from a busy restjavad, or a 429, means the request was not processed, so any request can be sent again.<br>
+     * Gateway errors are not included, see {@link #isRetryable(String, Throwable)}.
+     */
+    public static boolean isRetryableStatus(int statusCode) {
+        return statusCode == STATUS_SERVICE_UNAVAILABLE || statusCode == STATUS_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Return true if a request with the given method that failed with the exception may be sent again.<br>
+     * Requests the Big-IP did not process ({@link #isRetryableStatus(int)}) are retried for every method.<br>
+     * Gateway errors and transport failures might have happened after the request was processed,
+     * so they are retried only for the idempotent GET, PUT and PATCH methods.
+     */
+    public static boolean isRetryable(String method, Throwable ex) {
+        int statusCode = RestStatusException.getStatusCode(ex);
+        if (isRetryableStatus(statusCode)) {
+            return true;
+        }
+        boolean idempotent = "GET".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+        if (!idempotent) {
+            return false;
+        }
+        if (statusCode == STATUS_BAD_GATEWAY || statusCode == STATUS_GATEWAY_TIMEOUT) {
+            return true;
+        }
+        return statusCode < 0 && ConnectionHealthMonitor.isTransportFailure(ex);
+    }
+
+    /**
+     * The retries of a single call.
+     */
+    public class Attempts {
+
+        private final long startTime = System.currentTimeMillis();
+        private int retries = 0;
+
+        private Attempts() {
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Count a retry and return the delay in milliseconds to wait before it.<br>
+         * Return -1 if the call used all its retries or its budget.
+         */
+        public long nextDelay() {
+            if (retries >= maxRetries) {
+                return -1;
+            }
+            long delay = getDelay(retries);
+            long elapsed = System.currentTimeMillis() - startTime;
+            if (elapsed + delay > budget) {
+                return -1;
+            }
+            retries++;
+            return delay;
+        }
+
+        /**
+         * Wait before the next retry of a synchronous call.
+         * @return false if no retry is left or the thread was interrupted
+         */
+        public boolean await() {
+            long delay = nextDelay();
+            if (delay < 0) {
+                return false;
+            }
+            logger.trace("Retry " + retries + " in " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IPath;
+
+import com.f5.irule.model.BigIPConnection.Module;
+
+/**
+ * Remembers the Big-IP version stamp ({@link ItemData#getStamp()}) of every iRule
+ * loaded from a {@link BigIPConnection}, per module.<br>
+ * A refresh compares a lightweight listing of the rules with these stamps
+ * so it only needs to fetch the bodies of the rules that changed since they were last loaded.<br>
+ * The keys are the rules registry paths as created by {@link RuleProvider#createRegPath(Connection, IPath)}.
+ */
+public class RuleGenerations {
+
+    private static Logger logger = Logger.getLogger(RuleGenerations.class);
+
+    private final String address;
+    private final HashMap<Module, HashMap<IPath, String>> stamps = new HashMap<Module, HashMap<IPath, String>>();
+
+    RuleGenerations(String address) {
+        this.address = address;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(address);
+        builder.append(" ").append(stamps.keySet());
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * @return true if a full listing of the module rules was loaded,
+     * so a refresh can be computed from the changes since then.
+     */
+    public synchronized boolean isLoaded(Module module) {
+        return stamps.containsKey(module);
+    }
+
+    /**
+     * Replace the stamps of the module with the stamps of a full rules listing.
+     */
+    public synchronized void loaded(Module module, Map<IPath, String> moduleStamps) {
+        logger.debug(this + " loaded " + moduleStamps.size() + " " + module + " rules");
+        stamps.put(module, new HashMap<IPath, String>(moduleStamps));
+    }
+
+    /**
+     * Record the stamp of a single rule whose body was fetched.
+     */
+    public synchronized void update(Module module, IPath regPath, String stamp) {
+        HashMap<IPath, String> moduleStamps = stamps.get(module);
+        if (moduleStamps != null) {
+            moduleStamps.put(regPath, stamp);
+        }
+    }
+
+    /**
+     * Return the rules of the listing whose stamp differs from the recorded one,
+     * including rules that were not loaded before.
+     */
+    public synchronized List<IPath> getChanged(Module module, Map<IPath, String> listing) {
+        List<IPath> changed = new ArrayList<IPath>();
+        HashMap<IPath, String> moduleStamps = stamps.get(module);
+        for (Map.Entry<IPath, String> entry : listing.entrySet()) {
+            IPath regPath = entry.getKey();
+            String recorded = moduleStamps == null ? null : moduleStamps.get(regPath);
+            if (recorded == null || !recorded.equals(entry.getValue())) {
+                changed.add(regPath);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Forget the stamps of the module rules that are not in the given set,
+     * since they were deleted on the Big-IP.
+     */
+    public synchronized void retain(Module module, Set<IPath> regPaths) {
+        HashMap<IPath, String> moduleStamps = stamps.get(module);
+        if (moduleStamps == null) {
+            return;
+        }
+        Iterator<IPath> iterator = moduleStamps.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!regPaths.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Forget the stamps of the module, so the next load would fetch all its rules.
+     */
+    public synchronized void invalidate(Module module) {
+        stamps.remove(module);
+    }
+
+    public synchronized void clear() {
+        stamps.clear();
+    }
+}
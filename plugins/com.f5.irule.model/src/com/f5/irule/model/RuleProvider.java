@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -22,6 +23,7 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -40,6 +42,7 @@ import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * A Controller between the model and the UI view,<br>
@@ -72,36 +75,152 @@ public class RuleProvider {
      * Filter only rules that match with the connection current partition value.<br>
      * For each rule create an {@link IPath} composed from the filePath as prefix
      * and the rule name with .tcl ending as suffix.<br>
-     * The map keys are the rules paths and the values are the {@link Rule} objects.
+     * The map keys are the rules paths and the values are the {@link Rule} objects.<br>
+     * The rules version stamps are recorded in the connection {@link RuleGenerations}.
      */
     public static HashMap<IPath, Rule> parseIrules(BigIPConnection conn, Module module, JsonElement jsonBody) {
         List<JsonObject> jsonItemsList = getJsonItemsList(jsonBody);
-        ModelObject.Type type;
-        String folderId;
-        if (module.equals(Module.gtm)){
-            type = ModelObject.Type.GTM_RULE;
-            folderId = Ids.IRULES_GTM_FOLDER;
-        }
-        else{
-            type = ModelObject.Type.LTM_RULE;
-            folderId = Ids.IRULES_LTM_FOLDER;
-        }
     	HashMap<IPath, Rule> rules = new HashMap<IPath, Rule>();
+    	HashMap<IPath, String> stamps = new HashMap<IPath, String>();
     	for (JsonObject jsonObject : jsonItemsList) {
     	    ItemData itemData = ItemData.getData(jsonObject);
-            if (itemData != null &&
-    	          (itemData.name.length() > 0) &&
-    	          (itemData.fullPath == null || itemData.fullPath.segmentCount() <= 2)) {
-                String rulePartition = itemData.partition;
-                IPath path = new Path(rulePartition).append(folderId).append(itemData.name + "." + TCL);
-	            RestRule rule = getRestRule(itemData.name, conn, type, path, rulePartition, itemData.body);
-	            IPath regPath = createRegPath(conn, path);// Add to rule registry
-	            rules.put(regPath, rule); 
-    	    }            
+    	    addRule(conn, module, itemData, rules, stamps);
+        }
+    	recordStamps(conn, module, stamps);
+        return rules;
+    }
+
+    /**
+     * Streaming version of {@link #parseIrules(BigIPConnection, Module, JsonElement)}.<br>
+     * Read the rules collection response from the reader one item at a time,
+     * so only the current item is held in memory besides the created {@link Rule} objects.
+     */
+    public static HashMap<IPath, Rule> parseIrules(final BigIPConnection conn, final Module module, JsonReader reader)
+            throws IOException {
+        final HashMap<IPath, Rule> rules = new HashMap<IPath, Rule>();
+        final HashMap<IPath, String> stamps = new HashMap<IPath, String>();
+        readItems(reader, new JsonElementVisitor() {
+            public void visit(ItemData itemData) {
+                addRule(conn, module, itemData, rules, stamps);
+            }
+        });
+        recordStamps(conn, module, stamps);
+        return rules;
+    }
+
+    /**
+     * Parse the response of a single rule GET request to a Map with the one {@link Rule},
+     * and update its version stamp in the connection {@link RuleGenerations}.
+     */
+    public static HashMap<IPath, Rule> parseIrule(BigIPConnection conn, Module module, JsonElement jsonBody) {
+        HashMap<IPath, Rule> rules = new HashMap<IPath, Rule>();
+        HashMap<IPath, String> stamps = new HashMap<IPath, String>();
+        ItemData itemData = ItemData.getData(jsonBody);
+        addRule(conn, module, itemData, rules, stamps);
+        RuleGenerations generations = conn.getRuleGenerations();
+        for (Map.Entry<IPath, String> entry : stamps.entrySet()) {
+            String stamp = entry.getValue();
+            if (stamp == null) {
+                generations.invalidate(module);
+            } else {
+                generations.update(module, entry.getKey(), stamp);
+            }
         }
         return rules;
     }
 
+    /**
+     * Read a lightweight rules listing, one that was requested without the rules bodies.<br>
+     * Return a Map from the path of each rule, as created by {@link #parseIrules(BigIPConnection, Module, JsonReader)},
+     * to its version stamp. The stamp is null if the Big-IP did not provide one.
+     */
+    public static HashMap<IPath, String> parseIrulesListing(final BigIPConnection conn, final Module module,
+            JsonReader reader) throws IOException {
+        final HashMap<IPath, String> listing = new HashMap<IPath, String>();
+        readItems(reader, new JsonElementVisitor() {
+            public void visit(ItemData itemData) {
+                IPath path = getRulePath(module, itemData);
+                if (path != null) {
+                    listing.put(createRegPath(conn, path), itemData.getStamp());
+                }
+            }
+        });
+        return listing;
+    }
+
+    /**
+     * Read a collection response from the reader and call the visitor with each of its items,
+     * without building a json tree of the whole response.
+     */
+    private static void readItems(JsonReader reader, JsonElementVisitor visitor) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("items") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    ItemData itemData = ItemData.read(reader);
+                    if (itemData != null) {
+                        visitor.visit(itemData);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Create a {@link Rule} from the item data and put it in the rules map,
+     * unless it has no name or is not a top level rule of a partition.<br>
+     * Put the item version stamp in the stamps map under the same key.
+     */
+    private static void addRule(BigIPConnection conn, Module module, ItemData itemData,
+            HashMap<IPath, Rule> rules, HashMap<IPath, String> stamps) {
+        IPath path = getRulePath(module, itemData);
+        if (path != null) {
+            ModelObject.Type type = module.equals(Module.gtm) ? ModelObject.Type.GTM_RULE : ModelObject.Type.LTM_RULE;
+            RestRule rule = getRestRule(itemData.name, conn, type, path, itemData.partition, itemData.body);
+            IPath regPath = createRegPath(conn, path);// Add to rule registry
+            rules.put(regPath, rule);
+            stamps.put(regPath, itemData.getStamp());
+        }
+    }
+
+    /**
+     * Return the local path of the rule item,
+     * or null if it has no name or is not a top level rule of a partition.
+     */
+    private static IPath getRulePath(Module module, ItemData itemData) {
+        if (itemData != null &&
+              itemData.name != null && (itemData.name.length() > 0) &&
+              (itemData.fullPath == null || itemData.fullPath.segmentCount() <= 2)) {
+            String folderId = module.equals(Module.gtm) ? Ids.IRULES_GTM_FOLDER : Ids.IRULES_LTM_FOLDER;
+            return new Path(itemData.partition).append(folderId).append(itemData.name + "." + TCL);
+        }
+        return null;
+    }
+
+    /**
+     * Record the stamps of a full rules listing in the connection {@link RuleGenerations}.<br>
+     * If any rule has no stamp the Big-IP does not provide them,
+     * so forget the module stamps and keep loading the full listing.
+     */
+    private static void recordStamps(BigIPConnection conn, Module module, HashMap<IPath, String> stamps) {
+        RuleGenerations generations = conn.getRuleGenerations();
+        if (stamps.containsValue(null)) {
+            generations.invalidate(module);
+        } else {
+            generations.loaded(module, stamps);
+        }
+    }
+
     public static ModelObject.Type getDataGroupType(Module module) {
         return (module.equals(Module.gtm)) ? ModelObject.Type.GTM_DATA_GROUP : ModelObject.Type.LTM_DATA_GROUP;
     }
@@ -164,7 +283,11 @@ public class RuleProvider {
         return ans;
     }
 
-    private static IPath createRegPath(Connection conn, IPath path) {
+    /**
+     * Create the registry path of a rule:<br>
+     * The connection address followed by the rule local path.
+     */
+    public static IPath createRegPath(Connection conn, IPath path) {
         IPath regPath = new Path("/");
         regPath = regPath.append(conn.getAddress());
         regPath = regPath.append(path);
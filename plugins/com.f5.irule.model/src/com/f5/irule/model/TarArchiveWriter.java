@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes regular files to a gzip compressed ustar archive, the format the Big-IP tar extracts.<br>
+ * Entries are owned by root with mode 644, directories are created by tar when it extracts the files.
+ */
+class TarArchiveWriter implements Closeable {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    TarArchiveWriter(File archive) throws IOException {
+        out = new GZIPOutputStream(new FileOutputStream(archive));
+    }
+
+    /**
+     * Append the content of the local file as an archive entry with the given relative name.
+     * @throws IOException if the name can not be stored in a ustar header.
+     */
+    void addFile(String name, File file) throws IOException {
+        long size = file.length();
+        out.write(createHeader(name, size, file.lastModified() / 1000));
+        InputStream in = new FileInputStream(file);
+        long written = 0;
+        try {
+            int read;
+            while (written < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - written))) > 0) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        } finally {
+            in.close();
+        }
+        if (written != size) {
+            throw new IOException("Size of " + file + " changed while archiving it");
+        }
+        int padding = (int) (size % BLOCK_SIZE);
+        if (padding > 0) {
+            out.write(new byte[BLOCK_SIZE - padding]);
+        }
+    }
+
+    /**
+     * Write the two empty blocks that end the archive and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write(new byte[BLOCK_SIZE * 2]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] createHeader(String name, long size, long mtime) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] prefixBytes = new byte[0];
+        if (nameBytes.length > NAME_LENGTH) {
+            // Long names are split on a '/' between the prefix and the name fields
+            int split = name.lastIndexOf('/');
+            while (split > 0 && name.substring(split + 1).getBytes(UTF_8).length <= NAME_LENGTH) {
+                prefixBytes = name.substring(0, split).getBytes(UTF_8);
+                nameBytes = name.substring(split + 1).getBytes(UTF_8);
+                if (prefixBytes.length <= PREFIX_LENGTH) {
+                    break;
+                }
+                split = name.lastIndexOf('/', split - 1);
+            }
+            if (nameBytes.length > NAME_LENGTH || prefixBytes.length > PREFIX_LENGTH || prefixBytes.length == 0) {
+                throw new IOException("Name too long for a tar entry: " + name);
+            }
+        }
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(header, 100, 8, 0644);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, mtime);
+        header[156] = '0';
+        putAscii(header, 257, "ustar\0");
+        putAscii(header, 263, "00");
+        putAscii(header, 265, "root");
+        putAscii(header, 297, "root");
+        System.arraycopy(prefixBytes, 0, header, 345, prefixBytes.length);
+        // The checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putOctal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Write the value as zero padded octal digits followed by a NUL, filling the field.
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value) throws IOException {
+        String octal = Long.toOctalString(value);
+        if (octal.length() > length - 1) {
+            throw new IOException("Value " + value + " does not fit a tar header field");
+        }
+        int start = offset + length - 1 - octal.length();
+        Arrays.fill(header, offset, start, (byte) '0');
+        putAscii(header, start, octal);
+        header[offset + length - 1] = 0;
+    }
+
+    private static void putAscii(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+/**
+ * Collects the model updates of a {@link BigIPConnection} that are triggered close to each other,
+ * such as many files changed by a single workspace operation,
+ * and sends them to the Big-IP together in one {@link RestTransaction}.<br>
+ * The transaction runs {@link #BATCH_DELAY} milliseconds after its first update was added.
+ */
+public class TransactionBatch {
+
+    static final long BATCH_DELAY = 500;
+
+    private final BigIPConnection conn;
+    private RestTransaction pending;
+
+    TransactionBatch(BigIPConnection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Add the model update to the pending transaction.<br>
+     * If there is none, or it already started running, start a new one.
+     */
+    public synchronized void add(ModelObject model, RequestCompletion completion, ISchedulingRule mutex) {
+        if (pending == null || !pending.add(model, completion)) {
+            pending = conn.newTransaction();
+            pending.add(model, completion);
+            pending.commitJob(mutex, BATCH_DELAY);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.log4j.Logger;
+import org.osgi.framework.BundleContext;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The persisted progress of a chunked upload,
+ * so an upload that failed or was interrupted by an exit resumes from the chunks the Big-IP already acknowledged.<br>
+ * One record is kept per target uri in the bundle data area. It holds the local file size, modification time
+ * and SHA-256 content hash, the chunk size and the acknowledged byte ranges.<br>
+ * A record is used only while all of them still match the uploaded file, and while it is not older than
+ * {@link #MAX_AGE}, after which the Big-IP may have cleaned up the partial upload.<br>
+ * The record is deleted once the upload completes, and as soon as an upload of any other file
+ * starts to the same target, e.g. the shared ILX staging file, since that upload overwrites the partial upload.
+ */
+class UploadProgress {
+
+    private static Logger logger = Logger.getLogger(UploadProgress.class);
+
+    static final String STORE_DIRECTORY = "uploads";
+    static final long MAX_AGE = 6 * 60 * 60 * 1000L;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String RECORD_SUFFIX = ".json";
+    private static final String ENCODING = "UTF-8";
+
+    private static boolean pruned = false;
+
+    private transient File recordFile;
+
+    private String target;
+    private String localFilePath;
+    private long size;
+    private long lastModified;
+    private String hash;
+    private int chunkSize;
+    /**
+     * Sorted, disjoint [start, end) byte ranges the Big-IP acknowledged.
+     */
+    private List<long[]> ranges = new ArrayList<long[]>();
+    private long updated;
+
+    private UploadProgress(String target, File file, String hash, int chunkSize) {
+        this.target = target;
+        this.localFilePath = file.getPath();
+        this.size = file.length();
+        this.lastModified = file.lastModified();
+        this.hash = hash;
+        this.chunkSize = chunkSize;
+        this.updated = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the progress of uploading the file to the target in chunks of the given size.<br>
+     * It holds the ranges acknowledged by a previous attempt if its record matches the file,
+     * otherwise the record is deleted and the progress starts empty.<br>
+     * Return null if the progress can not be persisted.
+     */
+    static UploadProgress open(String target, File file, int chunkSize) {
+        File store = getStore();
+        if (store == null) {
+            return null;
+        }
+        String hash;
+        try {
+            hash = hash(file);
+        } catch (IOException ex) {
+            logger.warn("Failed to hash " + file, ex);
+            return null;
+        }
+        File recordFile = new File(store, getRecordName(target));
+        UploadProgress progress = read(recordFile);
+        if (progress == null || !progress.matches(target, file, hash, chunkSize)) {
+            deleteRecord(recordFile);
+            progress = new UploadProgress(target, file, hash, chunkSize);
+        }
+        progress.recordFile = recordFile;
+        return progress;
+    }
+
+    private boolean matches(String target, File file, String hash, int chunkSize) {
+        return this.target != null && this.target.equals(target) &&
+            this.size == file.length() &&
+            this.lastModified == file.lastModified() &&
+            this.hash != null && this.hash.equals(hash) &&
+            this.chunkSize == chunkSize &&
+            this.ranges != null &&
+            System.currentTimeMillis() - this.updated <= MAX_AGE;
+    }
+
+    /**
+     * Return true if the Big-IP acknowledged all the bytes of the range.
+     */
+    synchronized boolean isAcknowledged(long start, long length) {
+        long end = start + length;
+        for (long[] range : ranges) {
+            if (range[0] <= start && end <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the range to the acknowledged ranges and persist the record.
+     */
+    synchronized void acknowledge(long start, long length) {
+        long[] added = new long[] { start, start + length };
+        List<long[]> merged = new ArrayList<long[]>(ranges.size() + 1);
+        for (long[] range : ranges) {
+            if (range[1] < added[0] || added[1] < range[0]) {
+                merged.add(range);
+            } else {
+                added[0] = Math.min(added[0], range[0]);
+                added[1] = Math.max(added[1], range[1]);
+            }
+        }
+        int index = 0;
+        while (index < merged.size() && merged.get(index)[0] < added[0]) {
+            index++;
+        }
+        merged.add(index, added);
+        ranges = merged;
+        updated = System.currentTimeMillis();
+        save();
+    }
+
+    synchronized long getAcknowledgedBytes() {
+        long count = 0;
+        for (long[] range : ranges) {
+            count += range[1] - range[0];
+        }
+        return count;
+    }
+
+    /**
+     * Forget the acknowledged ranges and the record, the Big-IP no longer has the partial upload.
+     */
+    synchronized void reset() {
+        ranges = new ArrayList<long[]>();
+        updated = System.currentTimeMillis();
+        delete();
+    }
+
+    /**
+     * Forget the progress, the upload completed or can not be resumed.
+     */
+    synchronized void delete() {
+        if (recordFile != null) {
+            deleteRecord(recordFile);
+        }
+    }
+
+    /**
+     * Forget the progress recorded for the target, an upload that is not resumed started to it.
+     */
+    static void clear(String target) {
+        File store = getStore();
+        if (store != null) {
+            deleteRecord(new File(store, getRecordName(target)));
+        }
+    }
+
+    private static void deleteRecord(File recordFile) {
+        if (recordFile.exists() && !recordFile.delete()) {
+            logger.warn("Failed to delete " + recordFile);
+        }
+    }
+
+    /**
+     * Write the record to a temporary file and move it over the previous record,
+     * so an exit in the middle leaves the previous record whole.
+     */
+    private void save() {
+        if (recordFile == null) {
+            return;
+        }
+        File temp = new File(recordFile.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), ENCODING);
+            try {
+                new Gson().toJson(this, writer);
+            } finally {
+                writer.close();
+            }
+            if (recordFile.exists() && !recordFile.delete()) {
+                throw new IOException("Failed to replace " + recordFile);
+            }
+            if (!temp.renameTo(recordFile)) {
+                throw new IOException("Failed to rename " + temp);
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to save the upload progress of " + localFilePath, ex);
+        }
+    }
+
+    private static UploadProgress read(File recordFile) {
+        if (!recordFile.isFile()) {
+            return null;
+        }
+        try {
+            Reader reader = new InputStreamReader(new FileInputStream(recordFile), ENCODING);
+            try {
+                return new Gson().fromJson(reader, UploadProgress.class);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to read " + recordFile, ex);
+        } catch (JsonParseException ex) {
+            logger.warn("Invalid upload progress " + recordFile, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Return the directory of the records in the bundle data area, or null if there is none.<br>
+     * Records that are too old to be used are deleted the first time.
+     */
+    private static synchronized File getStore() {
+        BundleContext context = Activator.getContext();
+        if (context == null) {
+            return null;
+        }
+        File store = context.getDataFile(STORE_DIRECTORY);
+        if (store == null || (!store.isDirectory() && !store.mkdirs())) {
+            return null;
+        }
+        if (!pruned) {
+            pruned = true;
+            prune(store);
+        }
+        return store;
+    }
+
+    private static void prune(File store) {
+        File[] files = store.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > MAX_AGE && !file.delete()) {
+                logger.warn("Failed to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * The record file name of a target: the hex hash of the target uri.
+     */
+    static String getRecordName(String target) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            byte[] bytes = digest.digest(target.getBytes(ENCODING));
+            return DatatypeConverter.printHexBinary(bytes).toLowerCase() + RECORD_SUFFIX;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Return the hex SHA-256 hash of the file content.
+     */
+    static String hash(File file) throws IOException {
+        return ModelUtils.digest(new FileInputStream(file));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" target=").append(target);
+        builder.append(" size=").append(size);
+        builder.append(" acknowledged=").append(getAcknowledgedBytes());
+        builder.append("]");
+        return builder.toString();
+    }
+}
@@ -15,27 +15,33 @@
  *******************************************************************************/
 package com.f5.irule.model;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 
 import com.f5.rest.common.RestFileTransferInformation;
-import com.f5.rest.common.RestOperation.RestMethod;
-import com.google.gson.JsonObject;
 
+/**
+ * Completes the transfer stage of an ILX file write.<br>
+ * Once the bytes are transferred the write permit is released
+ * and the install of the file is handed to the connection {@link IlxInstallStage},
+ * which releases the staging file when the install answered, only then the next ILX write starts its transfer.<br>
+ * If the transfer failed the staging file is released here.
+ */
 public class WriteILXResourceCompletionHandler extends RestFrameworkCompletionHandler {
 
     private static Logger logger = Logger.getLogger(WriteILXResourceCompletionHandler.class);
 
-    private BigIPConnection conn;
+    private IlxInstallStage installStage;
     private String partition;
     private String workspace;
     private String uploadFileCopy;
+    private final AtomicBoolean staged = new AtomicBoolean(true);
 
-    WriteILXResourceCompletionHandler(BigIPConnection conn, String partition, String workspace, String uploadFileCopy,
-            RequestCompletion finalCompletion, Semaphore mutex) {
-        super(finalCompletion, mutex);
-        this.conn = conn;
+    WriteILXResourceCompletionHandler(IlxInstallStage installStage, String partition, String workspace,
+            String uploadFileCopy, RequestCompletion finalCompletion) {
+        super(finalCompletion);
+        this.installStage = installStage;
         this.partition = partition;
         this.workspace = workspace;
         this.uploadFileCopy = uploadFileCopy;
@@ -52,27 +58,19 @@ public class WriteILXResourceCompletionHandler extends RestFrameworkCompletionHa
 
     @Override
     public void completed(RestFileTransferInformation operation) {
-        
-        String uri = createUri();
-        String body = createBody();
-        logger.debug("Success " + operation.targetReference.link +
-            "\n\tSend " + uri + " Completion: " + finalCompletion);
-        RestFramework.sendRequestToBigIP(conn, RestMethod.PATCH, uri, body, finalCompletion, 2000);
-        releaseMutex();
+        recordSuccess();
+        logger.debug("Success " + operation.targetReference.link);
+        releasePermit();
+        if (staged.compareAndSet(true, false)) {
+            installStage.install(partition, workspace, uploadFileCopy, finalCompletion);
+        }
     }
 
-    private String createBody() {
-        JsonObject json = new JsonObject();
-        json.addProperty("command", "modify");
-        String body = json.toString();
-        return body;
-    }
-
-    private String createUri() {
-        RestURI uri = conn.getURI(BigIPConnection.Module.ilx.name(), "workspace");
-        uri.appendPartitionedOID(partition, workspace);
-        uri.addOption("upload-file-copy", uploadFileCopy);
-        return uri.toString();
+    @Override
+    public void failed(Exception ex, RestFileTransferInformation info) {
+        super.failed(ex, info);
+        if (staged.compareAndSet(true, false)) {
+            installStage.releaseStaging();
+        }
     }
-
 }
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Striped write permits.<br>
+ * Every Big-IP connection allows up to {@link #getWidth()} writes at a time,
+ * and every stripe of a connection (e.g. an iAppsLX application, or all the ILX workspaces)
+ * allows a single write at a time.<br>
+ * Writes to different connections or to different stripes of the same connection run in parallel,
+ * while writes to the same stripe are serialized in the order they asked for the permit.<br>
+ * The connection width is read from the {@link #WIDTH_PROPERTY} system property.
+ */
+class WritePermits {
+
+    private static Logger logger = Logger.getLogger(WritePermits.class);
+
+    static final String WIDTH_PROPERTY = Ids.PLUGIN + ".writeConcurrency";
+    static final int DEFAULT_WIDTH = 2;
+
+    private final int width;
+    private final Map<String, Semaphore> connectionPermits = new HashMap<String, Semaphore>();
+    private final Map<String, Semaphore> stripePermits = new HashMap<String, Semaphore>();
+
+    WritePermits() {
+        this(Integer.getInteger(WIDTH_PROPERTY, DEFAULT_WIDTH));
+    }
+
+    WritePermits(int width) {
+        this.width = Math.max(1, width);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Try to acquire a write permit for the stripe of the connection, waiting up to the given timeout.<br>
+     * The stripe permit is acquired first so a queued write does not hold one of the connection permits.
+     * @return the acquired {@link Permit} or null if the timeout expired
+     */
+    Permit tryAcquire(String connection, String stripe, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Semaphore stripeSemaphore = getSemaphore(stripePermits, connection + "/" + stripe, 1);
+        if (!stripeSemaphore.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        Semaphore connectionSemaphore = getSemaphore(connectionPermits, connection, width);
+        long remaining = deadline - System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = connectionSemaphore.tryAcquire(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } finally {
+            if (!acquired) {
+                stripeSemaphore.release();
+            }
+        }
+        if (!acquired) {
+            return null;
+        }
+        logger.trace("Acquired write permit " + connection + "/" + stripe);
+        return new Permit(connectionSemaphore, stripeSemaphore);
+    }
+
+    private static Semaphore getSemaphore(Map<String, Semaphore> map, String key, int permits) {
+        synchronized (map) {
+            Semaphore semaphore = map.get(key);
+            if (semaphore == null) {
+                semaphore = new Semaphore(permits, true);
+                map.put(key, semaphore);
+            }
+            return semaphore;
+        }
+    }
+
+    /**
+     * An acquired write permit. Releasing it more than once has no effect.
+     */
+    static class Permit {
+
+        private final Semaphore connectionSemaphore;
+        private final Semaphore stripeSemaphore;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(Semaphore connectionSemaphore, Semaphore stripeSemaphore) {
+            this.connectionSemaphore = connectionSemaphore;
+            this.stripeSemaphore = stripeSemaphore;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                connectionSemaphore.release();
+                stripeSemaphore.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.jobs;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.f5.irule.model.Ids;
+import com.f5.irule.model.IlxBulkUpload;
+import com.f5.irule.model.RequestScheduler;
+
+/**
+ * A {@link Job} that runs an {@link IlxBulkUpload}.<br>
+ * The connection job count is maintained by the bulk upload for each of its files.
+ */
+public class BulkUploadJob extends Job {
+
+    private IlxBulkUpload bulkUpload;
+
+    public BulkUploadJob(IlxBulkUpload bulkUpload, ISchedulingRule mutex) {
+        super(Ids.ILX_BULK_UPLOAD);
+        this.bulkUpload = bulkUpload;
+        setRule(mutex);
+        setPriority(RequestScheduler.getJobPriority(mutex));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(bulkUpload);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        return bulkUpload.run();
+    }
+}
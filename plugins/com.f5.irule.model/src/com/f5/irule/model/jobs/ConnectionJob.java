@@ -15,6 +15,9 @@
  *******************************************************************************/
 package com.f5.irule.model.jobs;
 
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -23,9 +26,12 @@ import org.eclipse.core.runtime.jobs.Job;
 
 import com.f5.irule.model.BigIPConnection;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler;
+import com.f5.irule.model.RetryPolicy;
 import com.f5.rest.common.RestOperation;
 import com.f5.rest.common.RestRequestCompletion;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 /**
  * A {@link Job} that wraps a {@link BigIPConnection}.<br>
@@ -35,7 +41,12 @@ import com.google.gson.JsonObject;
  * 2. The Rest operation is completed successfully.<br>
  * 3. The Rest operation is completed with failure.<br><br>
  * In the case that the rest operation fails,<br>
- * this job also executes the {@link RestRequestCompletion #failed(Exception, RestOperation)} method.
+ * this job also executes the {@link RestRequestCompletion #failed(Exception, RestOperation)} method.<br>
+ * A request that failed for a transient reason ({@link RetryPolicy#isRetryable(String, Throwable)})
+ * is sent again by rescheduling this job after the {@link RetryPolicy#REST_REQUEST} backoff delay,
+ * in which case the job counter is decremented only after the last attempt.<br>
+ * A failure that arrives after the response was handed to the completion is not retried,
+ * it is passed once to the external completion without decrementing the counter again.
  */
 public abstract class ConnectionJob extends Job {
 
@@ -44,6 +55,7 @@ public abstract class ConnectionJob extends Job {
     protected BigIPConnection connection;
     private RequestCompletion jobCompletion;
     private RequestCompletion externalCompletion;
+    private RetryPolicy.Attempts attempts = RetryPolicy.REST_REQUEST.start();
 
     public ConnectionJob(String name, BigIPConnection connection, RequestCompletion externalCompletion, ISchedulingRule mutex) {
         super(name);
@@ -53,6 +65,7 @@ public abstract class ConnectionJob extends Job {
         connection.incrementJobCount();
         logger.trace("Set Rule " + mutex + " to " + this);
         setRule(mutex);
+        setPriority(RequestScheduler.getJobPriority(mutex));
     }
     
     protected abstract IStatus doRestOperation(RequestCompletion jobCompletion);
@@ -61,6 +74,24 @@ public abstract class ConnectionJob extends Job {
         return connection.decrementJobCount();
     }
 
+    /**
+     * If the failed request should be sent again, reschedule this job after the backoff delay.
+     * @return true if the job was rescheduled
+     */
+    boolean retry(Exception ex, String method, String uri) {
+        if (!RetryPolicy.isRetryable(method, ex)) {
+            return false;
+        }
+        long delay = attempts.nextDelay();
+        if (delay < 0) {
+            return false;
+        }
+        connection.getRequestMetrics().recordRetry(uri);
+        logger.debug("Retry " + attempts.getRetries() + " of " + this + " in " + delay + "ms");
+        schedule(delay);
+        return true;
+    }
+
     public BigIPConnection getConnection() {
         return connection;
     }
@@ -87,10 +118,18 @@ public abstract class ConnectionJob extends Job {
         return status;
     }
     
+    /**
+     * Decrements the connection job counter and delegates to the external completion exactly once,
+     * even when the response fails after a streaming completion already started consuming it.<br>
+     * Such a late failure, e.g. a broken stream, is still passed once to the external completion,
+     * so it can report that the response was incomplete.
+     */
     public static class ConnectionJobCompletion extends RequestCompletion {
 
         private ConnectionJob connectionJob;
         private RequestCompletion externalCompletion;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private final AtomicBoolean lateFailure = new AtomicBoolean(false);
 
         private ConnectionJobCompletion(RequestCompletion completion, ConnectionJob connectionJob) {
             this.externalCompletion = completion;
@@ -108,13 +147,43 @@ public abstract class ConnectionJob extends Job {
 
         @Override
         public void completed(String method, String uri, JsonObject jsonBody) {
+            if (!done.compareAndSet(false, true)) {
+                logger.warn("Already completed " + method + " " + uri);
+                return;
+            }
             int jobCount = connectionJob.decrementJobCount();
             externalCompletion.setConnectionJobCount(jobCount);
             externalCompletion.completed(method, uri, jsonBody);
         }
 
+        @Override
+        public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+            if (!done.compareAndSet(false, true)) {
+                logger.warn("Already completed " + method + " " + uri);
+                return;
+            }
+            int jobCount = connectionJob.decrementJobCount();
+            externalCompletion.setConnectionJobCount(jobCount);
+            externalCompletion.completedStream(method, uri, responseReader);
+        }
+
         @Override
         public void failed(Exception ex, String method, String uri, String body) {
+            if (done.get()) {
+                // The response already reached the external completion, e.g. the stream broke while it was read.
+                // It may be partly applied, so it is not retried either.
+                logger.warn("Failed " + method + " " + uri + " after it was completed", ex);
+                if (lateFailure.compareAndSet(false, true)) {
+                    externalCompletion.failed(ex, method, uri, body);
+                }
+                return;
+            }
+            if (connectionJob.retry(ex, method, uri)) {
+                return;
+            }
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
             logger.warn("Failed " + method + " " + uri, ex);
             int jobCount = connectionJob.decrementJobCount();
             externalCompletion.setConnectionJobCount(jobCount);
@@ -131,5 +200,15 @@ public abstract class ConnectionJob extends Job {
         public boolean isJson() {
             return externalCompletion.isJson();
         };
+
+        @Override
+        public boolean isStreaming() {
+            return externalCompletion.isStreaming();
+        }
+
+        @Override
+        public String getCoordinationId() {
+            return externalCompletion.getCoordinationId();
+        }
     }
 }
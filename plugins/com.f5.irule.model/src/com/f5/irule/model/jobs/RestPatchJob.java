@@ -15,7 +15,9 @@
  *******************************************************************************/
 package com.f5.irule.model.jobs;
 
+import org.apache.log4j.Logger;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 import com.f5.irule.model.BigIPConnection;
@@ -24,10 +26,14 @@ import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.RequestCompletion;
 
 /**
- * A {@link ConnectionJob} that executes the {@link ModelObject #iControlRestPatch} method
+ * A {@link ConnectionJob} that executes the {@link ModelObject #iControlRestPatch} method.<br>
+ * If the model content has the digest of the content the Big-IP has, see {@link ModelObject#hasDeployedContent()},
+ * nothing is sent and the completion is called without a response body, as for an uploaded file.
  */
 public class RestPatchJob extends ConnectionJob {
 
+    private static Logger logger = Logger.getLogger(RestPatchJob.class);
+
     private ModelObject model;
 
     public RestPatchJob(ModelObject model, BigIPConnection conn, RequestCompletion completion, ISchedulingRule mutex) {
@@ -37,6 +43,11 @@ public class RestPatchJob extends ConnectionJob {
 
     @Override
     protected IStatus doRestOperation(RequestCompletion jobCompletion) {
+        if (model.hasDeployedContent()) {
+            logger.debug("Big-IP already have the content of " + model + ". Skip update");
+            jobCompletion.completed(null, null, null);
+            return Status.OK_STATUS;
+        }
         IStatus status = model.iControlRestPatch(jobCompletion);
         return status;
     }
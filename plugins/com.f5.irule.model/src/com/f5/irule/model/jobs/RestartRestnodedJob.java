@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.jobs;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.f5.irule.model.Ids;
+import com.f5.irule.model.RestnodedRestart;
+
+/**
+ * A system {@link Job} that restarts the restnoded service of a connection,
+ * see {@link RestnodedRestart}. It is rescheduled by every write that requires a restart.
+ */
+public class RestartRestnodedJob extends Job {
+
+    private RestnodedRestart restnodedRestart;
+
+    public RestartRestnodedJob(RestnodedRestart restnodedRestart) {
+        super(Ids.RESTART_RESTNODED);
+        this.restnodedRestart = restnodedRestart;
+        setSystem(true);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(restnodedRestart);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        restnodedRestart.restart();
+        return Status.OK_STATUS;
+    }
+}
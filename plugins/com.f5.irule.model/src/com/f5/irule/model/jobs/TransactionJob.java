@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.model.jobs;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.f5.irule.model.Ids;
+import com.f5.irule.model.RequestScheduler;
+import com.f5.irule.model.RestTransaction;
+
+/**
+ * A {@link Job} that runs a {@link RestTransaction}.<br>
+ * The connection job count is maintained by the transaction for each of its models.
+ */
+public class TransactionJob extends Job {
+
+    private RestTransaction transaction;
+
+    public TransactionJob(RestTransaction transaction, ISchedulingRule mutex) {
+        super(Ids.REST_TRANSACTION);
+        this.transaction = transaction;
+        setRule(mutex);
+        setPriority(RequestScheduler.getJobPriority(mutex));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(transaction);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        return transaction.run();
+    }
+}
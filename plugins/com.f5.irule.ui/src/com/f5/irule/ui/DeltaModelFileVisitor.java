@@ -36,7 +36,10 @@ import com.f5.irule.model.ModelRoot;
 import com.f5.irule.model.ModelUtils;
 import com.f5.irule.model.PersistentPropertiesUtil;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.RestRule;
+import com.f5.irule.model.RestTransaction;
+import com.f5.irule.model.TransactionBatch;
 import com.f5.irule.ui.views.ProcessResponseJobCompletion;
 import com.f5.irule.ui.views.Util;
 import com.f5.irule.ui.wizards.PatchCompletion;
@@ -141,13 +144,17 @@ public class DeltaModelFileVisitor implements IResourceDeltaVisitor {
      * Update the model on the Big-IP.<br>
      * If the model is locally added then call its {@link ModelObject #iControlRestPostJob} method.<br>
      * Otherwise call its {@link ModelObject #iControlRestPatchJob} method.<br>
+     * iRules and Data-Groups are added to the connection {@link TransactionBatch} instead,
+     * so files changed together are sent to the Big-IP in one transaction.
      */
     private static void modelUpdate(ModelObject model, IWorkbenchPage page) {
         boolean locallyAdded = model.isLocallyAdded();
         String failedMessage = (locallyAdded ? Strings.LABEL_FAILED_POSTING : Strings.LABEL_FAILED_PATCHING) + model;
         RequestCompletion completion = new ProcessResponseJobCompletion(model, page, model.getFile(), failedMessage);
-        ISchedulingRule mutex = Util.getMutex();
-        if (locallyAdded) {
+        ISchedulingRule mutex = Util.getMutex(Priority.INTERACTIVE);
+        if (RestTransaction.isTransactional(model)) {
+            model.getConnection().getTransactionBatch().add(model, completion, mutex);
+        } else if (locallyAdded) {
             model.iControlRestPostJob(completion, mutex);                
         } else {
             model.iControlRestPatchJob(completion, mutex);
@@ -122,6 +122,7 @@ public class Strings {
     public static final String LABEL_PROXY_PASSWORD_HELP = "Credentials password for the proxy server.\nFor example 'qwerty'";
     public static final String LABEL_RELOAD = "Reload";
     public static final String LABEL_RELOAD_ALL = "Reload All";
+    public static final String LABEL_RESET_STATISTICS = "Reset Statistics";
     public static final String LABEL_SECURE_STORE = "Store credentials in Secure Store";
     public static final String LABEL_SECURE_STORE_HELP = "Check for Secure Store";
     
@@ -29,6 +29,7 @@ import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelParent;
 import com.f5.irule.model.ModelUtils;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.RestFramework;
 import com.f5.irule.model.RuleProvider;
 import com.f5.irule.ui.Ids;
@@ -68,7 +69,7 @@ public class ExpandNodeModulesAction extends Action {
         logger.debug("Expand " + folder);
         RequestCompletion completion = new ExpandCompletion(conn, partition, folder, workspaceName, dirName);
         String uri = RuleProvider.getIlxWorkspaceUri(conn, conn.getCurrentPartition(), workspaceName, dirName);
-        RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, completion, Util.getMutex());
+        RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, completion, Util.getMutex(Priority.INTERACTIVE));
     }
     
     private static class ExpandCompletion extends RequestCompletion {
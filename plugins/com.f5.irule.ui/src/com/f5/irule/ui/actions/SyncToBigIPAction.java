@@ -24,6 +24,7 @@ import org.eclipse.ui.IWorkbenchPage;
 
 import com.f5.irule.model.RequestCompletion;
 import com.f5.irule.model.ModelObject;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.ui.Strings;
 import com.f5.irule.ui.views.ProcessResponseJobCompletion;
 import com.f5.irule.ui.views.Util;
@@ -57,7 +58,7 @@ public class SyncToBigIPAction extends Action {
         }
         RequestCompletion completion = new ProcessResponseJobCompletion(
             model, page, file, Strings.LABEL_FAILED_SYNCING_BIG_IP);
-        ISchedulingRule mutex = Util.getMutex();
+        ISchedulingRule mutex = Util.getMutex(Priority.INTERACTIVE);
         if (model.isLocallyAdded()) {
             model.iControlRestPostJob(completion, mutex);
         } else {
@@ -26,6 +26,7 @@ import org.eclipse.ui.statushandlers.StatusManager;
 
 import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelParent;
+import com.f5.irule.model.RetryPolicy;
 import com.f5.irule.ui.Ids;
 import com.f5.irule.ui.Strings;
 import com.f5.irule.ui.views.Util;
@@ -35,7 +36,7 @@ public class DeleteJob extends Job {
     private static Logger logger = Logger.getLogger(DeleteJob.class);
 
     private IResource resource;
-    private int counter;
+    private RetryPolicy.Attempts attempts = RetryPolicy.RESOURCE_DELETE.start();
 
     private ModelObject obj;
     private Runnable completeRunnable;
@@ -68,13 +69,13 @@ public class DeleteJob extends Job {
                 e.printStackTrace();
                 /* For some reason creating a Data-Group and setting its content by calling IFile.setContents(...)
                  * and right after trying to delete the file, sometimes results in a ResourceException.
-                 * A workaround fix is to keep scheduling this DeleteJob
-                 * until a deletion success or passing the time limit (failure) */
+                 * A workaround fix is to keep scheduling this DeleteJob with a growing delay
+                 * until a deletion success or passing the retry policy budget (failure) */
                 ok = false;
-                if (counter < 12) {
-                    logger.debug("Set another Delete Job for " + resource);
-                    counter++;
-                    this.schedule(5000);                    
+                long delay = attempts.nextDelay();
+                if (delay >= 0) {
+                    logger.debug("Set another Delete Job for " + resource + " in " + delay + "ms");
+                    this.schedule(delay);
                 } else {
                     IStatus status = new Status(IStatus.ERROR, Ids.PLUGIN, Strings.ERROR_FAILED_TO_DELETE_RESOURCE, e);
                     StatusManager.getManager().handle(status, StatusManager.LOG | StatusManager.SHOW);
@@ -33,6 +33,7 @@ import com.f5.irule.model.RequestCompletion;
 import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelObject.Type;
 import com.f5.irule.model.ModelParent;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.RestFramework;
 import com.f5.irule.model.RuleProvider;
 import com.f5.irule.ui.Ids;
@@ -118,7 +119,7 @@ public class LoadIAppsLXCompletion extends RequestCompletion {
         String uriValue = conn.getURI(endpoint).toString();
         GetFileListCompletion completion = new GetFileListCompletion(conn, iAppsLxModel);
         RestFramework.sendRequestJob(conn,
-            RestMethod.GET, uriValue, "application/json", null, completion, Util.getMutex());
+            RestMethod.GET, uriValue, "application/json", null, completion, Util.getMutex(Priority.BACKGROUND));
     }
 
     @Override
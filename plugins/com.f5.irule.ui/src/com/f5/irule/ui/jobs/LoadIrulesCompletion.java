@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.f5.irule.ui.jobs;
 
+import java.io.IOException;
 import java.util.HashMap;
 
 import org.apache.log4j.Logger;
@@ -32,6 +33,7 @@ import com.f5.irule.ui.Ids;
 import com.f5.irule.ui.Strings;
 import com.f5.irule.ui.views.ExplorerContentProvider;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 
 public class LoadIrulesCompletion extends RequestCompletion {
 
@@ -60,6 +62,26 @@ public class LoadIrulesCompletion extends RequestCompletion {
     public void completed(String method, String uri, JsonObject jsonBody) {
         logger.debug("Completed " + method + " " + uri);
         HashMap<IPath, Rule> rules = RuleProvider.parseIrules(conn, module, jsonBody);
+        fillExplorer(rules, uri);
+    }
+
+    /**
+     * The rules listing can be large, so build the rules while the response is read
+     * instead of parsing it to a json tree first.
+     */
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+        logger.debug("Completed " + method + " " + uri);
+        HashMap<IPath, Rule> rules = RuleProvider.parseIrules(conn, module, responseReader);
+        fillExplorer(rules, uri);
+    }
+
+    private void fillExplorer(HashMap<IPath, Rule> rules, String uri) {
         String logMessage = getLogMessage(rules, uri);
         logger.debug(logMessage);
         ExplorerContentProvider.addParsedRules(rules);
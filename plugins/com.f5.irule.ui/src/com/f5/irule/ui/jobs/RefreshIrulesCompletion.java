@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.ui.jobs;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.ui.statushandlers.StatusManager;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.BigIPConnection.Module;
+import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler.Priority;
+import com.f5.irule.model.RestFramework;
+import com.f5.irule.model.RestRule;
+import com.f5.irule.model.RestURI;
+import com.f5.irule.model.Rule;
+import com.f5.irule.model.RuleGenerations;
+import com.f5.irule.model.RuleProvider;
+import com.f5.irule.ui.Ids;
+import com.f5.irule.ui.Strings;
+import com.f5.irule.ui.views.ExplorerContentProvider;
+import com.f5.rest.common.RestOperation.RestMethod;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Completion of the lightweight rules listing sent when refreshing rules that were already loaded.<br>
+ * Compare the version stamps of the listed rules with the {@link RuleGenerations} of the connection,
+ * fetch the bodies of the changed rules only and update the explorer tree in place.<br>
+ * If the Big-IP does not provide the stamps, or too many rules changed,
+ * load all the rules with their bodies instead.
+ */
+public class RefreshIrulesCompletion extends RequestCompletion {
+
+    private static Logger logger = Logger.getLogger(RefreshIrulesCompletion.class);
+
+    public static final String LISTING_SELECT = "name,partition,fullPath,generation,lastUpdateMicros";
+    private static final String RULE_SELECT = "name,apiAnonymous,partition,fullPath,generation,lastUpdateMicros";
+
+    /**
+     * Above this number of changed rules a single full listing is cheaper than a request per rule
+     */
+    static final int MAX_RULE_REQUESTS = 50;
+
+    private BigIPConnection conn;
+    private Module module;
+    private ExplorerContentProvider provider;
+
+    public RefreshIrulesCompletion(BigIPConnection conn, Module module, ExplorerContentProvider provider) {
+        this.conn = conn;
+        this.module = module;
+        this.provider = provider;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("[").append(getClass().getSimpleName());
+        builder.append(" ").append(conn);
+        builder.append(" ").append(module);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public void completedStream(String method, String uri, JsonReader responseReader) throws IOException {
+        logger.debug("Completed " + method + " " + uri);
+        HashMap<IPath, String> listing = RuleProvider.parseIrulesListing(conn, module, responseReader);
+        refresh(listing);
+    }
+
+    public void completed(String method, String uri, JsonObject jsonBody) {
+        logger.warn("Unexpected json tree completion of " + method + " " + uri);
+        provider.loadIrulesJob(conn, module);
+    }
+
+    private void refresh(HashMap<IPath, String> listing) {
+        RuleGenerations generations = conn.getRuleGenerations();
+        if (listing.containsValue(null)) {
+            logger.debug(this + " listing has no generations. Load all rules");
+            generations.invalidate(module);
+            provider.loadIrulesJob(conn, module);
+            return;
+        }
+        generations.retain(module, listing.keySet());
+        List<IPath> changed = generations.getChanged(module, listing);
+        for (IPath regPath : listing.keySet()) {
+            if (!changed.contains(regPath) && !ExplorerContentProvider.hasParsedRule(regPath)) {
+                changed.add(regPath);
+            }
+        }
+        logger.debug(this + " " + changed.size() + " of " + listing.size() + " rules changed");
+        if (changed.size() > MAX_RULE_REQUESTS) {
+            provider.loadIrulesJob(conn, module);
+            return;
+        }
+        RuleFetches fetches = new RuleFetches(listing.keySet(), changed.size());
+        if (changed.isEmpty()) {
+            fetches.done();
+            return;
+        }
+        for (IPath regPath : changed) {
+            String partition = regPath.segment(1);
+            String ruleName = regPath.removeFileExtension().lastSegment();
+            RestURI ruleUri = conn.getURI(module.name(), RestRule.RULE);
+            ruleUri.appendPartitionedOID(partition, ruleName);
+            ruleUri.addSelect(RULE_SELECT);
+            RequestCompletion completion = new FetchRuleCompletion(regPath, fetches);
+            RestFramework.sendRequestJob(conn, RestMethod.GET, ruleUri.toString(), null, null,
+                completion, provider.getMutex(Priority.BACKGROUND));
+        }
+    }
+
+    public void failed(Exception ex, String method, String uri, String responseBody) {
+        IStatus status = new Status(IStatus.ERROR, Ids.PLUGIN, Strings.ERROR_LOADING_IRULES_FAILED, ex);
+        StatusManager.getManager().handle(status, StatusManager.LOG);
+    }
+
+    /**
+     * Collects the fetched rules and updates the explorer once all the fetches completed.
+     */
+    private class RuleFetches {
+
+        private Set<IPath> remoteRules;
+        private AtomicInteger pending;
+        private HashMap<IPath, Rule> fetchedRules = new HashMap<IPath, Rule>();
+
+        private RuleFetches(Set<IPath> remoteRules, int count) {
+            this.remoteRules = remoteRules;
+            this.pending = new AtomicInteger(count);
+        }
+
+        private synchronized void fetched(HashMap<IPath, Rule> rules) {
+            fetchedRules.putAll(rules);
+        }
+
+        private void countDown() {
+            if (pending.decrementAndGet() == 0) {
+                done();
+            }
+        }
+
+        private synchronized void done() {
+            provider.updateExplorerIrules(conn, module, remoteRules, fetchedRules);
+        }
+    }
+
+    /**
+     * Completion of the GET request of a single changed rule.<br>
+     * A rule that failed to be fetched keeps its previous stamp, so the next refresh tries it again.
+     */
+    private class FetchRuleCompletion extends RequestCompletion {
+
+        private IPath regPath;
+        private RuleFetches fetches;
+
+        private FetchRuleCompletion(IPath regPath, RuleFetches fetches) {
+            this.regPath = regPath;
+            this.fetches = fetches;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("[").append(getClass().getSimpleName());
+            builder.append(" ").append(regPath);
+            builder.append("]");
+            return builder.toString();
+        }
+
+        public void completed(String method, String uri, JsonObject jsonBody) {
+            logger.debug("Completed " + method + " " + uri);
+            fetches.fetched(RuleProvider.parseIrule(conn, module, jsonBody));
+            fetches.countDown();
+        }
+
+        public void failed(Exception ex, String method, String uri, String responseBody) {
+            logger.warn("Failed to fetch " + regPath, ex);
+            fetches.countDown();
+        }
+    }
+}
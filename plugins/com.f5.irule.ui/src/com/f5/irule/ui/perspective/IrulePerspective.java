@@ -26,6 +26,8 @@ public class IrulePerspective implements IPerspectiveFactory {
 
     public static final String ID_IRULE_EXPLORER = "com.f5.irule.ui.views.IruleView";
 
+    public static final String ID_STATISTICS = "com.f5.irule.ui.views.StatisticsView";
+
     protected void addViews(IPageLayout layout) {
         String editorArea = layout.getEditorArea();
 
@@ -35,6 +37,7 @@ public class IrulePerspective implements IPerspectiveFactory {
         IFolderLayout bottom = layout.createFolder("bottom", IPageLayout.BOTTOM, 0.74f, editorArea);
         bottom.addView(IPageLayout.ID_PROBLEM_VIEW);
         bottom.addView("org.eclipse.pde.runtime.LogView");
+        bottom.addPlaceholder(ID_STATISTICS);
         bottom.addPlaceholder(IPageLayout.ID_OUTLINE);
         bottom.addPlaceholder(IPageLayout.ID_PROGRESS_VIEW);
         bottom.addPlaceholder(IPageLayout.ID_TASK_LIST);
@@ -45,6 +48,7 @@ public class IrulePerspective implements IPerspectiveFactory {
         layout.addShowViewShortcut(IPageLayout.ID_PROBLEM_VIEW);
         layout.addShowViewShortcut(IPageLayout.ID_TASK_LIST);
         layout.addShowViewShortcut(ID_IRULE_EXPLORER);
+        layout.addShowViewShortcut(ID_STATISTICS);
     }
 
     @Override
@@ -20,9 +20,11 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -71,6 +73,8 @@ import com.f5.irule.model.ModelParent;
 import com.f5.irule.model.ModelRoot;
 import com.f5.irule.model.ProxyDetails;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.RestFramework;
 import com.f5.irule.model.RestRule;
 import com.f5.irule.model.RestURI;
@@ -83,6 +87,7 @@ import com.f5.irule.ui.jobs.LoadDataGroupsCompletion;
 import com.f5.irule.ui.jobs.LoadIAppsLXCompletion;
 import com.f5.irule.ui.jobs.LoadILXCompletion;
 import com.f5.irule.ui.jobs.LoadIrulesCompletion;
+import com.f5.irule.ui.jobs.RefreshIrulesCompletion;
 import com.f5.rest.common.RestOperation.RestMethod;
 import com.google.gson.JsonObject;
 
@@ -116,6 +121,13 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
         }
     }
 
+    /**
+     * @return true if a {@link Rule} was already parsed for the given registry path
+     */
+    public static boolean hasParsedRule(IPath regPath) {
+        return parsedRules != null && parsedRules.containsKey(regPath);
+    }
+
     // 3 methods from Mastering book
     public void dispose() {
         thisView = null;
@@ -280,38 +292,31 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
         return false;
     }
 
-    class Mutex implements ISchedulingRule {
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder("[Mutex ");
-            builder.append(ExplorerContentProvider.class.getSimpleName()).append("]");
-            return builder.toString();
-        }
-
-        // TODO this rule makes every job exclusive, see if we can be more nuanced
-        public boolean isConflicting(ISchedulingRule rule) {
-            boolean ans = rule == this;
-            return ans;
-        }
-
-        public boolean contains(ISchedulingRule rule) {
-            return rule == this;
-        }
-    }
-
-    final ISchedulingRule mutex = new Mutex();
+    /**
+     * Rules of the REST request jobs, the interactive requests do not wait behind background loads
+     */
+    private final RequestScheduler scheduler = new RequestScheduler(ExplorerContentProvider.class.getSimpleName());
+    final ISchedulingRule mutex = scheduler.getRule(Priority.NORMAL);
+    private final ISchedulingRule backgroundMutex = scheduler.getRule(Priority.BACKGROUND);
 
     public ISchedulingRule getMutex() {
         return mutex;
     }
 
+    public ISchedulingRule getMutex(Priority priority) {
+        return scheduler.getRule(priority);
+    }
+
     public static void reloadConnection(final BigIPConnection connection) {
         logger.debug("Reload " + connection + ", go Online");
         connection.setOnlineMode(true);
+        // An explicit reload should try the Big-IP even if it recently failed to answer
+        connection.getHealthMonitor().reset();
         IProject project = connection.getProject();
         ExplorerContentProvider provider = Util.getExplorerContentProvider();
-        Credentials credentials = new Credentials(project);
-        ProxyDetails proxyDetails = new ProxyDetails(project);
+        // Use the credentials already held in memory instead of reading the secure storage again
+        Credentials credentials = connection.getCredentials();
+        ProxyDetails proxyDetails = connection.getProxyDetails();
         provider.loadConnection(connection.getName(), credentials, proxyDetails, project, null, null);
     }
 
@@ -401,7 +406,7 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
             RestURI uri = conn.getURI(BigIPConnection.Module.ilx.name(), WORKSPACE);
             String uriValue = uri.toString();
             LoadILXCompletion loadILXCompletion = new LoadILXCompletion(conn, this);
-            RestFramework.sendRequestJob(conn, RestMethod.GET, uriValue, null, null, loadILXCompletion, mutex);
+            RestFramework.sendRequestJob(conn, RestMethod.GET, uriValue, null, null, loadILXCompletion, backgroundMutex);
         }
 
         Version version = conn.getVersion();
@@ -409,7 +414,7 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
             String endpoint = RestFramework.IAPP_DIRECTORY_MANAGEMENT;
             String uri = conn.getURI(endpoint).toString();
             RequestCompletion completion = new LoadIAppsLXCompletion(conn);
-            RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, completion, mutex);
+            RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, completion, backgroundMutex);
         }
     }
 
@@ -417,25 +422,42 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
      * Schedule Load Data-Groups Job. 
      * @param partition */
     private void loadModuleJobs(BigIPConnection conn, Module module) {
-        RequestCompletion completion = new LoadIrulesCompletion(conn, module, this);
-        String select = "name,apiAnonymous,partition,fullPath";
-        RestURI ruleUri = conn.getURI(module.name(), RestRule.RULE);
-        ruleUri.addSelect(select);
-        String uriString = ruleUri.toString();
-        RestFramework.sendRequestJob(conn, RestMethod.GET, uriString, null, null, completion, mutex);
+        if (conn.getRuleGenerations().isLoaded(module)) {
+            // The rules were loaded before, get a listing without the rules bodies
+            // and fetch only the rules that changed since then
+            RequestCompletion completion = new RefreshIrulesCompletion(conn, module, this);
+            RestURI ruleUri = conn.getURI(module.name(), RestRule.RULE);
+            ruleUri.addSelect(RefreshIrulesCompletion.LISTING_SELECT);
+            String uriString = ruleUri.toString();
+            RestFramework.sendRequestJob(conn, RestMethod.GET, uriString, null, null, completion, backgroundMutex);
+        } else {
+            loadIrulesJob(conn, module);
+        }
         switch (module) {
 		case ltm:
 	        RestURI dataGroupUri = conn.getURI(module.name(), DataGroup.DATA_GROUP);
 	        dataGroupUri.append("internal");
 	        String uri = dataGroupUri.toString();
 	        LoadDataGroupsCompletion loadDataGroupsCompletion = new LoadDataGroupsCompletion(conn, module, this);
-            RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, loadDataGroupsCompletion, mutex);			
+            RestFramework.sendRequestJob(conn, RestMethod.GET, uri, null, null, loadDataGroupsCompletion, backgroundMutex);			
 			break;
 		default:
 			break;
 		}
     }
 
+    /**
+     * Schedule a Job that loads all the module rules with their bodies.
+     */
+    public void loadIrulesJob(BigIPConnection conn, Module module) {
+        RequestCompletion completion = new LoadIrulesCompletion(conn, module, this);
+        String select = "name,apiAnonymous,partition,fullPath,generation,lastUpdateMicros";
+        RestURI ruleUri = conn.getURI(module.name(), RestRule.RULE);
+        ruleUri.addSelect(select);
+        String uriString = ruleUri.toString();
+        RestFramework.sendRequestJob(conn, RestMethod.GET, uriString, null, null, completion, backgroundMutex);
+    }
+
     public void fillExplorerIrules(BigIPConnection conn, Module module) {
         String address = conn.getAddress();
         HashMap<IPath, Rule> rules = getRules(address);
@@ -464,6 +486,48 @@ public class ExplorerContentProvider implements IStructuredContentProvider, ITre
         syncWithUi();
     }
     
+    /**
+     * Update the module rules of the explorer tree in place after an incremental refresh.<br>
+     * Remove the rules that are no longer on the Big-IP,
+     * add the rules that were fetched and put back the already parsed rules that did not change.
+     * @param remoteRules the registry paths of all the module rules currently on the Big-IP
+     * @param fetchedRules the rules that changed since the last load and were fetched again
+     */
+    public void updateExplorerIrules(BigIPConnection conn, Module module, Set<IPath> remoteRules,
+            HashMap<IPath, Rule> fetchedRules) {
+        String address = conn.getAddress();
+        String folderId = module.equals(Module.gtm) ?
+            com.f5.irule.model.Ids.IRULES_GTM_FOLDER :
+            com.f5.irule.model.Ids.IRULES_LTM_FOLDER;
+        addParsedRules(fetchedRules);
+        Iterator<IPath> iterator = parsedRules.keySet().iterator();
+        while (iterator.hasNext()) {
+            IPath key = iterator.next();
+            if (key.segment(0).equals(address) && folderId.equals(key.segment(2)) && !remoteRules.contains(key)) {
+                iterator.remove();
+            }
+        }
+
+        ModelParent tmModel = getModel(conn, module);
+        Type tmType = tmModel.getType();
+        RuleModelFilter filter = new RuleModelFilter(tmType);
+        for (ModelObject child : tmModel.getChildren()) {
+            if (filter.applyModel(child) &&
+                    !remoteRules.contains(RuleProvider.createRegPath(conn, child.getFilePath()))) {
+                tmModel.removeChild(child);
+            }
+        }
+        for (IPath key : remoteRules) {
+            Rule parsedRule = parsedRules.get(key);
+            if (parsedRule != null && tmModel.getChild(parsedRule.getName()) != parsedRule) {
+                addParsedModel(parsedRule, tmModel, tmType);
+            }
+        }
+        tmModel.addListener(listener);
+        // Now sync the UI thread with the updated model
+        syncWithUi();
+    }
+
     /**
      * A {@link ModelFilter} that applies for iRules only.
      */
@@ -76,6 +76,7 @@ import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelObject.Type;
 import com.f5.irule.model.ModelParent;
 import com.f5.irule.model.ModelUtils;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.Rule;
 import com.f5.irule.model.RuleProvider;
 import com.f5.irule.ui.Ids;
@@ -636,7 +637,7 @@ public class IruleView extends ViewPart {
                     if (connection.isOnlineMode()) {
                         ProcessResponseJobCompletion completion = new ProcessResponseJobCompletion(
                             obj, page, file, Strings.ERROR_FAILED_TO_RETRIEVE_FILE);
-                        obj.iControlRestGetJob(completion, Util.getMutex());
+                        obj.iControlRestGetJob(completion, Util.getMutex(Priority.INTERACTIVE));
                     } else {
                         logger.debug("Offline Mode, Getting contect from local file " + file);
                         openIdeEditor(page, file, obj);
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright 2015-2017 F5 Networks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.f5.irule.ui.views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IToolBarManager;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+import org.eclipse.ui.ISharedImages;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.part.ViewPart;
+
+import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.ConcurrencyLimiter;
+import com.f5.irule.model.ModelObject;
+import com.f5.irule.model.ModelRoot;
+import com.f5.irule.model.RequestMetrics;
+import com.f5.irule.model.RequestMetrics.EndpointMetrics;
+import com.f5.irule.ui.Strings;
+
+/**
+ * An org.eclipse.ui.views extension point that presents the REST request statistics.<br>
+ * Every {@link BigIPConnection} is a row with the totals of its {@link RequestMetrics}
+ * and its job queue depth, and its children rows are the metrics per REST endpoint.<br>
+ * The view refreshes itself every {@link #REFRESH_INTERVAL} milliseconds while it is shown.
+ */
+public class StatisticsView extends ViewPart {
+
+    public static final String ID = "com.f5.irule.ui.views.StatisticsView";
+
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private static final String[] COLUMNS = { "Connection / Endpoint", "Requests", "Errors", "Error %", "Retries",
+        "Avg ms", "p50 ms", "p95 ms", "Max ms", "Wait ms", "Bytes In", "Bytes Out", "Jobs", "In Flight" };
+    private static final int[] COLUMN_WIDTHS = { 260, 70, 60, 60, 60, 60, 60, 60, 60, 60, 80, 80, 50, 70 };
+
+    private TreeViewer viewer;
+    private Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            if (viewer == null || viewer.getControl().isDisposed()) {
+                return;
+            }
+            viewer.refresh();
+            Display.getCurrent().timerExec(REFRESH_INTERVAL, this);
+        }
+    };
+
+    @Override
+    public void createPartControl(Composite parent) {
+        viewer = new TreeViewer(parent, SWT.SINGLE | SWT.H_SCROLL | SWT.V_SCROLL | SWT.FULL_SELECTION);
+        Tree tree = viewer.getTree();
+        tree.setHeaderVisible(true);
+        tree.setLinesVisible(true);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            TreeColumn column = new TreeColumn(tree, i == 0 ? SWT.LEFT : SWT.RIGHT);
+            column.setText(COLUMNS[i]);
+            column.setWidth(COLUMN_WIDTHS[i]);
+        }
+        viewer.setContentProvider(new MetricsContentProvider());
+        viewer.setLabelProvider(new MetricsLabelProvider());
+        viewer.setInput(ModelRoot.getInstance());
+        contributeToActionBars();
+        Display.getCurrent().timerExec(REFRESH_INTERVAL, refresher);
+    }
+
+    private void contributeToActionBars() {
+        IToolBarManager manager = getViewSite().getActionBars().getToolBarManager();
+        Action resetAction = new Action() {
+            public void run() {
+                for (BigIPConnection conn : getConnections()) {
+                    conn.getRequestMetrics().reset();
+                }
+                viewer.refresh();
+            }
+        };
+        resetAction.setText(Strings.LABEL_RESET_STATISTICS);
+        resetAction.setToolTipText(Strings.LABEL_RESET_STATISTICS);
+        resetAction.setImageDescriptor(PlatformUI.getWorkbench().getSharedImages()
+            .getImageDescriptor(ISharedImages.IMG_ELCL_REMOVEALL));
+        manager.add(resetAction);
+    }
+
+    @Override
+    public void setFocus() {
+        viewer.getControl().setFocus();
+    }
+
+    @Override
+    public void dispose() {
+        Display display = Display.getCurrent();
+        if (display != null) {
+            display.timerExec(-1, refresher);
+        }
+        super.dispose();
+    }
+
+    private static List<BigIPConnection> getConnections() {
+        List<BigIPConnection> connections = new ArrayList<BigIPConnection>();
+        for (ModelObject child : ModelRoot.getInstance().getChildren()) {
+            if (child instanceof BigIPConnection) {
+                connections.add((BigIPConnection) child);
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * A row of an endpoint, with the connection of its parent row
+     */
+    private static class EndpointRow {
+
+        private BigIPConnection connection;
+        private EndpointMetrics metrics;
+
+        private EndpointRow(BigIPConnection connection, EndpointMetrics metrics) {
+            this.connection = connection;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EndpointRow)) {
+                return false;
+            }
+            EndpointRow other = (EndpointRow) obj;
+            return connection == other.connection && metrics.getEndpoint().equals(other.metrics.getEndpoint());
+        }
+
+        @Override
+        public int hashCode() {
+            return connection.hashCode() * 31 + metrics.getEndpoint().hashCode();
+        }
+    }
+
+    private static class MetricsContentProvider implements ITreeContentProvider {
+
+        @Override
+        public Object[] getElements(Object inputElement) {
+            return getConnections().toArray();
+        }
+
+        @Override
+        public Object[] getChildren(Object parentElement) {
+            if (!(parentElement instanceof BigIPConnection)) {
+                return new Object[0];
+            }
+            BigIPConnection conn = (BigIPConnection) parentElement;
+            List<EndpointMetrics> endpoints = conn.getRequestMetrics().getEndpoints();
+            Object[] rows = new Object[endpoints.size()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new EndpointRow(conn, endpoints.get(i));
+            }
+            return rows;
+        }
+
+        @Override
+        public Object getParent(Object element) {
+            return element instanceof EndpointRow ? ((EndpointRow) element).connection : null;
+        }
+
+        @Override
+        public boolean hasChildren(Object element) {
+            return element instanceof BigIPConnection;
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        }
+    }
+
+    private static class MetricsLabelProvider extends LabelProvider implements ITableLabelProvider {
+
+        @Override
+        public Image getColumnImage(Object element, int columnIndex) {
+            return null;
+        }
+
+        @Override
+        public String getColumnText(Object element, int columnIndex) {
+            EndpointMetrics metrics;
+            BigIPConnection conn = null;
+            if (element instanceof BigIPConnection) {
+                conn = (BigIPConnection) element;
+                metrics = conn.getRequestMetrics().getTotal();
+            } else {
+                metrics = ((EndpointRow) element).metrics;
+            }
+            switch (columnIndex) {
+            case 0:
+                return conn == null ? metrics.getEndpoint() : conn.getName();
+            case 1:
+                return Long.toString(metrics.getRequests());
+            case 2:
+                return Long.toString(metrics.getErrors());
+            case 3:
+                return String.format("%.1f", metrics.getErrorRate() * 100);
+            case 4:
+                return Long.toString(metrics.getRetries());
+            case 5:
+                return Long.toString(metrics.getAverageLatency());
+            case 6:
+                return Long.toString(metrics.getLatencyPercentile(0.5));
+            case 7:
+                return Long.toString(metrics.getLatencyPercentile(0.95));
+            case 8:
+                return Long.toString(metrics.getMaxLatency());
+            case 9:
+                return Long.toString(metrics.getAverageWait());
+            case 10:
+                return Long.toString(metrics.getBytesIn());
+            case 11:
+                return Long.toString(metrics.getBytesOut());
+            case 12:
+                return conn == null ? "" : Integer.toString(conn.getJobCount());
+            case 13:
+                if (conn == null) {
+                    return "";
+                }
+                ConcurrencyLimiter limiter = conn.getConcurrencyLimiter();
+                return limiter.getInFlight() + "/" + limiter.getLimit();
+            default:
+                return "";
+            }
+        }
+    }
+}
@@ -23,6 +23,8 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.jface.viewers.ITreeSelection;
 import org.eclipse.jface.viewers.TreePath;
 
+import com.f5.irule.model.RequestScheduler.Priority;
+
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
@@ -98,4 +100,11 @@ public class Util {
     public static ISchedulingRule getMutex() {
         return explorerContentProvider.getMutex();
     }
+
+    /**
+     * Return the scheduling rule of the REST request jobs of the priority class.
+     */
+    public static ISchedulingRule getMutex(Priority priority) {
+        return explorerContentProvider.getMutex(priority);
+    }
 }
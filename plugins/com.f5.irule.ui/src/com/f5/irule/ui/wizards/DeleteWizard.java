@@ -33,6 +33,7 @@ import com.f5.irule.model.Connection;
 import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelParent;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.ui.Ids;
 import com.f5.irule.ui.Strings;
 import com.f5.irule.ui.jobs.DeleteJob;
@@ -134,7 +135,7 @@ public class DeleteWizard extends Wizard implements IWizard {
                 logger.debug("Delete " + obj);
                 // Other types require removal from the bigip
                 RequestCompletion completion = new DeleteResourceCompletion(obj, completeRunnable, resource);
-                obj.iControlRestDeleteJob(completion, Util.getMutex());
+                obj.iControlRestDeleteJob(completion, Util.getMutex(Priority.INTERACTIVE));
             }
         }
         
@@ -51,6 +51,7 @@ import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.ModelObject.Type;
 import com.f5.irule.model.ModelParent;
 import com.f5.irule.model.ModelUtils;
+import com.f5.irule.model.RequestScheduler.Priority;
 import com.f5.irule.model.RestFramework;
 import com.f5.irule.model.RestRule;
 import com.f5.irule.model.RuleProvider;
@@ -217,7 +218,7 @@ public class NewElementWizard extends BasicNewFolderResourceWizard {
             BigIPConnection connection = obj.getConnection();
             if (connection.isOnlineMode()) {
                 RequestCompletion completion = new NewElementCompletion(obj, parent);
-                obj.iControlRestPostJob(completion, Util.getMutex());
+                obj.iControlRestPostJob(completion, Util.getMutex(Priority.INTERACTIVE));
             } else {
                 logger.debug("Offline Mode. Don't Post " + obj);
                 doOfflineAction();
@@ -27,8 +27,11 @@ import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import com.f5.irule.model.BigIPConnection;
+import com.f5.irule.model.IlxBulkUpload;
 import com.f5.irule.model.ModelObject;
 import com.f5.irule.model.RequestCompletion;
+import com.f5.irule.model.RequestScheduler.Priority;
+import com.f5.irule.model.RestTransaction;
 import com.f5.irule.ui.jobs.FlowTracker;
 import com.f5.irule.ui.views.ExplorerContentProvider;
 import com.f5.irule.ui.views.Util;
@@ -78,16 +81,33 @@ public class SyncModifiedResourcesWizard extends Wizard {
         return true;
     }
 
+    /**
+     * Update the iRules and Data-Groups together in one {@link RestTransaction},
+     * the ILX extension files in one archive per extension by an {@link IlxBulkUpload},
+     * and every other model by its own job.
+     */
     private void updateModels(List<ModelObject> selectedModels) {
+        ISchedulingRule mutex = Util.getMutex(Priority.INTERACTIVE);
+        RestTransaction transaction = connection.newTransaction();
+        IlxBulkUpload bulkUpload = connection.newBulkUpload(mutex);
         for (ModelObject model : selectedModels) {
             RequestCompletion completion = new PatchCompletion(flowTracker, model, connection, reloadConnectionOnCompletion);
-            ISchedulingRule mutex = Util.getMutex();
-            if (model.isLocallyAdded()) {
+            if (RestTransaction.isTransactional(model)) {
+                transaction.add(model, completion);
+            } else if (IlxBulkUpload.isBulkUploadable(model)) {
+                bulkUpload.add(model, completion);
+            } else if (model.isLocallyAdded()) {
                 model.iControlRestPostJob(completion, mutex);
             } else {
                 model.iControlRestPatchJob(completion, mutex);
             }
         }
+        if (!transaction.isEmpty()) {
+            transaction.commitJob(mutex);
+        }
+        if (!bulkUpload.isEmpty()) {
+            bulkUpload.commitJob();
+        }
     }
 
     private List<ModelObject> getSelectedModels() {